@@ -0,0 +1,65 @@
+package com.zuora.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+import com.zuora.api.util.ZApi;
+
+/**
+ * zCreate split in chunks of MAX_OBJECTS objects, sent one after another or
+ * in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBenchmark {
+
+	@Param({ "50", "500", "5000" })
+	public int objects;
+
+	@Param({ "1", "4" })
+	public int chunkConcurrency;
+
+	private FakeZuoraServer server;
+
+	private ZApi zapi;
+
+	private ZObject[] accounts;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new FakeZuoraServer(1, 1);
+		server.start();
+		zapi = ZuoraFixtures.connect(server);
+		zapi.setChunkConcurrency(chunkConcurrency);
+		accounts = ZuoraFixtures.objects(ZuoraFixtures.accounts(objects, false));
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public SaveResult[] zCreate() {
+		return zapi.zCreate(accounts);
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.zuora.api.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server answering the login, query, queryMore and create
+ * calls with canned Zuora responses, so that the benchmarks measure the
+ * client side only (serialization, HTTP, paging and chunking).
+ *
+ * A query returns `pages` pages of `pageSize` accounts, a create call returns
+ * one successful SaveResult per object sent.
+ */
+public class FakeZuoraServer {
+
+	/** The first element of the SOAP body, i.e. the operation called */
+	private static final Pattern OPERATION = Pattern.compile("<(?:[\\w-]+:)?Body[^>]*>\\s*<(?:[\\w-]+:)?(\\w+)");
+
+	/** The query locator of a queryMore call */
+	private static final Pattern QUERY_LOCATOR = Pattern.compile("<(?:[\\w-]+:)?queryLocator[^>]*>page-(\\d+)<");
+
+	/** The objects of a create call */
+	private static final Pattern Z_OBJECT = Pattern.compile("<(?:[\\w-]+:)?zObjects[\\s>]");
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final byte[] loginResponse;
+
+	/** The canned pages of the query */
+	private final byte[][] queryPages;
+
+	/** The canned create responses, by number of objects */
+	private final Map<Integer, byte[]> createResponses = new ConcurrentHashMap<Integer, byte[]>();
+
+	/**
+	 * Instantiates a server listening on a free port of the loopback
+	 * interface
+	 *
+	 * @param pageSize
+	 *            Number of records per query page
+	 * @param pages
+	 *            Number of pages of a query
+	 */
+	public FakeZuoraServer(int pageSize, int pages) throws IOException, XMLStreamException {
+
+		this.loginResponse = ZuoraFixtures.loginResponse();
+		this.queryPages = new byte[pages][];
+		for (int i = 0; i < pages; i++) {
+			queryPages[i] = ZuoraFixtures.queryResponse(i, pageSize, pages);
+		}
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "fake-zuora");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return The endpoint to give to the ZApi
+	 */
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/apps/services/a/79.0";
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		try {
+			String request = read(exchange.getRequestBody());
+
+			Matcher operation = OPERATION.matcher(request);
+			byte[] response = operation.find() ? response(operation.group(1), request) : null;
+
+			exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+			if (response == null) {
+				exchange.sendResponseHeaders(500, -1);
+			} else {
+				exchange.sendResponseHeaders(200, response.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		} catch (XMLStreamException e) {
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return The canned response of the operation, null if not supported
+	 */
+	private byte[] response(String operation, String request) throws XMLStreamException {
+
+		if ("login".equals(operation)) {
+			return loginResponse;
+		}
+
+		if ("query".equals(operation)) {
+			return queryPages[0];
+		}
+
+		if ("queryMore".equals(operation)) {
+			Matcher locator = QUERY_LOCATOR.matcher(request);
+			int page = locator.find() ? Integer.parseInt(locator.group(1)) : queryPages.length;
+			return page < queryPages.length ? queryPages[page] : null;
+		}
+
+		if ("create".equals(operation)) {
+			int count = 0;
+			Matcher objects = Z_OBJECT.matcher(request);
+			while (objects.find()) {
+				count++;
+			}
+
+			byte[] response = createResponses.get(count);
+			if (response == null) {
+				response = ZuoraFixtures.createResponse(count);
+				createResponses.put(count, response);
+			}
+			return response;
+		}
+
+		return null;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.zuora.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.util.ZApi;
+import com.zuora.api.util.ZQueryIterator;
+
+/**
+ * zQuery/zQueryMore paging: one page, then a query of 10 pages iterated
+ * synchronously or with read-ahead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+	/** Number of pages of the query */
+	private static final int PAGES = 10;
+
+	@Param({ "200", "2000" })
+	public int pageSize;
+
+	/** Pages fetched in advance (0 for the synchronous iterator) */
+	@Param({ "0", "2" })
+	public int readAhead;
+
+	private FakeZuoraServer server;
+
+	private ZApi zapi;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new FakeZuoraServer(pageSize, PAGES);
+		server.start();
+		zapi = ZuoraFixtures.connect(server);
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public QueryResult zQuery() {
+		return zapi.zQuery(ZuoraFixtures.QUERY);
+	}
+
+	@Benchmark
+	public int zQueryPaging() {
+		ZQueryIterator iterator = readAhead > 0 ? zapi.zQueryIterator(ZuoraFixtures.QUERY, readAhead)
+				: zapi.zQueryIterator(ZuoraFixtures.QUERY);
+
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.zuora.api.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Create;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+
+/**
+ * ADB serialization of a create request of MAX_OBJECTS accounts, and
+ * deserialization of a query page, the way the stub does it (AXIOM tree then
+ * ADB parser).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	/** Number of records of the query page */
+	@Param({ "200", "2000" })
+	public int records;
+
+	private final SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+
+	private Create create;
+
+	private byte[] queryPage;
+
+	@Setup
+	public void setUp() throws Exception {
+		create = new Create();
+		create.setZObjects(ZuoraFixtures.accounts(50, false));
+		queryPage = ZuoraFixtures.queryResponse(0, records, 2);
+	}
+
+	@Benchmark
+	public byte[] serializeCreate() throws Exception {
+		return ZuoraFixtures.envelope(create.getOMElement(Create.MY_QNAME, factory));
+	}
+
+	@Benchmark
+	public QueryResponse deserializeQueryPage() throws Exception {
+		SOAPEnvelope envelope = OMXMLBuilderFactory.createSOAPModelBuilder(new ByteArrayInputStream(queryPage), "UTF-8")
+				.getSOAPEnvelope();
+		return QueryResponse.Factory.parse(envelope.getBody().getFirstElement().getXMLStreamReaderWithoutCaching());
+	}
+
+}
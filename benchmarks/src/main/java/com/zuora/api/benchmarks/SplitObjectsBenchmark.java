@@ -0,0 +1,46 @@
+package com.zuora.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+import com.zuora.api.util.ZuoraUtility;
+
+/**
+ * ZuoraUtility.splitObjects() on arrays of various sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitObjectsBenchmark {
+
+	@Param({ "50", "500", "5000", "50000" })
+	public int objects;
+
+	private ZObject[] accounts;
+
+	@Setup
+	public void setUp() {
+		accounts = ZuoraFixtures.accounts(objects, false);
+	}
+
+	@Benchmark
+	public ZObject[][] splitObjects() {
+		return ZuoraUtility.splitObjects(accounts);
+	}
+
+}
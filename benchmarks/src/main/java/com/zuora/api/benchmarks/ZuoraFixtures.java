@@ -0,0 +1,168 @@
+package com.zuora.api.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.CreateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+import com.zuora.api.util.ZApi;
+import com.zuora.api.util.ZRetryPolicy;
+
+/**
+ * Canned Zuora objects and SOAP responses, serialized with the ADB classes
+ * of the stub so that they match what the client expects.
+ */
+public class ZuoraFixtures {
+
+	/** The query sent by the benchmarks (the fake server ignores it) */
+	public static final String QUERY = "SELECT Id, Name, AccountNumber, Currency, Status FROM Account";
+
+	private static final SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+
+	/**
+	 * Build a Zuora ID (32 hexadecimal characters)
+	 */
+	public static ID id(long n) {
+		ID id = new ID();
+		id.setID(String.format("%032x", n));
+		return id;
+	}
+
+	/**
+	 * Build accounts with the usual fields of a create call
+	 *
+	 * @param count
+	 *            Number of accounts
+	 * @param withIds
+	 *            True to set their IDs, as returned by a query
+	 */
+	public static Account[] accounts(int count, boolean withIds) {
+		Account[] accounts = new Account[count];
+		for (int i = 0; i < count; i++) {
+			Account account = new Account();
+			if (withIds) {
+				account.setId(id(i + 1));
+			}
+			account.setName("Benchmark account " + i);
+			account.setAccountNumber("A-" + (100000 + i));
+			account.setCurrency("EUR");
+			account.setStatus("Draft");
+			account.setBatch("Batch1");
+			account.setBillCycleDay(1);
+			account.setPaymentTerm("Due Upon Receipt");
+			accounts[i] = account;
+		}
+		return accounts;
+	}
+
+	/**
+	 * Build the response of a login call
+	 */
+	public static byte[] loginResponse() throws XMLStreamException {
+		LoginResult result = new LoginResult();
+		result.setSession("benchmark-session");
+		result.setServerUrl("http://localhost/apps/services/a/79.0");
+
+		LoginResponse response = new LoginResponse();
+		response.setResult(result);
+		return envelope(response.getOMElement(LoginResponse.MY_QNAME, factory));
+	}
+
+	/**
+	 * Build one page of the response of a query/queryMore call
+	 *
+	 * @param page
+	 *            Index of the page (from 0)
+	 * @param pageSize
+	 *            Number of records per page
+	 * @param pages
+	 *            Number of pages of the query
+	 */
+	public static byte[] queryResponse(int page, int pageSize, int pages) throws XMLStreamException {
+		Account[] records = accounts(pageSize, true);
+
+		QueryResult result = new QueryResult();
+		result.setRecords(records);
+		result.setSize(pageSize * pages);
+		result.setDone(page == pages - 1);
+		if (page < pages - 1) {
+			QueryLocator locator = new QueryLocator();
+			locator.setQueryLocator("page-" + (page + 1));
+			result.setQueryLocator(locator);
+		}
+
+		QueryResponse response = new QueryResponse();
+		response.setResult(result);
+		return envelope(response.getOMElement(QueryResponse.MY_QNAME, factory));
+	}
+
+	/**
+	 * Build the response of a create call
+	 *
+	 * @param count
+	 *            Number of objects created
+	 */
+	public static byte[] createResponse(int count) throws XMLStreamException {
+		SaveResult[] results = new SaveResult[count];
+		for (int i = 0; i < count; i++) {
+			results[i] = new SaveResult();
+			results[i].setId(id(i + 1));
+			results[i].setSuccess(true);
+		}
+
+		CreateResponse response = new CreateResponse();
+		response.setResult(results);
+		return envelope(response.getOMElement(CreateResponse.MY_QNAME, factory));
+	}
+
+	/**
+	 * Wrap a payload in a SOAP 1.1 envelope
+	 *
+	 * @return The serialized envelope
+	 */
+	public static byte[] envelope(OMElement payload) throws XMLStreamException {
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(payload);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		envelope.serialize(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Create a ZApi logged in on the fake server, without throttle nor retry
+	 */
+	public static ZApi connect(FakeZuoraServer server) {
+		ZApi zapi = new ZApi(server.getEndpoint());
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		if (zapi.zLogin("benchmark", "benchmark") == null) {
+			throw new IllegalStateException("Could not log in on the fake Zuora server");
+		}
+		return zapi;
+	}
+
+	/**
+	 * Cast accounts for the ZApi calls
+	 */
+	public static ZObject[] objects(Account[] accounts) {
+		ZObject[] objects = new ZObject[accounts.length];
+		System.arraycopy(accounts, 0, objects, 0, accounts.length);
+		return objects;
+	}
+
+}
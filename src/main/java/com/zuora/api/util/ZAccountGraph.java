@@ -0,0 +1,182 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Contact;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.PaymentMethod;
+
+/**
+ * An account with its contacts and payment method, created together by
+ * {@link ZAccountGraphWriter}. The IDs of the created objects are set on the
+ * objects, and the status of the creation on the graph.
+ */
+public class ZAccountGraph {
+
+	/** Status of the creation of a graph */
+	public enum Status {
+		/** Not written yet */
+		PENDING,
+		/** Every object has been created (and the account activated) */
+		CREATED,
+		/** An object could not be created, the created objects are kept */
+		FAILED,
+		/** An object could not be created, the account has been deleted */
+		ROLLED_BACK
+	}
+
+	private final Account account;
+
+	private final List<Contact> contacts = new ArrayList<Contact>();
+
+	private Contact billTo;
+
+	private Contact soldTo;
+
+	private PaymentMethod paymentMethod;
+
+	private boolean activate = true;
+
+	private Status status = Status.PENDING;
+
+	private final List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Instantiates a graph
+	 *
+	 * @param account
+	 *            The account to create
+	 */
+	public ZAccountGraph(Account account) {
+		this.account = account;
+	}
+
+	/**
+	 * Add a contact of the account
+	 *
+	 * @param contact
+	 *            The contact (its AccountId is set once the account created)
+	 * @return This graph
+	 */
+	public ZAccountGraph addContact(Contact contact) {
+		if (!contacts.contains(contact)) {
+			contacts.add(contact);
+		}
+		return this;
+	}
+
+	/**
+	 * @param billTo
+	 *            The bill to contact, added to the contacts (by default the
+	 *            first contact)
+	 * @return This graph
+	 */
+	public ZAccountGraph setBillTo(Contact billTo) {
+		addContact(billTo);
+		this.billTo = billTo;
+		return this;
+	}
+
+	/**
+	 * @param soldTo
+	 *            The sold to contact, added to the contacts (by default the
+	 *            bill to contact)
+	 * @return This graph
+	 */
+	public ZAccountGraph setSoldTo(Contact soldTo) {
+		addContact(soldTo);
+		this.soldTo = soldTo;
+		return this;
+	}
+
+	/**
+	 * @param paymentMethod
+	 *            The payment method, set as default payment method of the
+	 *            account
+	 * @return This graph
+	 */
+	public ZAccountGraph setPaymentMethod(PaymentMethod paymentMethod) {
+		this.paymentMethod = paymentMethod;
+		return this;
+	}
+
+	/**
+	 * @param activate
+	 *            True (the default) to activate the account once its contacts
+	 *            created, false to leave it in Draft
+	 * @return This graph
+	 */
+	public ZAccountGraph setActivate(boolean activate) {
+		this.activate = activate;
+		return this;
+	}
+
+	public Account getAccount() {
+		return account;
+	}
+
+	public List<Contact> getContacts() {
+		return Collections.unmodifiableList(contacts);
+	}
+
+	public Contact getBillTo() {
+		return billTo != null ? billTo : contacts.isEmpty() ? null : contacts.get(0);
+	}
+
+	public Contact getSoldTo() {
+		return soldTo != null ? soldTo : getBillTo();
+	}
+
+	public PaymentMethod getPaymentMethod() {
+		return paymentMethod;
+	}
+
+	public boolean isActivate() {
+		return activate;
+	}
+
+	/**
+	 * @return The ID of the created account, null if not created (or rolled
+	 *         back)
+	 */
+	public ID getAccountId() {
+		return status == Status.ROLLED_BACK ? null : account.getId();
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The errors of the creation, empty if created
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	boolean isFailed() {
+		return !errors.isEmpty();
+	}
+
+	void failed(String error) {
+		errors.add(error);
+		status = Status.FAILED;
+	}
+
+	void created() {
+		status = Status.CREATED;
+	}
+
+	void rolledBack() {
+		status = Status.ROLLED_BACK;
+	}
+
+	@Override
+	public String toString() {
+		return "Account " + account.getName() + " | " + status + (errors.isEmpty() ? "" : " | " + errors);
+	}
+
+}
@@ -0,0 +1,298 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.CallOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.Contact;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Error;
+import com.zuora.api.axis2.ZuoraServiceStub.PaymentMethod;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Creates many accounts with their contacts and payment method. Instead of
+ * three calls per account (create the account, create its contact, update
+ * the account to set its bill to/sold to and activate it), the graphs are
+ * written step by step for all the accounts at once:
+ *
+ * <ol>
+ * <li>create the accounts</li>
+ * <li>create the contacts and the payment methods (two calls in parallel),
+ * with the AccountId of the created accounts</li>
+ * <li>update the accounts with their BillToId, SoldToId and
+ * DefaultPaymentMethodId, and activate them</li>
+ * </ol>
+ *
+ * Each step is split in chunks of MAX_OBJECTS objects sent with the
+ * {@link ZApi#setChunkConcurrency(int) chunkConcurrency} of the ZApi, so 50
+ * accounts cost 4 round trips. A graph with an object in error is not
+ * written further; with rollback, its account (and so its contacts and
+ * payment method) is deleted.
+ *
+ * <pre>
+ * ZAccountGraphWriter writer = new ZAccountGraphWriter(zapi);
+ * writer.setRollback(true);
+ * writer.write(graphs);
+ * </pre>
+ */
+public class ZAccountGraphWriter {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZAccountGraphWriter.class);
+
+	/** The Zuora API helper instance */
+	private final ZApi zapi;
+
+	/** True to create the objects of a create call in one transaction */
+	private boolean singleTransaction;
+
+	/** True to delete the accounts of the graphs in error */
+	private boolean rollback;
+
+	/**
+	 * Instantiates a writer on an existing session
+	 *
+	 * @param zapi
+	 *            Logged in ZApi
+	 */
+	public ZAccountGraphWriter(ZApi zapi) {
+		this.zapi = zapi;
+	}
+
+	public boolean isSingleTransaction() {
+		return singleTransaction;
+	}
+
+	/**
+	 * @param singleTransaction
+	 *            True to send the create calls with useSingleTransaction: the
+	 *            objects of a chunk are all created or none, so an error on one
+	 *            graph fails the other graphs of its chunk (false by default)
+	 */
+	public void setSingleTransaction(boolean singleTransaction) {
+		this.singleTransaction = singleTransaction;
+	}
+
+	public boolean isRollback() {
+		return rollback;
+	}
+
+	/**
+	 * @param rollback
+	 *            True to delete the created account of a graph in error, false
+	 *            (the default) to keep it
+	 */
+	public void setRollback(boolean rollback) {
+		this.rollback = rollback;
+	}
+
+	/**
+	 * Create the graphs. The IDs of the created objects are set on them, and
+	 * the status and errors on each graph.
+	 *
+	 * @param graphs
+	 *            The graphs to create
+	 * @return The number of graphs created
+	 */
+	public int write(List<ZAccountGraph> graphs) {
+
+		// 1. The accounts, in Draft until they have their contacts
+		List<ZAccountGraph> owners = new ArrayList<ZAccountGraph>();
+		List<ZObject> objects = new ArrayList<ZObject>();
+		for (ZAccountGraph graph : graphs) {
+			if (graph.isActivate()) {
+				graph.getAccount().setStatus("Draft");
+			}
+			owners.add(graph);
+			objects.add(graph.getAccount());
+		}
+		apply("Account", owners, objects, create(objects));
+
+		// 2. The contacts and payment methods of the created accounts
+		final List<ZAccountGraph> contactOwners = new ArrayList<ZAccountGraph>();
+		final List<ZObject> contacts = new ArrayList<ZObject>();
+		final List<ZAccountGraph> paymentMethodOwners = new ArrayList<ZAccountGraph>();
+		final List<ZObject> paymentMethods = new ArrayList<ZObject>();
+		for (ZAccountGraph graph : graphs) {
+			if (graph.isFailed()) {
+				continue;
+			}
+			for (Contact contact : graph.getContacts()) {
+				contact.setAccountId(graph.getAccount().getId());
+				contactOwners.add(graph);
+				contacts.add(contact);
+			}
+			PaymentMethod paymentMethod = graph.getPaymentMethod();
+			if (paymentMethod != null) {
+				paymentMethod.setAccountId(graph.getAccount().getId());
+				paymentMethodOwners.add(graph);
+				paymentMethods.add(paymentMethod);
+			}
+		}
+		List<Callable<SaveResult[]>> calls = new ArrayList<Callable<SaveResult[]>>();
+		calls.add(new Callable<SaveResult[]>() {
+			@Override
+			public SaveResult[] call() throws Exception {
+				return create(contacts);
+			}
+		});
+		calls.add(new Callable<SaveResult[]>() {
+			@Override
+			public SaveResult[] call() throws Exception {
+				return create(paymentMethods);
+			}
+		});
+		// Not on the chunk executor: the creates wait for their own chunks on it
+		List<Future<SaveResult[]>> futures = new ZChunkDispatcher(calls.size()).run(calls);
+		apply("Contact", contactOwners, contacts, get(futures.get(0)));
+		apply("PaymentMethod", paymentMethodOwners, paymentMethods, get(futures.get(1)));
+
+		// 3. Link the accounts to their contacts and payment method
+		owners.clear();
+		objects.clear();
+		for (ZAccountGraph graph : graphs) {
+			if (graph.isFailed()) {
+				continue;
+			}
+			Account account = new Account();
+			account.setId(graph.getAccount().getId());
+			boolean changed = false;
+			if (graph.getBillTo() != null) {
+				account.setBillToId(graph.getBillTo().getId());
+				account.setSoldToId(graph.getSoldTo().getId());
+				changed = true;
+			}
+			if (graph.getPaymentMethod() != null) {
+				account.setDefaultPaymentMethodId(graph.getPaymentMethod().getId());
+				changed = true;
+			}
+			if (graph.isActivate()) {
+				account.setStatus("Active");
+				changed = true;
+			}
+			if (changed) {
+				owners.add(graph);
+				objects.add(account);
+			}
+		}
+		if (!objects.isEmpty()) {
+			apply("Account update", owners, objects, zapi.zUpdate(objects.toArray(new ZObject[objects.size()])));
+		}
+
+		// 4. Statuses, and rollback of the graphs in error
+		int created = 0;
+		List<ZAccountGraph> rolledBack = new ArrayList<ZAccountGraph>();
+		for (ZAccountGraph graph : graphs) {
+			if (!graph.isFailed()) {
+				graph.created();
+				created++;
+				if (graph.isActivate()) {
+					graph.getAccount().setStatus("Active");
+				}
+			} else if (rollback && graph.getAccount().getId() != null) {
+				rolledBack.add(graph);
+			}
+		}
+		if (!rolledBack.isEmpty()) {
+			rollback(rolledBack);
+		}
+
+		logger.info("Account graphs | created = " + created + " | failed = " + (graphs.size() - created)
+				+ " | rolled back = " + rolledBack.size());
+
+		return created;
+	}
+
+	/**
+	 * Create objects with the call options of the writer
+	 *
+	 * @return The results, null if every chunk failed
+	 */
+	private SaveResult[] create(List<ZObject> objects) {
+		if (objects.isEmpty()) {
+			return new SaveResult[0];
+		}
+		CallOptions callOptions = null;
+		if (singleTransaction) {
+			callOptions = new CallOptions();
+			callOptions.setUseSingleTransaction(true);
+		}
+		return zapi.zCreate(objects.toArray(new ZObject[objects.size()]), callOptions);
+	}
+
+	/**
+	 * Delete the accounts of the graphs in error
+	 */
+	private void rollback(List<ZAccountGraph> graphs) {
+		String[] ids = new String[graphs.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = graphs.get(i).getAccount().getId().getID();
+		}
+		DeleteResult[] results = zapi.zDelete(ids, "Account");
+		for (int i = 0; i < ids.length; i++) {
+			DeleteResult result = results != null ? results[i] : null;
+			if (result != null && result.getSuccess()) {
+				graphs.get(i).rolledBack();
+			} else {
+				graphs.get(i).failed("Rollback: account " + ids[i] + " not deleted"
+						+ (result != null ? " " + errors(result.getErrors()) : ""));
+			}
+		}
+	}
+
+	/**
+	 * Save the IDs of the created objects, and the errors on their graph
+	 */
+	private static void apply(String step, List<ZAccountGraph> owners, List<ZObject> objects, SaveResult[] results) {
+		for (int i = 0; i < objects.size(); i++) {
+			SaveResult result = results != null && i < results.length ? results[i] : null;
+			if (result == null) {
+				owners.get(i).failed(step + ": call failed");
+			} else if (!result.getSuccess()) {
+				owners.get(i).failed(step + ": " + errors(result.getErrors()));
+			} else {
+				objects.get(i).setId(result.getId());
+			}
+		}
+	}
+
+	private static SaveResult[] get(Future<SaveResult[]> future) {
+		try {
+			return future.get();
+
+		} catch (ExecutionException e) {
+			logger.error("Create call failed | " + e.getCause().getMessage());
+
+		} catch (CancellationException e) {
+			logger.error("Create call cancelled");
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	private static String errors(Error[] errors) {
+		StringBuilder sb = new StringBuilder();
+		if (errors != null) {
+			for (Error error : errors) {
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(error.getCode()).append(' ').append(error.getMessage());
+			}
+		}
+		return sb.toString();
+	}
+
+}
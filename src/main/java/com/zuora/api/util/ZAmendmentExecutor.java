@@ -0,0 +1,295 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.Error;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+
+/**
+ * Sends many amendments, keeping the order of the amendments of a same
+ * subscription while the different subscriptions are amended in parallel.
+ *
+ * The amendments are partitioned by SubscriptionId and sent in waves: each
+ * wave takes the next amendment of every partition, in amend calls of
+ * MAX_OBJECTS requests (one amendment each) with at most `concurrency` calls
+ * in flight. An amendment is therefore only sent once the previous amendment
+ * of its subscription has succeeded; its SubscriptionId is then replaced by
+ * the ID of the new version of the subscription. The remaining amendments of a
+ * subscription are not sent after a failure.
+ *
+ * <pre>
+ * ZAmendmentExecutor executor = new ZAmendmentExecutor(zapi);
+ * executor.setConcurrency(8);
+ * AmendResult[] results = executor.execute(amendments);
+ * </pre>
+ */
+public class ZAmendmentExecutor {
+
+	/** Default number of amend calls in flight */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZAmendmentExecutor.class);
+
+	/** The Zuora API helper instance */
+	private final ZApi zapi;
+
+	/** Max number of amend calls in flight */
+	private int concurrency = DEFAULT_CONCURRENCY;
+
+	/** The options of the amend calls (null for the defaults) */
+	private AmendOptions amendOptions;
+
+	/**
+	 * Instantiates an executor on an existing session
+	 *
+	 * @param zapi
+	 *            Logged in ZApi
+	 */
+	public ZAmendmentExecutor(ZApi zapi) {
+		this.zapi = zapi;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @param concurrency
+	 *            Max number of amend calls in flight (default
+	 *            DEFAULT_CONCURRENCY)
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.concurrency = concurrency;
+	}
+
+	public AmendOptions getAmendOptions() {
+		return amendOptions;
+	}
+
+	/**
+	 * @param amendOptions
+	 *            The options of the amend calls (null for the defaults)
+	 */
+	public void setAmendOptions(AmendOptions amendOptions) {
+		this.amendOptions = amendOptions;
+	}
+
+	/**
+	 * Send the amendments
+	 *
+	 * @param amendments
+	 *            The amendments, in the order they must be applied to each
+	 *            subscription. The SubscriptionId of the amendments following
+	 *            a successful amendment of the same subscription is updated.
+	 * @return One result per amendment, in the same order. The amendments not
+	 *         sent (previous amendment of the subscription failed, or
+	 *         interrupted) get a failed result.
+	 */
+	public AmendResult[] execute(Amendment[] amendments) {
+
+		AmendResult[] results = new AmendResult[amendments.length];
+		List<Partition> partitions = partition(amendments);
+		int waves = 0;
+
+		while (true) {
+			// The next amendment of every subscription still in progress
+			List<Integer> wave = new ArrayList<Integer>();
+			for (Partition partition : partitions) {
+				if (partition.hasNext()) {
+					wave.add(partition.next());
+				}
+			}
+			if (wave.isEmpty()) {
+				break;
+			}
+			waves++;
+
+			if (Thread.currentThread().isInterrupted()) {
+				fail(wave, results, new InterruptedException("Amendments interrupted"));
+			} else {
+				send(wave, amendments, results);
+			}
+
+			for (Partition partition : partitions) {
+				partition.update(amendments, results);
+			}
+		}
+
+		int succeeded = 0;
+		for (AmendResult result : results) {
+			if (result.getSuccess()) {
+				succeeded++;
+			}
+		}
+		logger.info("Amendments | subscriptions = " + partitions.size() + " | waves = " + waves + " | succeeded = "
+				+ succeeded + " | failed = " + (results.length - succeeded));
+
+		return results;
+	}
+
+	/**
+	 * Send a wave of amendments (one per subscription) in parallel chunks
+	 */
+	private void send(List<Integer> wave, final Amendment[] amendments, AmendResult[] results) {
+
+		List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+		List<Callable<AmendResult[]>> calls = new ArrayList<Callable<AmendResult[]>>();
+		for (int from = 0; from < wave.size(); from += ZApi.MAX_OBJECTS) {
+			final List<Integer> chunk = wave.subList(from, Math.min(from + ZApi.MAX_OBJECTS, wave.size()));
+			chunks.add(chunk);
+			calls.add(new Callable<AmendResult[]>() {
+				@Override
+				public AmendResult[] call() throws Exception {
+					// One request per amendment, for one result per amendment
+					AmendRequest[] batch = new AmendRequest[chunk.size()];
+					for (int i = 0; i < batch.length; i++) {
+						batch[i] = new AmendRequest();
+						batch[i].setAmendments(new Amendment[] { amendments[chunk.get(i)] });
+						if (amendOptions != null) {
+							batch[i].setAmendOptions(amendOptions);
+						}
+					}
+					return zapi.zAmend(batch);
+				}
+			});
+		}
+
+		List<Future<AmendResult[]>> futures = new ZChunkDispatcher(zapi.getChunkExecutor(), concurrency).run(calls);
+
+		for (int i = 0; i < futures.size(); i++) {
+			List<Integer> chunk = chunks.get(i);
+			Throwable failure = null;
+			try {
+				AmendResult[] tmp = futures.get(i).get();
+				int received = tmp != null ? Math.min(tmp.length, chunk.size()) : 0;
+				for (int j = 0; j < received; j++) {
+					results[chunk.get(j)] = tmp[j];
+				}
+				if (received < chunk.size()) {
+					failure = new IllegalStateException("No result received for " + (chunk.size() - received)
+							+ " amendment(s)");
+				}
+
+			} catch (ExecutionException e) {
+				logger.error("Amend call failed | " + e.getCause().getMessage());
+				failure = e.getCause();
+
+			} catch (CancellationException e) {
+				failure = e;
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = e;
+			}
+
+			if (failure != null) {
+				fail(chunk, results, failure);
+			}
+		}
+	}
+
+	/**
+	 * Give a failed result to the amendments without result
+	 */
+	private static void fail(List<Integer> indexes, AmendResult[] results, Throwable cause) {
+		for (int index : indexes) {
+			if (results[index] == null) {
+				results[index] = failedResult(ZApi.faultError(cause));
+			}
+		}
+	}
+
+	/**
+	 * Split the amendments per subscription, keeping their order
+	 */
+	private static List<Partition> partition(Amendment[] amendments) {
+		Map<String, Partition> partitions = new LinkedHashMap<String, Partition>();
+		for (int i = 0; i < amendments.length; i++) {
+			ID subscriptionId = amendments[i].getSubscriptionId();
+			// Without subscription, the amendment is on its own (and rejected by Zuora)
+			String key = subscriptionId != null ? subscriptionId.getID() : "#" + i;
+			Partition partition = partitions.get(key);
+			if (partition == null) {
+				partition = new Partition();
+				partitions.put(key, partition);
+			}
+			partition.indexes.add(i);
+		}
+		return new ArrayList<Partition>(partitions.values());
+	}
+
+	private static AmendResult failedResult(Error error) {
+		AmendResult result = new AmendResult();
+		result.setSuccess(false);
+		result.setErrors(new Error[] { error });
+		return result;
+	}
+
+	/**
+	 * The amendments of a subscription, sent one after another
+	 */
+	private static class Partition {
+
+		/** Indexes of the amendments, in order */
+		private final List<Integer> indexes = new ArrayList<Integer>();
+
+		/** Position of the next amendment to send */
+		private int position;
+
+		boolean hasNext() {
+			return position < indexes.size();
+		}
+
+		int next() {
+			return indexes.get(position);
+		}
+
+		/**
+		 * Move to the next amendment once the current one has its result: the
+		 * next one targets the new version of the subscription, or is skipped
+		 * with the remaining ones if the current one failed
+		 */
+		void update(Amendment[] amendments, AmendResult[] results) {
+			if (!hasNext() || results[next()] == null) {
+				return;
+			}
+			AmendResult result = results[next()];
+			position++;
+
+			if (result.getSuccess()) {
+				if (hasNext() && result.getSubscriptionId() != null) {
+					amendments[next()].setSubscriptionId(result.getSubscriptionId());
+				}
+				return;
+			}
+
+			Error error = new Error();
+			error.setCode(ErrorCode.UNKNOWN_ERROR);
+			error.setMessage("Not sent, a previous amendment of the subscription failed");
+			while (hasNext()) {
+				results[next()] = failedResult(error);
+				position++;
+			}
+		}
+	}
+
+}
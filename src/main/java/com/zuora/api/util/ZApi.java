@@ -9,16 +9,38 @@ import com.zuora.api.axis2.UnexpectedErrorFault;
 import com.zuora.api.axis2.*;
 import com.zuora.api.axis2.ZuoraServiceStub.*;
 import org.apache.axis2.AxisFault;
-import org.apache.axis2.client.ServiceClient;
+import org.apache.axis2.Constants;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.transport.http.HTTPConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.activation.DataHandler;
+
+/**
+ * Helper around the Zuora SOAP API: one logged in session and its calls.
+ *
+ * A ZApi can be shared by several threads once logged in: the calls can be
+ * made concurrently (the split calls do so with their chunks), an expired
+ * session is renewed by one thread while the others wait for it, and the
+ * settings (throttle, retry policy, chunk concurrency and executor, cache,
+ * metrics) can be changed at any time, the calls started after use the new
+ * values. All the calls of an instance share its session: use several
+ * instances, e.g. from a {@link ZApiPool}, to spread the calls over several
+ * sessions.
+ */
 public class ZApi {
 
     /**
@@ -46,21 +68,105 @@ public class ZApi {
      */
     public static final int MAX_OBJECTS = 50;
 
+    /**
+     * Default inactivity time after which Zuora expires a session (15 minutes)
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 15 * 60 * 1000L;
+
+    /**
+     * The session is renewed this long before its expected expiry
+     */
+    private static final long SESSION_RENEWAL_MARGIN_MILLIS = 60 * 1000L;
+
+    /**
+     * Fault code returned by Zuora when the session is expired or invalid
+     */
+    private static final String INVALID_SESSION = "INVALID_SESSION";
+
+    /**
+     * The types written by a subscribe call (invalidated in the query cache)
+     */
+    static final String[] SUBSCRIBE_TYPES = {"Account", "Contact", "PaymentMethod", "Subscription", "RatePlan",
+            "RatePlanCharge", "RatePlanChargeTier", "Invoice", "InvoiceItem", "Payment", "InvoicePayment"};
+
+    /**
+     * The types written by an amend call (invalidated in the query cache)
+     */
+    static final String[] AMEND_TYPES = {"Amendment", "Subscription", "RatePlan", "RatePlanCharge",
+            "RatePlanChargeTier", "Account", "Invoice", "InvoiceItem", "Payment", "InvoicePayment"};
+
     /**
      * The stub.
      */
     private ZuoraServiceStub stub;
 
+    /**
+     * The stub sending the imports (MTOM attachments), created on first use.
+     */
+    private ZuoraServiceStub importStub;
+
     /**
      * The header.
      */
-    private SessionHeader header;
+    private volatile SessionHeader header;
+
+    /**
+     * The credentials of the last successful login, used to renew the session.
+     */
+    private volatile String username;
+
+    private volatile String password;
+
+    /**
+     * Time of the last call made with the current session.
+     */
+    private volatile long lastActivity;
+
+    /**
+     * Inactivity time after which the session is considered expired.
+     */
+    private volatile long sessionTimeout = DEFAULT_SESSION_TIMEOUT_MILLIS;
+
+    /**
+     * Lock held while the session is renewed.
+     */
+    private final Object sessionLock = new Object();
 
     /**
      * The endpoint used.
      */
     private String endpoint;
 
+    /**
+     * Max number of chunks in flight when a call is split (1 = one after another).
+     */
+    private volatile int chunkConcurrency = 1;
+
+    /**
+     * The executor sending the chunks (null for the shared pool).
+     */
+    private volatile ExecutorService chunkExecutor;
+
+    /**
+     * The limits applied to the calls (null for no limit).
+     */
+    private volatile ZThrottle throttle = ZThrottle.getShared();
+
+    /**
+     * The policy retrying the calls failing with a transient error.
+     */
+    private volatile ZRetryPolicy retryPolicy = ZRetryPolicy.fromProperties();
+
+    /**
+     * The registry receiving the measures of the calls (null for none).
+     */
+    private volatile ZMetricsRegistry metrics = ZInMemoryMetricsRegistry.getShared();
+
+    /**
+     * The cache of the query results (null for no cache).
+     */
+    private volatile ZQueryCache queryCache;
+
     /**
      * Instantiates a new Zuora API Helper
      */
@@ -69,15 +175,11 @@ public class ZApi {
         logger.info("Creating a new ZAPI object");
 
         try {
-            setStub(new ZuoraServiceStub());
-
             // set new ENDPOINT
             setEndpoint(ZuoraUtility.getPropertyValue(PROPERTY_ENDPOINT));
 
-            if (endpoint != null && endpoint.trim().length() > 0) {
-                ServiceClient client = stub._getServiceClient();
-                client.getOptions().getTo().setAddress(endpoint);
-            }
+            // The stubs share one Axis2 context and its pool of HTTP connections
+            setStub(ZStubFactory.createStub(this.endpoint));
 
         } catch (AxisFault e) {
             logger.error(e.getMessage());
@@ -96,15 +198,11 @@ public class ZApi {
         logger.info("Creating a new ZAPI object");
 
         try {
-            setStub(new ZuoraServiceStub());
-
             // set new ENDPOINT
             setEndpoint(endpoint);
 
-            if (endpoint != null && endpoint.trim().length() > 0) {
-                ServiceClient client = stub._getServiceClient();
-                client.getOptions().getTo().setAddress(endpoint);
-            }
+            // The stubs share one Axis2 context and its pool of HTTP connections
+            setStub(ZStubFactory.createStub(this.endpoint));
 
         } catch (AxisFault e) {
             logger.error(e.getMessage());
@@ -150,12 +248,18 @@ public class ZApi {
 
         try {
 
-            resp = stub.login(login);
+            resp = login(login);
             result = resp.getResult();
 
             // Create session for all subsequent calls
-            setHeader(new SessionHeader());
-            getHeader().setSession(result.getSession());
+            SessionHeader sessionHeader = new SessionHeader();
+            sessionHeader.setSession(result.getSession());
+            setHeader(sessionHeader);
+
+            // Keep the credentials to renew the session when it expires
+            this.username = username;
+            this.password = password;
+            this.lastActivity = System.currentTimeMillis();
 
             logger.info("User `" + ZuoraUtility.getPropertyValue(PROPERTY_USERNAME) + "` successfully connected!");
 
@@ -167,32 +271,86 @@ public class ZApi {
 
         } catch (LoginFault e) {
             logger.error("Login Fault | " + e.getMessage());
+
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting to login");
+            Thread.currentThread().interrupt();
         }
 
         return result;
     }
 
     /**
-     * Do a query to Zuora and return the result (no more than 2,000 objects)
+     * Send a login call, holding a permit of the throttle
+     */
+    private LoginResponse login(final Login login) throws RemoteException, UnexpectedErrorFault, LoginFault, InterruptedException {
+
+        ZThrottle.Permit permit = acquirePermit(ZOperation.LOGIN);
+
+        try {
+            return timedCall(ZOperation.LOGIN, new Callable<LoginResponse>() {
+                @Override
+                public LoginResponse call() throws Exception {
+                    return stub.login(login);
+                }
+            });
+
+        } catch (RemoteException e) {
+            throw e;
+        } catch (UnexpectedErrorFault e) {
+            throw e;
+        } catch (LoginFault e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage(), e);
+
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Do a query to Zuora and return the result (no more than 2,000 objects),
+     * from the {@link #setQueryCache(ZQueryCache) query cache} if set. The
+     * callers of a cached query get their own copy of the QueryResult, but
+     * its records are shared and must not be modified.
      *
      * @param queryString The ZOQL query string
      * @return The query result
      */
     public QueryResult zQuery(String queryString) {
 
-        QueryResult result = null;
+        ZQueryCache cache = queryCache;
+        QueryResult result = cache != null ? cache.getResult(queryString) : null;
+        if (result != null) {
+            logger.debug("Query String = " + queryString + " (cached)");
+            return result;
+        }
+        // Read before the call: a result racing a write of its type is not cached
+        long generation = cache != null ? cache.getGeneration(queryString) : 0;
 
         // Prepare the query
-        Query query = new Query();
+        final Query query = new Query();
 
         query.setQueryString(queryString);
         logger.debug("Query String = " + queryString);
 
         // We set `null` for the 2nd parameter to return max. 2000 objects
         try {
-            QueryResponse resp = stub.query(query, null, header);
+            QueryResponse resp = execute(ZOperation.QUERY, new Callable<QueryResponse>() {
+                @Override
+                public QueryResponse call() throws Exception {
+                    return stub.query(query, null, header);
+                }
+            });
             result = resp.getResult();
+            recordPayload(ZOperation.QUERY, result.getRecords() != null ? result.getRecords().length : 0);
             logger.info("Query returned " + result.getSize() + " values");
+            if (cache != null) {
+                cache.putResult(queryString, result, generation);
+            }
 
         } catch (RemoteException e) {
             logger.error("Remote Exception | " + e.getMessage());
@@ -206,68 +364,117 @@ public class ZApi {
         } catch (InvalidQueryLocatorFault e) {
             logger.error("Invalid Query Locator | " + e.getMessage());
 
+        } catch (Exception e) {
+            logger.error("Exception | " + e.getMessage());
         }
 
         return result;
     }
 
     /**
-     * Create subscription(s) in Zuora using API call
+     * Create subscription(s) in Zuora using API calls. If there is more than
+     * MAX_OBJECTS requests, the call is split in chunks sent with at most
+     * {@link #setChunkConcurrency(int) chunkConcurrency} chunks in flight.
      *
      * @param objects array of SubscriptionRequest to create
-     * @return SubscribeResult or null if an error occured
+     * @return SubscribeResult in the order of the requests; the requests of a
+     * chunk that failed get a failed result with the fault code of the chunk
+     * (UNKNOWN_ERROR for a network error)
      */
     public ZuoraServiceStub.SubscribeResult[] zSubscribe(ZuoraServiceStub.SubscribeRequest[] objects) throws UnexpectedErrorFault, RemoteException {
 
-        ZuoraServiceStub.SubscribeResult[] subscribeResult = null;
-
-        try {
-            if (objects.length > MAX_OBJECTS) {
-
-//                subscribeResult = new SubscribeResult[objects.length];
-
-                ZuoraServiceStub.Subscribe subscribe = new ZuoraServiceStub.Subscribe();
-                subscribe.setSubscribes(objects);
-                ZuoraServiceStub.SubscribeResponse resp = stub.subscribe(subscribe, this.header);
-                subscribeResult = resp.getResult();
-            } else {
+        // If there is more than MAX_OBJECTS requests we split the call and
+        // then merge back the result
+        ZuoraServiceStub.SubscribeRequest[][] splittedObjects = ZuoraUtility.split(objects, MAX_OBJECTS);
+
+        List<Callable<ZuoraServiceStub.SubscribeResult[]>> chunks = new ArrayList<Callable<ZuoraServiceStub.SubscribeResult[]>>(splittedObjects.length);
+
+        // For each sub table, subscribe() API call
+        for (final ZuoraServiceStub.SubscribeRequest[] chunk : splittedObjects) {
+            chunks.add(new Callable<ZuoraServiceStub.SubscribeResult[]>() {
+                @Override
+                public ZuoraServiceStub.SubscribeResult[] call() throws Exception {
+
+                    final ZuoraServiceStub.Subscribe subscribe = new ZuoraServiceStub.Subscribe();
+                    subscribe.setSubscribes(chunk);
+                    recordPayload(ZOperation.SUBSCRIBE, chunk.length);
+
+                    SubscribeResponse resp = execute(ZOperation.SUBSCRIBE, new Callable<SubscribeResponse>() {
+                        @Override
+                        public SubscribeResponse call() throws Exception {
+                            return stub.subscribe(subscribe, header);
+                        }
+                    });
+                    return resp.getResult();
+                }
+            });
+        }
 
-                ZuoraServiceStub.Subscribe create = new ZuoraServiceStub.Subscribe();
-                create.setSubscribes(objects);
+        recordChunks(ZOperation.SUBSCRIBE, chunks.size());
+        List<Future<ZuoraServiceStub.SubscribeResult[]>> futures = dispatchChunks(chunks);
+        invalidateCache(SUBSCRIBE_TYPES);
 
-                ZuoraServiceStub.SubscribeResponse createResponse;
-                createResponse = stub.subscribe(create, this.header);
-                subscribeResult = createResponse.getResult();
+        // Merge the results, the requests of a failed chunk get a failed result
+        ZuoraServiceStub.SubscribeResult[] subscribeResult = new ZuoraServiceStub.SubscribeResult[objects.length];
+        Throwable[] failures = collectChunks(futures, subscribeResult);
+        for (int i = 0; i < subscribeResult.length; i++) {
+            if (subscribeResult[i] == null) {
+                subscribeResult[i] = failedSubscribeResult(failures[i / MAX_OBJECTS]);
             }
-        } catch (UnexpectedErrorFault e) {
-            logger.error("Unexpected error | " + e.getFaultMessage());
-
-        } catch (RemoteException e) {
-            logger.error("Remote Exception | " + e.getMessage());
-        } catch (Exception e) {
-            logger.error("Exception | " + e.getMessage());
         }
 
-        if (subscribeResult != null) {
-            logger.debug("Successfully received " + subscribeResult.length + " subscribe result(s).");
+        logger.debug("Successfully received " + subscribeResult.length + " subscribe result(s).");
 
-            for (ZuoraServiceStub.SubscribeResult result : subscribeResult) {
-                if (!result.getSuccess()) {
-                    logger.error("Create call failed with the following errors:");
-                    for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-                        logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-                                + error.getCode());
-                    }
-                }
+        int succeeded = 0;
+        for (ZuoraServiceStub.SubscribeResult result : subscribeResult) {
+            if (result.getSuccess()) {
+                succeeded++;
+            } else {
+                printZuoraErrors(result.getErrors());
             }
-
-        } else {
-            logger.error("Null object received during zSubscribe() operation");
         }
+        recordObjects(ZOperation.SUBSCRIBE, succeeded, objects.length - succeeded);
 
         return subscribeResult;
     }
 
+    /**
+     * Result of a subscribe request of a chunk that failed as a whole
+     *
+     * @param cause The error of the chunk
+     * @return A failed result, with the fault code of the error (UNKNOWN_ERROR
+     * for a network error)
+     */
+    private ZuoraServiceStub.SubscribeResult failedSubscribeResult(Throwable cause) {
+        ZuoraServiceStub.SubscribeResult result = new ZuoraServiceStub.SubscribeResult();
+        result.setSuccess(false);
+        result.setErrors(new ZuoraServiceStub.Error[] { faultError(cause) });
+        return result;
+    }
+
+    /**
+     * Error reported for the objects of a call that failed as a whole
+     *
+     * @param cause The error of the call
+     * @return An error with the fault code of the call (UNKNOWN_ERROR for a
+     * network error)
+     */
+    static ZuoraServiceStub.Error faultError(Throwable cause) {
+        ZuoraServiceStub.ErrorCode code = ZuoraServiceStub.ErrorCode.UNKNOWN_ERROR;
+        String faultCode = ZuoraUtility.getFaultCode(cause);
+        if (faultCode != null) {
+            try {
+                code = ZuoraServiceStub.ErrorCode.Factory.fromValue(faultCode);
+            } catch (IllegalArgumentException e) {
+                // Not an API error code, keep UNKNOWN_ERROR
+            }
+        }
+        ZuoraServiceStub.Error error = new ZuoraServiceStub.Error();
+        error.setCode(code);
+        error.setMessage(cause.getClass().getSimpleName() + ": " + cause.getMessage());
+        return error;
+    }
+
     /**
      * Requests aditional result from a previous query() call.
      *
@@ -279,12 +486,18 @@ public class ZApi {
         QueryResult result = null;
 
         // Prepares the query
-        QueryMore query = new QueryMore();
+        final QueryMore query = new QueryMore();
         query.setQueryLocator(queryLocator);
 
         try {
-            QueryMoreResponse resp = stub.queryMore(query, null, header);
+            QueryMoreResponse resp = execute(ZOperation.QUERY_MORE, new Callable<QueryMoreResponse>() {
+                @Override
+                public QueryMoreResponse call() throws Exception {
+                    return stub.queryMore(query, null, header);
+                }
+            });
             result = resp.getResult();
+            recordPayload(ZOperation.QUERY_MORE, result.getRecords() != null ? result.getRecords().length : 0);
             logger.info("Query returned " + result.getSize() + " values");
 
         } catch (RemoteException e) {
@@ -296,29 +509,41 @@ public class ZApi {
         } catch (InvalidQueryLocatorFault e) {
             logger.error("Invalid Query Locator | " + e.getMessage());
 
+        } catch (Exception e) {
+            logger.error("Exception | " + e.getMessage());
         }
 
         return result;
     }
 
+    /**
+     * Do a query to Zuora and return all the records, following the query
+     * locators until the last page. All the records are loaded in memory, use
+     * {@link #zQueryIterator(String)} for large result sets. A cached list is
+     * shared by all the callers of the query (it is unmodifiable).
+     *
+     * @param queryString The ZOQL query string
+     * @return The list of records (empty if an error occurred)
+     */
     public List zAdvancedQuery(String queryString) {
 
-        List objects = new ArrayList();
-
-        QueryResult result = zQuery(queryString);
-
-        if (result != null) {
+        ZQueryCache cache = queryCache;
+        List cached = cache != null ? cache.getRecords(queryString) : null;
+        if (cached != null) {
+            return cached;
+        }
+        long generation = cache != null ? cache.getGeneration(queryString) : 0;
 
-            if (result.getSize() > 0) {
+        List objects = new ArrayList();
 
-                Collections.addAll(objects, result.getRecords());
+        ZQueryIterator iterator = zQueryIterator(queryString);
 
-                while (!result.getDone()) {
-                    result = zQueryMore(result.getQueryLocator());
-                    Collections.addAll(objects, result.getRecords());
+        while (iterator.hasNext()) {
+            objects.add(iterator.next());
+        }
 
-                }
-            }
+        if (cache != null && !iterator.isFailed()) {
+            cache.putRecords(queryString, objects, generation);
         }
 
         return objects;
@@ -326,232 +551,405 @@ public class ZApi {
     }
 
     /**
-     * Create object(s) in Zuora using API call
+     * Do a query to Zuora and iterate lazily over the records: the next page
+     * is requested with queryMore() only once the current one is consumed, so
+     * memory stays at about one page whatever the size of the result set.
+     * The caller can stop at any time with {@link ZQueryIterator#close()}.
+     *
+     * @param queryString The ZOQL query string
+     * @return The iterator over the records
+     */
+    public ZQueryIterator zQueryIterator(String queryString) {
+        return new ZQueryIterator(this, queryString);
+    }
+
+    /**
+     * Same as {@link #zQueryIterator(String)} but the next pages are fetched
+     * in a background thread while the current one is consumed, so network
+     * wait and record processing overlap. The thread stops after the last
+     * page or when the iterator is closed: close an iteration stopped early
+     * (an iterator no longer referenced only stops its thread after a while).
+     *
+     * @param queryString The ZOQL query string
+     * @param readAhead   Max number of pages fetched in advance (memory is
+     *                    bounded to about readAhead + 1 pages)
+     * @return The iterator over the records
+     */
+    public ZQueryIterator zQueryIterator(String queryString, int readAhead) {
+        return new ZPrefetchQueryIterator(this, queryString, readAhead);
+    }
+
+    /**
+     * Create object(s) in Zuora using API call. If there is more than
+     * MAX_OBJECTS objects, the call is split in chunks sent with at most
+     * {@link #setChunkConcurrency(int) chunkConcurrency} chunks in flight.
      *
      * @param objects array of objects to create
-     * @return SaveResult or null if an error occured
+     * @return SaveResult (in the order of the objects, null for the objects of
+     * a chunk that failed) or null if an error occured on every chunk
      */
     public SaveResult[] zCreate(ZObject[] objects) {
+        return zCreate(objects, null);
+    }
 
-        SaveResult[] saveResult = null;
-
-        try {
-            // If there is more than MAX_OBJECTS to create we split the call and
-            // then merge back the result
-            if (objects.length > MAX_OBJECTS) {
+    /**
+     * Create object(s) in Zuora using API call, with call options. If there
+     * is more than MAX_OBJECTS objects, the call is split in chunks sent with
+     * at most {@link #setChunkConcurrency(int) chunkConcurrency} chunks in
+     * flight.
+     *
+     * @param objects     array of objects to create
+     * @param callOptions the options of the create calls (null for none);
+     *                    with useSingleTransaction, the objects of a chunk are
+     *                    all created or none
+     * @return SaveResult (in the order of the objects, null for the objects of
+     * a chunk that failed) or null if an error occured on every chunk
+     */
+    public SaveResult[] zCreate(ZObject[] objects, final CallOptions callOptions) {
 
-                // Get the objects in split tables
-                ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
+        // If there is more than MAX_OBJECTS to create we split the call and
+        // then merge back the result
+        ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
 
-                saveResult = new SaveResult[objects.length];
+        List<Callable<SaveResult[]>> chunks = new ArrayList<Callable<SaveResult[]>>(splittedObjects.length);
 
-                // For each sub table, create() API call
-                for (int i = 0; i < splittedObjects.length; i++) {
+        // For each sub table, create() API call
+        for (final ZObject[] chunk : splittedObjects) {
+            chunks.add(new Callable<SaveResult[]>() {
+                @Override
+                public SaveResult[] call() throws Exception {
 
                     // Prepare the create object
-                    Create create = new Create();
-                    create.setZObjects(splittedObjects[i]);
-
-                    CreateResponse createResponse = stub.create(create, null, header);
-                    SaveResult[] tmpSaveResult = createResponse.getResult();
-
-                    // Save the tmp result in the final table result returned
-                    for (int j = 0; j < tmpSaveResult.length; j++) {
-                        saveResult[(i * MAX_OBJECTS) + j] = tmpSaveResult[j];
-                    }
+                    final Create create = new Create();
+                    create.setZObjects(chunk);
+                    recordPayload(ZOperation.CREATE, chunk.length);
+
+                    CreateResponse createResponse = execute(ZOperation.CREATE, new Callable<CreateResponse>() {
+                        @Override
+                        public CreateResponse call() throws Exception {
+                            return stub.create(create, callOptions, header);
+                        }
+                    });
+                    return createResponse.getResult();
                 }
+            });
+        }
 
-            } else {
+        recordChunks(ZOperation.CREATE, chunks.size());
+        SaveResult[] saveResult = mergeChunks(dispatchChunks(chunks), new SaveResult[objects.length]);
 
-                // Prepare the create object
-                Create create = new Create();
-                create.setZObjects(objects);
+        int succeeded = 0;
 
-                CreateResponse createResponse = stub.create(create, null, header);
-                saveResult = createResponse.getResult();
+        if (saveResult != null) {
+            logger.debug("Successfully received " + saveResult.length + " save result(s).");
 
+            // If an error occurred, log it
+            for (SaveResult result : saveResult) {
+                if (result != null && result.getSuccess()) {
+                    succeeded++;
+                } else if (result != null) {
+                    printZuoraErrors(result.getErrors());
+                }
             }
 
-        } catch (UnexpectedErrorFault e) {
-            logger.error("Unexpected error | " + e.getFaultMessage());
-
-        } catch (InvalidTypeFault e) {
-            logger.error("Invalid Type Fault | " + e.getFaultMessage());
-
-        } catch (RemoteException e) {
-            logger.error("Remote Exception | " + e.getMessage());
-        }
-
-        if (saveResult != null) {
-            logger.debug("Successfully received " + saveResult.length + " save result(s).");
         } else {
             logger.error("Null object received during zCreate() operation");
         }
 
-        // If an error occurred, log it
-        for (SaveResult result : saveResult) {
-            if (!result.getSuccess()) {
-                logger.error("Create call failed with the following errors:");
-                for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-                    logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-                            + error.getCode());
-                }
-            }
-        }
+        recordObjects(ZOperation.CREATE, succeeded, objects.length - succeeded);
+        invalidateCache(objects);
 
         return saveResult;
     }
 
     /**
-     * Update object(s) in Zuora using API calls
+     * Create an Import in Zuora, its file content sent as an MTOM attachment
+     * with chunked transfer (streamed, not buffered to compute its length).
+     * The call is made with a stub of its own: the options of the stub of the
+     * other calls are not changed. A file content that can be read only once
+     * (a {@link ZStreamDataSource} backed by a stream) is not retried, nor
+     * replayed after an expired session.
      *
-     * @param objects array of objects to update (must have their Zuora IDs set)
-     * @return SaveResult or null if an error occured
+     * @param zimport the import, with its file content
+     * @return SaveResult (one result) or null if the call failed
      */
-    public SaveResult[] zUpdate(ZObject[] objects) {
+    public SaveResult[] zCreateImport(Import zimport) {
 
-        SaveResult[] saveResult = null;
+        final Create create = new Create();
+        create.setZObjects(new ZObject[] { zimport });
+        recordPayload(ZOperation.CREATE, 1);
 
+        SaveResult[] saveResult = null;
         try {
-            // If there is more than MAX_OBJECTS to create we split the call and
-            // then merge back the result
-            if (objects.length > MAX_OBJECTS) {
-
-                // Get the objects in split tables
-                ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
+            final ZuoraServiceStub importStub = getImportStub();
+            DataHandler content = zimport.getFileContent();
+            boolean repeatable = content == null || !(content.getDataSource() instanceof ZStreamDataSource)
+                    || ((ZStreamDataSource) content.getDataSource()).isRepeatable();
+            CreateResponse createResponse = execute(ZOperation.CREATE, new Callable<CreateResponse>() {
+                @Override
+                public CreateResponse call() throws Exception {
+                    return importStub.create(create, null, header);
+                }
+            }, repeatable);
+            saveResult = createResponse.getResult();
 
-                saveResult = new SaveResult[objects.length];
+        } catch (Exception e) {
+            logger.error("Import create failed");
+            logFault(e);
+        }
 
-                // For each sub table, create() API call
-                for (int i = 0; i < splittedObjects.length; i++) {
+        boolean succeeded = saveResult != null && saveResult.length > 0 && saveResult[0] != null
+                && saveResult[0].getSuccess();
+        recordObjects(ZOperation.CREATE, succeeded ? 1 : 0, succeeded ? 0 : 1);
 
-                    // Prepare the create object
-                    Update update = new Update();
-                    update.setZObjects(splittedObjects[i]);
+        return saveResult;
+    }
 
-                    UpdateResponse updateResponse = stub.update(update, header);
-                    SaveResult[] tmpSaveResult = updateResponse.getResult();
+    /**
+     * Update object(s) in Zuora using API calls. If there is more than
+     * MAX_OBJECTS objects, the call is split in chunks sent with at most
+     * {@link #setChunkConcurrency(int) chunkConcurrency} chunks in flight.
+     *
+     * @param objects array of objects to update (must have their Zuora IDs set)
+     * @return SaveResult (in the order of the objects, null for the objects of
+     * a chunk that failed) or null if an error occured on every chunk
+     */
+    public SaveResult[] zUpdate(ZObject[] objects) {
 
-                    // Save the tmp result in the final table result returned
-                    for (int j = 0; j < tmpSaveResult.length; j++) {
-                        saveResult[(i * MAX_OBJECTS) + j] = tmpSaveResult[j];
-                    }
+        // If there is more than MAX_OBJECTS to update we split the call and
+        // then merge back the result
+        ZObject[][] splittedObjects = ZuoraUtility.splitObjects(objects);
+
+        List<Callable<SaveResult[]>> chunks = new ArrayList<Callable<SaveResult[]>>(splittedObjects.length);
+
+        // For each sub table, update() API call
+        for (final ZObject[] chunk : splittedObjects) {
+            chunks.add(new Callable<SaveResult[]>() {
+                @Override
+                public SaveResult[] call() throws Exception {
+
+                    // Prepare the update object
+                    final Update update = new Update();
+                    update.setZObjects(chunk);
+                    recordPayload(ZOperation.UPDATE, chunk.length);
+
+                    UpdateResponse updateResponse = execute(ZOperation.UPDATE, new Callable<UpdateResponse>() {
+                        @Override
+                        public UpdateResponse call() throws Exception {
+                            return stub.update(update, header);
+                        }
+                    });
+                    return updateResponse.getResult();
                 }
+            });
+        }
 
-            } else {
-
-                // Prepare the create object
-                Update update = new Update();
-                update.setZObjects(objects);
-
-                UpdateResponse updateResponse = stub.update(update, header);
-                saveResult = updateResponse.getResult();
-            }
-
-        } catch (UnexpectedErrorFault e) {
-            logger.error("Unexpected error | " + e.getFaultMessage());
-
-        } catch (InvalidTypeFault e) {
-            logger.error("Invalid Type Fault | " + e.getFaultMessage());
+        recordChunks(ZOperation.UPDATE, chunks.size());
+        SaveResult[] saveResult = mergeChunks(dispatchChunks(chunks), new SaveResult[objects.length]);
 
-        } catch (RemoteException e) {
-            logger.error("Remote Exception | " + e.getMessage());
-        }
+        int succeeded = 0;
 
         if (saveResult != null) {
             logger.debug("Successfully received " + saveResult.length + " save result(s).");
-        } else {
-            logger.error("Null object received during zCreate() operation");
-        }
 
-        // If an error occurred, log it
-        for (SaveResult result : saveResult) {
-            if (!result.getSuccess()) {
-                logger.error("Create call failed with the following errors:");
-                for (com.zuora.api.axis2.ZuoraServiceStub.Error error : result.getErrors()) {
-                    logger.error("field: " + error.getField() + " | message: " + error.getMessage() + " | code: "
-                            + error.getCode());
+            // If an error occurred, log it
+            for (SaveResult result : saveResult) {
+                if (result != null && result.getSuccess()) {
+                    succeeded++;
+                } else if (result != null) {
+                    printZuoraErrors(result.getErrors());
                 }
             }
+
+        } else {
+            logger.error("Null object received during zUpdate() operation");
         }
 
+        recordObjects(ZOperation.UPDATE, succeeded, objects.length - succeeded);
+        invalidateCache(objects);
+
         return saveResult;
     }
 
     /**
-     * Delete object(s) in Zuora using API calls
+     * Delete object(s) in Zuora using API calls. If there is more than
+     * MAX_OBJECTS IDs, the call is split in chunks sent with at most
+     * {@link #setChunkConcurrency(int) chunkConcurrency} chunks in flight.
      *
      * @param ids  Zuora ID of object to delete
      * @param type can be Account, Subscription, etc.
-     * @return Delete Result if success, null if an error occurred
+     * @return Delete Result if success (in the order of the IDs, null for the
+     * IDs of a chunk that failed), null if an error occurred on every chunk
      */
-    public DeleteResult[] zDelete(String[] ids, String type) {
-
-        DeleteResult[] deleteResult = null;
-
-        try {
+    public DeleteResult[] zDelete(String[] ids, final String type) {
 
-            // If there is more than MAX_OBJECTS to create we split the call and
-            // then merge back the result
-            if (ids.length > MAX_OBJECTS) {
+        // If there is more than MAX_OBJECTS to delete we split the call and
+        // then merge back the result
+        String[][] splittedIds = ZuoraUtility.splitIds(ids);
 
-                // Get the objects in split tables
-                String[][] splittedIds = ZuoraUtility.splitIds(ids);
+        List<Callable<DeleteResult[]>> chunks = new ArrayList<Callable<DeleteResult[]>>(splittedIds.length);
 
-                deleteResult = new DeleteResult[ids.length];
-
-                // For each sub table, create() API call
-                for (int i = 0; i < splittedIds.length; i++) {
+        // For each sub table, delete() API call
+        for (final String[] chunk : splittedIds) {
+            chunks.add(new Callable<DeleteResult[]>() {
+                @Override
+                public DeleteResult[] call() throws Exception {
 
                     // Convert the IDs to Zuora IDs
-                    ID[] zuoraIds = ZuoraUtility.stringToZuoraId(splittedIds[i]);
+                    ID[] zuoraIds = ZuoraUtility.stringToZuoraId(chunk);
 
                     // Prepare the delete object
-                    Delete delete = new Delete();
+                    final Delete delete = new Delete();
                     delete.setType(type);
                     delete.setIds(zuoraIds);
+                    recordPayload(ZOperation.DELETE, chunk.length);
+
+                    DeleteResponse deleteResponse = execute(ZOperation.DELETE, new Callable<DeleteResponse>() {
+                        @Override
+                        public DeleteResponse call() throws Exception {
+                            return stub.delete(delete, header);
+                        }
+                    });
+                    return deleteResponse.getResult();
+                }
+            });
+        }
 
-                    DeleteResponse deleteResponse = stub.delete(delete, header);
-                    DeleteResult[] tmpDeleteResult = deleteResponse.getResult();
+        recordChunks(ZOperation.DELETE, chunks.size());
+        DeleteResult[] deleteResult = mergeChunks(dispatchChunks(chunks), new DeleteResult[ids.length]);
 
-                    // Save the tmp result in the final table result returned
-                    for (int j = 0; j < tmpDeleteResult.length; j++) {
-                        deleteResult[(i * MAX_OBJECTS) + j] = tmpDeleteResult[j];
-                    }
+        int succeeded = 0;
+
+        if (deleteResult != null) {
+            logger.info("Successfully deleted " + deleteResult.length + " zObject(s)");
+            for (DeleteResult result : deleteResult) {
+                if (result != null && result.getSuccess()) {
+                    succeeded++;
                 }
+            }
+        } else {
+            logger.error("An error occurred during the zDelete() call");
+        }
 
-            } else {
-                // Convert the IDs to Zuora IDs
-                ID[] zuoraIds = ZuoraUtility.stringToZuoraId(ids);
+        recordObjects(ZOperation.DELETE, succeeded, ids.length - succeeded);
+        invalidateCache(type);
+
+        return deleteResult;
+    }
+
+    /**
+     * Send the chunks of a split call, with at most chunkConcurrency chunks
+     * in flight
+     *
+     * @param chunks one API call per chunk
+     * @return The completed chunks, in the same order
+     */
+    private <T> List<Future<T>> dispatchChunks(List<Callable<T>> chunks) {
+        return new ZChunkDispatcher(chunkExecutor, chunkConcurrency).run(chunks);
+    }
+
+    /**
+     * Merge back the results of the chunks of a split call, chunk i being
+     * saved at index i * MAX_OBJECTS. The errors of the chunks are logged.
+     *
+     * @param chunks The completed chunks
+     * @param merged The table receiving the results
+     * @return The merged results, or null if every chunk failed
+     */
+    private <T> T[] mergeChunks(List<Future<T[]>> chunks, T[] merged) {
+
+        boolean success = chunks.isEmpty();
+
+        for (int i = 0; i < chunks.size(); i++) {
+            try {
+                T[] tmp = chunks.get(i).get();
 
-                // Prepare the delete object
-                Delete delete = new Delete();
-                delete.setType(type);
-                delete.setIds(zuoraIds);
+                // Save the tmp result in the final table result returned
+                if (tmp != null) {
+                    System.arraycopy(tmp, 0, merged, i * MAX_OBJECTS, Math.min(tmp.length, merged.length - i * MAX_OBJECTS));
+                    success = true;
+                }
+
+            } catch (ExecutionException e) {
+                logger.error("Chunk " + (i + 1) + "/" + chunks.size() + " failed");
+                logFault(e.getCause());
 
-                DeleteResponse deleteResponse = stub.delete(delete, header);
-                deleteResult = deleteResponse.getResult();
+            } catch (CancellationException e) {
+                logger.error("Chunk " + (i + 1) + "/" + chunks.size() + " cancelled");
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
 
-        } catch (InvalidValueFault e) {
-            logger.error("Invalid Value | " + e.getFaultMessage());
+        return success ? merged : null;
+    }
 
-        } catch (UnexpectedErrorFault e) {
-            logger.error("Unexpected error | " + e.getFaultMessage());
+    /**
+     * Merge back the results of the chunks of a split call like
+     * {@link #mergeChunks(List, Object[])}, keeping the error of each chunk
+     * that failed or returned fewer results than objects sent
+     *
+     * @param chunks The completed chunks
+     * @param merged The table receiving the results
+     * @return The error of each chunk, null for the chunks fully received
+     */
+    private <T> Throwable[] collectChunks(List<Future<T[]>> chunks, T[] merged) {
+
+        Throwable[] failures = new Throwable[chunks.size()];
+
+        for (int i = 0; i < chunks.size(); i++) {
+            int from = i * MAX_OBJECTS;
+            int size = Math.min(MAX_OBJECTS, merged.length - from);
+            try {
+                T[] tmp = chunks.get(i).get();
+                int received = tmp != null ? Math.min(tmp.length, size) : 0;
+                if (received > 0) {
+                    System.arraycopy(tmp, 0, merged, from, received);
+                }
+                if (received < size) {
+                    failures[i] = new IllegalStateException("No result received for " + (size - received) + " object(s)");
+                }
 
-        } catch (InvalidTypeFault e) {
-            logger.error("Invalid Type Fault | " + e.getFaultMessage());
+            } catch (ExecutionException e) {
+                logger.error("Chunk " + (i + 1) + "/" + chunks.size() + " failed");
+                logFault(e.getCause());
+                failures[i] = e.getCause();
 
-        } catch (RemoteException e) {
-            logger.error("Remote Exception | " + e.getMessage());
+            } catch (CancellationException e) {
+                logger.error("Chunk " + (i + 1) + "/" + chunks.size() + " cancelled");
+                failures[i] = e;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures[i] = e;
+            }
         }
 
-        if (deleteResult != null)
-            logger.info("Successfully deleted " + deleteResult.length + " zObject(s)");
-        else
-            logger.error("An error occurred during the zDelete() call");
+        return failures;
+    }
 
-        return deleteResult;
+    /**
+     * Log an error raised by a Zuora API call
+     *
+     * @param e The error
+     */
+    private void logFault(Throwable e) {
+        if (e instanceof UnexpectedErrorFault) {
+            logger.error("Unexpected error | " + ((UnexpectedErrorFault) e).getFaultMessage());
+
+        } else if (e instanceof InvalidTypeFault) {
+            logger.error("Invalid Type Fault | " + ((InvalidTypeFault) e).getFaultMessage());
+
+        } else if (e instanceof InvalidValueFault) {
+            logger.error("Invalid Value | " + ((InvalidValueFault) e).getFaultMessage());
+
+        } else if (e instanceof RemoteException) {
+            logger.error("Remote Exception | " + e.getMessage());
+
+        } else {
+            logger.error("Exception | " + e.getMessage());
+        }
     }
 
     /**
@@ -573,6 +971,7 @@ public class ZApi {
     private ZuoraServiceStub.AmendResult[] zAmendUnit(ZuoraServiceStub.Amendment[] amendments, final AmendOptions amendOptions) throws UnexpectedErrorFault, RemoteException {
         final ZuoraServiceStub.AmendRequest amend = new ZuoraServiceStub.AmendRequest();
         amend.setAmendments(amendments);
+        recordPayload(ZOperation.AMEND, amendments.length);
         if(amendOptions != null) {
             amend.setAmendOptions(amendOptions);
         }
@@ -580,9 +979,254 @@ public class ZApi {
 
         amends.setRequests(new ZuoraServiceStub.AmendRequest[]{amend});
 
+        try {
+            final ZuoraServiceStub.AmendResponse resp = execute(ZOperation.AMEND, new Callable<AmendResponse>() {
+                @Override
+                public AmendResponse call() throws Exception {
+                    return stub.amend(amends, header);
+                }
+            });
+            return resp.getResults();
+
+        } catch (UnexpectedErrorFault e) {
+            throw e;
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage(), e);
+
+        } finally {
+            invalidateCache(AMEND_TYPES);
+        }
+    }
 
-        final ZuoraServiceStub.AmendResponse resp = stub.amend(amends, this.header);
-        return resp.getResults();
+    /**
+     * Make an API call with the current session. The session is renewed
+     * before the call if it has been inactive for too long, and the call is
+     * replayed once if Zuora answers INVALID_SESSION.
+     *
+     * The call first waits for the limits of the {@link ZThrottle throttle},
+     * and is sent again if it fails with an error retried by the
+     * {@link ZRetryPolicy retry policy}.
+     *
+     * @param operation The operation made by the call
+     * @param call The API call, must read the `header` field when invoked
+     * @return The response of the call
+     * @throws Exception The error raised by the last attempt
+     */
+    private <T> T execute(ZOperation operation, Callable<T> call) throws Exception {
+        return execute(operation, call, true);
+    }
+
+    /**
+     * Make an API call like {@link #execute(ZOperation, Callable)}
+     *
+     * @param operation The operation made by the call
+     * @param call The API call, must read the `header` field when invoked
+     * @param repeatable False if the call can be sent only once (content read
+     *                   once): it is neither retried nor replayed after an
+     *                   expired session
+     * @return The response of the call
+     * @throws Exception The error raised by the last attempt
+     */
+    private <T> T execute(ZOperation operation, Callable<T> call, boolean repeatable) throws Exception {
+
+        ZRetryPolicy policy = repeatable ? retryPolicy : null;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(operation, call, repeatable);
+
+            } catch (Exception e) {
+                if (policy == null || attempt >= policy.getMaxAttempts() || !policy.isRetryable(operation, e)) {
+                    throw e;
+                }
+
+                long delay = policy.getDelayMillis(attempt);
+                logger.warn(operation + " call failed (" + ZuoraUtility.getFaultCode(e) + " | " + e.getMessage()
+                        + "), attempt " + (attempt + 1) + "/" + policy.getMaxAttempts() + " in " + delay + " ms");
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make one attempt of an API call, holding a permit of the throttle. The
+     * session is renewed without holding the permit: the login call waits for
+     * a permit of its own.
+     *
+     * @param operation The operation made by the call
+     * @param call The API call
+     * @param repeatable False to not replay the call after an expired session
+     * @return The response of the call
+     * @throws Exception The error raised by the call
+     */
+    private <T> T attempt(ZOperation operation, Callable<T> call, boolean repeatable) throws Exception {
+
+        SessionHeader used = currentSession();
+
+        try {
+            return permittedCall(operation, call);
+
+        } catch (Exception e) {
+            if (!isRenewable(e)) {
+                throw e;
+            }
+            if (!repeatable) {
+                // The next calls get a valid session, this one cannot be sent again
+                logger.error(operation + " call failed, session expired and the call cannot be replayed");
+                renewSession(used);
+                throw e;
+            }
+        }
+
+        logger.warn("Session expired, logging in again and replaying the call");
+        renewSession(used);
+
+        return permittedCall(operation, call);
+    }
+
+    /**
+     * Make an API call holding a permit of the throttle
+     */
+    private <T> T permittedCall(ZOperation operation, Callable<T> call) throws Exception {
+
+        ZThrottle.Permit permit = acquirePermit(operation);
+
+        try {
+            T response = timedCall(operation, call);
+            sessionUsed();
+            return response;
+
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Make an API call and record its duration in the metrics registry
+     *
+     * @param operation The operation made by the call
+     * @param call The API call
+     * @return The response of the call
+     * @throws Exception The error raised by the call
+     */
+    private <T> T timedCall(ZOperation operation, Callable<T> call) throws Exception {
+
+        long start = System.nanoTime();
+        boolean success = false;
+
+        try {
+            T response = call.call();
+            success = true;
+            return response;
+
+        } finally {
+            recordCall(operation, System.nanoTime() - start, success);
+        }
+    }
+
+    void recordCall(ZOperation operation, long durationNanos, boolean success) {
+        ZMetricsRegistry registry = metrics;
+        if (registry != null) {
+            registry.recordCall(operation, durationNanos, success);
+        }
+    }
+
+    void recordPayload(ZOperation operation, int objects) {
+        ZMetricsRegistry registry = metrics;
+        if (registry != null) {
+            registry.recordPayload(operation, objects);
+        }
+    }
+
+    void recordChunks(ZOperation operation, int chunks) {
+        ZMetricsRegistry registry = metrics;
+        if (registry != null) {
+            registry.recordChunks(operation, chunks);
+        }
+    }
+
+    void recordObjects(ZOperation operation, int succeeded, int failed) {
+        ZMetricsRegistry registry = metrics;
+        if (registry != null) {
+            registry.recordObjects(operation, succeeded, failed);
+        }
+    }
+
+    /**
+     * Wait until the throttle lets the operation be sent
+     *
+     * @param operation The operation about to be sent
+     * @return The permit to release once the call is completed (null if there
+     * is no throttle)
+     * @throws InterruptedException If interrupted while waiting
+     */
+    ZThrottle.Permit acquirePermit(ZOperation operation) throws InterruptedException {
+        ZThrottle current = throttle;
+        return current != null ? current.acquire(operation) : null;
+    }
+
+    /**
+     * Get the session to use for the next call, renewed first if it has been
+     * inactive for too long
+     *
+     * @return The session header
+     */
+    SessionHeader currentSession() {
+
+        SessionHeader used = header;
+
+        if (used != null && username != null
+                && System.currentTimeMillis() - lastActivity > sessionTimeout - SESSION_RENEWAL_MARGIN_MILLIS) {
+            logger.info("Session inactive for more than " + (sessionTimeout / 1000) + "s, logging in again");
+            used = renewSession(used);
+        }
+
+        return used;
+    }
+
+    /**
+     * Record a successful call made with the current session
+     */
+    void sessionUsed() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @param e The error raised by a call
+     * @return True if the call failed because the session expired and it can
+     * be renewed
+     */
+    boolean isRenewable(Throwable e) {
+        return username != null && INVALID_SESSION.equals(ZuoraUtility.getFaultCode(e));
+    }
+
+    /**
+     * Log in again with the last credentials. When several threads find the
+     * same session expired, only the first one logs in, the others wait for
+     * it and use the new session.
+     *
+     * @param expired The session found expired
+     * @return The new session
+     */
+    SessionHeader renewSession(SessionHeader expired) {
+        synchronized (sessionLock) {
+            if (header == expired) {
+                zLogin(username, password);
+            }
+            return header;
+        }
     }
 
     /**
@@ -592,7 +1236,7 @@ public class ZApi {
      *          Array of Zuora errors
      */
     public void printZuoraErrors(com.zuora.api.axis2.ZuoraServiceStub.Error[] errors) {
-        if(errors.length > 0) {
+        if(errors != null && errors.length > 0) {
             logger.error("Create call failed with the following errors:");
             for (com.zuora.api.axis2.ZuoraServiceStub.Error error : errors) {
                 logger.error("field: {} | message: {} | code: {}", error.getField(), error.getMessage(), error.getCode());
@@ -639,6 +1283,7 @@ public class ZApi {
          */
         if (amendments.length > MAX_OBJECTS) {
             final ZObject[][] bulkStructure = ZuoraUtility.splitObjects(amendments);
+            recordChunks(ZOperation.AMEND, bulkStructure.length);
             final List<AmendResult> bulkResults = new ArrayList(0);
             for (int i = 0; i < bulkStructure.length; i++) {
                 bulkResults.addAll(Arrays.asList(zAmendUnit((Amendment[]) bulkStructure[i], amendOptions)));
@@ -653,11 +1298,15 @@ public class ZApi {
         // check results
         if (amendResult != null) {
             logger.debug("Successfully received {} amend result(s).", amendResult.length);
+            int succeeded = 0;
             for (ZuoraServiceStub.AmendResult result : amendResult) {
-                if (!result.getSuccess()) {
+                if (result.getSuccess()) {
+                    succeeded++;
+                } else {
                     printZuoraErrors(result.getErrors());
                 }
             }
+            recordObjects(ZOperation.AMEND, succeeded, amendResult.length - succeeded);
 
         } else {
             logger.error("Null object received during zAmend() operation");
@@ -666,16 +1315,108 @@ public class ZApi {
         return amendResult;
     }
 
+    /**
+     * Send independent amend requests, each one with its own amendments and
+     * options, packing up to MAX_OBJECTS requests per amend() call. If there is
+     * more than MAX_OBJECTS requests, the calls are sent with at most
+     * {@link #setChunkConcurrency(int) chunkConcurrency} calls in flight.
+     *
+     * @param requests
+     *          The amend requests (amendments of one subscription each)
+     * @return
+     *          One AmendResult per request, in the same order; the requests
+     *          of a call that failed get a failed result with the fault code
+     *          of the call (UNKNOWN_ERROR for a network error)
+     */
+    public ZuoraServiceStub.AmendResult[] zAmend(ZuoraServiceStub.AmendRequest[] requests) {
+
+        ZuoraServiceStub.AmendRequest[][] splittedRequests = ZuoraUtility.split(requests, MAX_OBJECTS);
+
+        List<Callable<ZuoraServiceStub.AmendResult[]>> chunks = new ArrayList<Callable<ZuoraServiceStub.AmendResult[]>>(splittedRequests.length);
+
+        for (final ZuoraServiceStub.AmendRequest[] chunk : splittedRequests) {
+            chunks.add(new Callable<ZuoraServiceStub.AmendResult[]>() {
+                @Override
+                public ZuoraServiceStub.AmendResult[] call() throws Exception {
+                    int amendments = 0;
+                    for (ZuoraServiceStub.AmendRequest request : chunk) {
+                        amendments += request.getAmendments() != null ? request.getAmendments().length : 0;
+                    }
+                    recordPayload(ZOperation.AMEND, amendments);
+
+                    final ZuoraServiceStub.Amend amend = new ZuoraServiceStub.Amend();
+                    amend.setRequests(chunk);
+
+                    AmendResponse resp = execute(ZOperation.AMEND, new Callable<AmendResponse>() {
+                        @Override
+                        public AmendResponse call() throws Exception {
+                            return stub.amend(amend, header);
+                        }
+                    });
+                    return resp.getResults();
+                }
+            });
+        }
+
+        recordChunks(ZOperation.AMEND, chunks.size());
+        List<Future<ZuoraServiceStub.AmendResult[]>> futures = dispatchChunks(chunks);
+        invalidateCache(AMEND_TYPES);
+
+        // Merge the results, the requests of a failed call get a failed result
+        ZuoraServiceStub.AmendResult[] amendResult = new ZuoraServiceStub.AmendResult[requests.length];
+        Throwable[] failures = collectChunks(futures, amendResult);
+        for (int i = 0; i < amendResult.length; i++) {
+            if (amendResult[i] == null) {
+                ZuoraServiceStub.AmendResult failed = new ZuoraServiceStub.AmendResult();
+                failed.setSuccess(false);
+                failed.setErrors(new ZuoraServiceStub.Error[] { faultError(failures[i / MAX_OBJECTS]) });
+                amendResult[i] = failed;
+            }
+        }
+
+        logger.debug("Successfully received {} amend result(s).", amendResult.length);
+
+        int succeeded = 0;
+        for (ZuoraServiceStub.AmendResult result : amendResult) {
+            if (result.getSuccess()) {
+                succeeded++;
+            } else {
+                printZuoraErrors(result.getErrors());
+            }
+        }
+        recordObjects(ZOperation.AMEND, succeeded, amendResult.length - succeeded);
+
+        return amendResult;
+    }
+
     // --- Setter(s) & Getter(s) ---
 
     public ZuoraServiceStub getStub() {
         return stub;
     }
 
-    private void setStub(ZuoraServiceStub stub) {
+    /**
+     * Replace the stub of the calls (package-private for the test fakes)
+     */
+    void setStub(ZuoraServiceStub stub) {
         this.stub = stub;
     }
 
+    /**
+     * The stub of the import calls, created on first use with MTOM and
+     * chunked transfer enabled
+     */
+    private synchronized ZuoraServiceStub getImportStub() throws AxisFault {
+        if (importStub == null) {
+            ZuoraServiceStub created = ZStubFactory.createStub(endpoint);
+            Options options = created._getServiceClient().getOptions();
+            options.setProperty(Constants.Configuration.ENABLE_MTOM, Constants.VALUE_TRUE);
+            options.setProperty(HTTPConstants.CHUNKED, Boolean.TRUE);
+            importStub = created;
+        }
+        return importStub;
+    }
+
     public SessionHeader getHeader() {
         return header;
     }
@@ -692,4 +1433,127 @@ public class ZApi {
         this.endpoint = endpoint;
     }
 
+    public long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * @param sessionTimeout Inactivity time (in ms) after which Zuora expires
+     *                       the session, it is renewed one minute before
+     */
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    public int getChunkConcurrency() {
+        return chunkConcurrency;
+    }
+
+    /**
+     * Send the chunks of the calls exceeding MAX_OBJECTS objects in parallel
+     * (zCreate, zUpdate and zDelete). The results keep the order of the input.
+     *
+     * @param chunkConcurrency Max number of chunks in flight per call (1, the
+     *                         default, sends them one after another)
+     */
+    public void setChunkConcurrency(int chunkConcurrency) {
+        if (chunkConcurrency < 1) {
+            throw new IllegalArgumentException("Chunk concurrency must be at least 1");
+        }
+        this.chunkConcurrency = chunkConcurrency;
+    }
+
+    public ZThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @param throttle The limits applied to the calls of this instance (by
+     *                 default the throttle shared by all the instances, null
+     *                 for no limit)
+     */
+    public void setThrottle(ZThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    public ZRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy The policy retrying the calls failing with a
+     *                    transient error (null or {@link ZRetryPolicy#none()}
+     *                    for no retry). Each chunk of a split call is retried
+     *                    on its own.
+     */
+    public void setRetryPolicy(ZRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public ZMetricsRegistry getMetricsRegistry() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics The registry receiving the measures of the calls (by
+     *                default {@link ZInMemoryMetricsRegistry#getShared()},
+     *                null for none)
+     */
+    public void setMetricsRegistry(ZMetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public ZQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @param queryCache The cache of the results of zQuery() and
+     *                   zAdvancedQuery() (null, the default, for no cache)
+     */
+    public void setQueryCache(ZQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Forget the cached query results of the types of written objects
+     */
+    void invalidateCache(ZObject[] objects) {
+        ZQueryCache cache = queryCache;
+        if (cache == null) {
+            return;
+        }
+        Set<Class<?>> types = new HashSet<Class<?>>();
+        for (ZObject object : objects) {
+            if (object != null && types.add(object.getClass())) {
+                cache.invalidate(object.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * Forget the cached query results of written types
+     */
+    void invalidateCache(String... types) {
+        ZQueryCache cache = queryCache;
+        if (cache == null) {
+            return;
+        }
+        for (String type : types) {
+            cache.invalidate(type);
+        }
+    }
+
+    public ExecutorService getChunkExecutor() {
+        return chunkExecutor;
+    }
+
+    /**
+     * @param chunkExecutor The executor sending the chunks in parallel (null,
+     *                      the default, for a shared pool of daemon threads)
+     */
+    public void setChunkExecutor(ExecutorService chunkExecutor) {
+        this.chunkExecutor = chunkExecutor;
+    }
+
 }
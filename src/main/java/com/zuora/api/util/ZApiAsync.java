@@ -0,0 +1,602 @@
+package com.zuora.api.util;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceCallbackHandler;
+import com.zuora.api.axis2.ZuoraServiceStub.Amend;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.Create;
+import com.zuora.api.axis2.ZuoraServiceStub.CreateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.Delete;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Query;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMore;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMoreResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SessionHeader;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscribe;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Update;
+import com.zuora.api.axis2.ZuoraServiceStub.UpdateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Variants of the ZApi operations returning a {@link ZFuture}. This is an
+ * executor-based facade, not a non-blocking client: the requests are sent by
+ * the asynchronous (start*) operations of the stub, which run each call in a
+ * thread of the pool of the shared Axis2 context (see the async.maxThreads
+ * property of {@link ZStubFactory}) over the blocking HTTP transport. A call
+ * in flight holds one of these threads until its response is received, so at
+ * most async.maxThreads calls (for all the ZApiAsync instances) are in flight,
+ * the next ones wait in the queue of the pool.
+ *
+ * The calling thread is not released at once either: before queuing a call it
+ * waits for a permit of the {@link ZThrottle throttle} of the ZApi (held until
+ * the response is received), and logs in again first if the session has been
+ * inactive for too long.
+ *
+ * The callbacks of the futures run in the Axis2 threads and should not block.
+ * A call failing with INVALID_SESSION is replayed once, the login and the wait
+ * for a new permit made in the shared pool of {@link ZChunkDispatcher}, not in
+ * the Axis2 thread.
+ *
+ * <pre>
+ * ZApiAsync async = new ZApiAsync(zapi);
+ * async.zQuery("SELECT Id FROM Account").addCallback(new ZCallback&lt;QueryResult&gt;() { ... });
+ * </pre>
+ */
+public class ZApiAsync {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZApiAsync.class);
+
+	/** The logged in Zuora API helper (stub and session) */
+	private final ZApi zapi;
+
+	/**
+	 * Instantiates the asynchronous facade of a ZApi
+	 *
+	 * @param zapi
+	 *            Logged in Zuora API helper, its session is renewed if needed
+	 */
+	public ZApiAsync(ZApi zapi) {
+		this.zapi = zapi;
+	}
+
+	/**
+	 * An asynchronous call, sent again once if the session expired
+	 */
+	private abstract class AsyncCall<T> {
+
+		/** The result of the call */
+		final ZFuture<T> future = new ZFuture<T>();
+
+		/** The operation made by the call */
+		private final ZOperation operation;
+
+		/** The throttle permit held while the call is in flight */
+		private ZThrottle.Permit permit;
+
+		/** The session used by the last attempt */
+		private SessionHeader used;
+
+		/** True once the call has been sent again after a session renewal */
+		private boolean replayed;
+
+		/** When the last attempt was sent (ns) */
+		private long sent;
+
+		AsyncCall(ZOperation operation) {
+			this.operation = operation;
+		}
+
+		/**
+		 * Send the request with the given session, the callback handler must
+		 * call succeeded() or failed()
+		 */
+		abstract void send(SessionHeader header) throws RemoteException;
+
+		/**
+		 * Called once the call is over, before its future is completed (to
+		 * invalidate the cached query results of the types written)
+		 */
+		void finished() {
+		}
+
+		/**
+		 * Queue the call, once the throttle lets it go (the calling thread
+		 * waits until then, and for the session renewal if needed)
+		 */
+		ZFuture<T> start() {
+			// Renew the session first, the login call waits for its own permit
+			used = zapi.currentSession();
+			try {
+				permit = zapi.acquirePermit(operation);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.fail(e);
+				return future;
+			}
+
+			try {
+				sent = System.nanoTime();
+				send(used);
+			} catch (RemoteException e) {
+				done(false);
+				finished();
+				future.fail(e);
+			}
+			return future;
+		}
+
+		void succeeded(T result) {
+			zapi.sessionUsed();
+			done(true);
+			finished();
+			future.complete(result);
+		}
+
+		void failed(Exception e) {
+			done(false);
+			if (!replayed && zapi.isRenewable(e)) {
+				replayed = true;
+				// The login and the permit may take a while, not in the Axis2 thread
+				ZChunkDispatcher.getSharedExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						replay();
+					}
+				});
+				return;
+			}
+			finished();
+			future.fail(e);
+		}
+
+		/**
+		 * Renew the session and send the call again
+		 */
+		private void replay() {
+			logger.warn("Session expired, logging in again and replaying the call");
+			used = zapi.renewSession(used);
+			try {
+				permit = zapi.acquirePermit(operation);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				finished();
+				future.fail(e);
+				return;
+			}
+
+			try {
+				sent = System.nanoTime();
+				send(used);
+			} catch (RemoteException e) {
+				done(false);
+				finished();
+				future.fail(e);
+			}
+		}
+
+		/**
+		 * Record the attempt and release its permit
+		 */
+		private void done(boolean success) {
+			zapi.recordCall(operation, System.nanoTime() - sent, success);
+			if (permit != null) {
+				permit.release();
+				permit = null;
+			}
+		}
+	}
+
+	/**
+	 * Do a query to Zuora (no more than 2,000 objects)
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return The future query result
+	 */
+	public ZFuture<QueryResult> zQuery(String queryString) {
+
+		final Query query = new Query();
+		query.setQueryString(queryString);
+		logger.debug("Query String = " + queryString);
+
+		return new AsyncCall<QueryResult>(ZOperation.QUERY) {
+			@Override
+			void send(SessionHeader header) throws RemoteException {
+				zapi.getStub().startquery(query, null, header, new ZuoraServiceCallbackHandler() {
+					@Override
+					public void receiveResultquery(QueryResponse response) {
+						succeeded(response.getResult());
+					}
+
+					@Override
+					public void receiveErrorquery(Exception e) {
+						failed(e);
+					}
+				});
+			}
+		}.start();
+	}
+
+	/**
+	 * Requests additional result from a previous query() call
+	 *
+	 * @param queryLocator
+	 *            QueryLocator from the query call
+	 * @return The future query result
+	 */
+	public ZFuture<QueryResult> zQueryMore(QueryLocator queryLocator) {
+
+		final QueryMore query = new QueryMore();
+		query.setQueryLocator(queryLocator);
+
+		return new AsyncCall<QueryResult>(ZOperation.QUERY_MORE) {
+			@Override
+			void send(SessionHeader header) throws RemoteException {
+				zapi.getStub().startqueryMore(query, null, header, new ZuoraServiceCallbackHandler() {
+					@Override
+					public void receiveResultqueryMore(QueryMoreResponse response) {
+						succeeded(response.getResult());
+					}
+
+					@Override
+					public void receiveErrorqueryMore(Exception e) {
+						failed(e);
+					}
+				});
+			}
+		}.start();
+	}
+
+	/**
+	 * Create object(s) in Zuora, all the chunks of MAX_OBJECTS objects are
+	 * sent at once
+	 *
+	 * @param objects
+	 *            array of objects to create
+	 * @return The future SaveResult, in the order of the objects (null for the
+	 *         objects of a chunk that failed), failed if every chunk failed
+	 */
+	public ZFuture<SaveResult[]> zCreate(ZObject[] objects) {
+
+		List<ZFuture<SaveResult[]>> chunks = new ArrayList<ZFuture<SaveResult[]>>();
+
+		for (ZObject[] chunk : ZuoraUtility.splitObjects(objects)) {
+			final Create create = new Create();
+			create.setZObjects(chunk);
+			zapi.recordPayload(ZOperation.CREATE, chunk.length);
+
+			chunks.add(new AsyncCall<SaveResult[]>(ZOperation.CREATE) {
+				@Override
+				void send(SessionHeader header) throws RemoteException {
+					zapi.getStub().startcreate(create, null, header, new ZuoraServiceCallbackHandler() {
+						@Override
+						public void receiveResultcreate(CreateResponse response) {
+							succeeded(response.getResult());
+						}
+
+						@Override
+						public void receiveErrorcreate(Exception e) {
+							failed(e);
+						}
+					});
+				}
+
+				@Override
+				void finished() {
+					zapi.invalidateCache(create.getZObjects());
+				}
+			}.start());
+		}
+
+		zapi.recordChunks(ZOperation.CREATE, chunks.size());
+		return mergeChunks(chunks, new SaveResult[objects.length]);
+	}
+
+	/**
+	 * Update object(s) in Zuora, all the chunks of MAX_OBJECTS objects are
+	 * sent at once
+	 *
+	 * @param objects
+	 *            array of objects to update (must have their Zuora IDs set)
+	 * @return The future SaveResult, in the order of the objects (null for the
+	 *         objects of a chunk that failed), failed if every chunk failed
+	 */
+	public ZFuture<SaveResult[]> zUpdate(ZObject[] objects) {
+
+		List<ZFuture<SaveResult[]>> chunks = new ArrayList<ZFuture<SaveResult[]>>();
+
+		for (ZObject[] chunk : ZuoraUtility.splitObjects(objects)) {
+			final Update update = new Update();
+			update.setZObjects(chunk);
+			zapi.recordPayload(ZOperation.UPDATE, chunk.length);
+
+			chunks.add(new AsyncCall<SaveResult[]>(ZOperation.UPDATE) {
+				@Override
+				void send(SessionHeader header) throws RemoteException {
+					zapi.getStub().startupdate(update, header, new ZuoraServiceCallbackHandler() {
+						@Override
+						public void receiveResultupdate(UpdateResponse response) {
+							succeeded(response.getResult());
+						}
+
+						@Override
+						public void receiveErrorupdate(Exception e) {
+							failed(e);
+						}
+					});
+				}
+
+				@Override
+				void finished() {
+					zapi.invalidateCache(update.getZObjects());
+				}
+			}.start());
+		}
+
+		zapi.recordChunks(ZOperation.UPDATE, chunks.size());
+		return mergeChunks(chunks, new SaveResult[objects.length]);
+	}
+
+	/**
+	 * Delete object(s) in Zuora, all the chunks of MAX_OBJECTS IDs are sent
+	 * at once
+	 *
+	 * @param ids
+	 *            Zuora ID of object to delete
+	 * @param type
+	 *            can be Account, Subscription, etc.
+	 * @return The future DeleteResult, in the order of the IDs (null for the
+	 *         IDs of a chunk that failed), failed if every chunk failed
+	 */
+	public ZFuture<DeleteResult[]> zDelete(String[] ids, final String type) {
+
+		List<ZFuture<DeleteResult[]>> chunks = new ArrayList<ZFuture<DeleteResult[]>>();
+
+		for (String[] chunk : ZuoraUtility.splitIds(ids)) {
+			final Delete delete = new Delete();
+			delete.setType(type);
+			delete.setIds(ZuoraUtility.stringToZuoraId(chunk));
+			zapi.recordPayload(ZOperation.DELETE, chunk.length);
+
+			chunks.add(new AsyncCall<DeleteResult[]>(ZOperation.DELETE) {
+				@Override
+				void send(SessionHeader header) throws RemoteException {
+					zapi.getStub().startdelete(delete, header, new ZuoraServiceCallbackHandler() {
+						@Override
+						public void receiveResultdelete(DeleteResponse response) {
+							succeeded(response.getResult());
+						}
+
+						@Override
+						public void receiveErrordelete(Exception e) {
+							failed(e);
+						}
+					});
+				}
+
+				@Override
+				void finished() {
+					zapi.invalidateCache(type);
+				}
+			}.start());
+		}
+
+		zapi.recordChunks(ZOperation.DELETE, chunks.size());
+		return mergeChunks(chunks, new DeleteResult[ids.length]);
+	}
+
+	/**
+	 * Create subscription(s) in Zuora
+	 *
+	 * @param objects
+	 *            array of SubscriptionRequest to create
+	 * @return The future SubscribeResult
+	 */
+	public ZFuture<SubscribeResult[]> zSubscribe(SubscribeRequest[] objects) {
+
+		final Subscribe subscribe = new Subscribe();
+		subscribe.setSubscribes(objects);
+		zapi.recordPayload(ZOperation.SUBSCRIBE, objects.length);
+
+		return new AsyncCall<SubscribeResult[]>(ZOperation.SUBSCRIBE) {
+			@Override
+			void send(SessionHeader header) throws RemoteException {
+				zapi.getStub().startsubscribe(subscribe, header, new ZuoraServiceCallbackHandler() {
+					@Override
+					public void receiveResultsubscribe(SubscribeResponse response) {
+						succeeded(response.getResult());
+					}
+
+					@Override
+					public void receiveErrorsubscribe(Exception e) {
+						failed(e);
+					}
+				});
+			}
+
+			@Override
+			void finished() {
+				zapi.invalidateCache(ZApi.SUBSCRIBE_TYPES);
+			}
+		}.start();
+	}
+
+	/**
+	 * Send amendments to Zuora, by blocks of MAX_OBJECTS amendments all sent
+	 * at once (same requests as {@link ZApi#zAmend(Amendment[], AmendOptions)})
+	 *
+	 * @param amendments
+	 *            Array of amendments for send to zuora
+	 * @param amendOptions
+	 *            Amend options configuration (null for the default ones)
+	 * @return The future results, in the order of the blocks
+	 */
+	public ZFuture<AmendResult[]> zAmend(Amendment[] amendments, AmendOptions amendOptions) {
+
+		List<ZFuture<AmendResult[]>> chunks = new ArrayList<ZFuture<AmendResult[]>>();
+
+		for (ZObject[] chunk : ZuoraUtility.splitObjects(amendments)) {
+			AmendRequest request = new AmendRequest();
+			request.setAmendments((Amendment[]) chunk);
+			zapi.recordPayload(ZOperation.AMEND, chunk.length);
+			if (amendOptions != null) {
+				request.setAmendOptions(amendOptions);
+			}
+			final Amend amend = new Amend();
+			amend.setRequests(new AmendRequest[] { request });
+
+			chunks.add(new AsyncCall<AmendResult[]>(ZOperation.AMEND) {
+				@Override
+				void send(SessionHeader header) throws RemoteException {
+					zapi.getStub().startamend(amend, header, new ZuoraServiceCallbackHandler() {
+						@Override
+						public void receiveResultamend(AmendResponse response) {
+							succeeded(response.getResults());
+						}
+
+						@Override
+						public void receiveErroramend(Exception e) {
+							failed(e);
+						}
+					});
+				}
+
+				@Override
+				void finished() {
+					zapi.invalidateCache(ZApi.AMEND_TYPES);
+				}
+			}.start());
+		}
+
+		zapi.recordChunks(ZOperation.AMEND, chunks.size());
+		final ZFuture<AmendResult[]> merged = new ZFuture<AmendResult[]>();
+		final List<ZFuture<AmendResult[]>> pending = chunks;
+
+		whenAllDone(chunks, new Runnable() {
+			@Override
+			public void run() {
+				List<AmendResult> results = new ArrayList<AmendResult>();
+				Throwable error = null;
+				for (ZFuture<AmendResult[]> chunk : pending) {
+					try {
+						AmendResult[] tmp = chunk.get();
+						if (tmp != null) {
+							Collections.addAll(results, tmp);
+						}
+					} catch (Exception e) {
+						error = e.getCause() != null ? e.getCause() : e;
+					}
+				}
+				if (error != null) {
+					merged.fail(error);
+				} else {
+					merged.complete(results.toArray(new AmendResult[results.size()]));
+				}
+			}
+		});
+
+		return merged;
+	}
+
+	/**
+	 * Merge the results of the chunks of a split call, chunk i being saved at
+	 * index i * MAX_OBJECTS
+	 *
+	 * @param chunks
+	 *            The chunks in flight
+	 * @param merged
+	 *            The table receiving the results
+	 * @return A future completed once every chunk is, failed if every chunk
+	 *         failed
+	 */
+	private <T> ZFuture<T[]> mergeChunks(final List<ZFuture<T[]>> chunks, final T[] merged) {
+
+		final ZFuture<T[]> result = new ZFuture<T[]>();
+
+		whenAllDone(chunks, new Runnable() {
+			@Override
+			public void run() {
+				boolean success = chunks.isEmpty();
+				Throwable error = null;
+
+				for (int i = 0; i < chunks.size(); i++) {
+					try {
+						T[] tmp = chunks.get(i).get();
+						if (tmp != null) {
+							System.arraycopy(tmp, 0, merged, i * ZApi.MAX_OBJECTS,
+									Math.min(tmp.length, merged.length - i * ZApi.MAX_OBJECTS));
+							success = true;
+						}
+					} catch (Exception e) {
+						error = e.getCause() != null ? e.getCause() : e;
+						logger.error("Chunk " + (i + 1) + "/" + chunks.size() + " failed | " + error.getMessage());
+					}
+				}
+
+				if (success) {
+					result.complete(merged);
+				} else {
+					result.fail(error);
+				}
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Run an action once all the futures are completed (in the thread
+	 * completing the last one)
+	 */
+	private <T> void whenAllDone(List<ZFuture<T>> futures, final Runnable action) {
+
+		if (futures.isEmpty()) {
+			action.run();
+			return;
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+
+		ZCallback<T> countDown = new ZCallback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				if (remaining.decrementAndGet() == 0) {
+					action.run();
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable error) {
+				if (remaining.decrementAndGet() == 0) {
+					action.run();
+				}
+			}
+		};
+
+		for (ZFuture<T> future : futures) {
+			future.addCallback(countDown);
+		}
+	}
+
+}
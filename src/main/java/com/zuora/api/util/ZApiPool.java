@@ -0,0 +1,362 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+
+/**
+ * Pool of logged in ZApi sessions for multi-threaded services, to spread the
+ * calls over several sessions (a ZApi can be shared by threads, see
+ * {@link ZApi}, but all its calls use its one session): borrow one, do the
+ * calls, then give it back with release().
+ *
+ * <pre>
+ * ZApiPool pool = new ZApiPool(4, 16);
+ * ZApi zapi = pool.borrow();
+ * try {
+ *     zapi.zQuery("SELECT Id FROM Account");
+ * } finally {
+ *     pool.release(zapi);
+ * }
+ * </pre>
+ */
+public class ZApiPool {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZApiPool.class);
+
+	/** Default max idle time before a session is logged in again (10 minutes) */
+	public static final long DEFAULT_MAX_IDLE_MILLIS = 10 * 60 * 1000L;
+
+	/** Period of the idle sessions check (1 minute) */
+	private static final long IDLE_CHECK_PERIOD_MILLIS = 60 * 1000L;
+
+	/** A session of the pool */
+	private static class PooledSession {
+
+		private final ZApi zapi;
+
+		private volatile long lastUsed;
+
+		PooledSession(ZApi zapi) {
+			this.zapi = zapi;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/** Zuora endpoint (null to read it from config.properties) */
+	private final String endpoint;
+
+	/** Zuora API user (null to read it from config.properties) */
+	private final String username;
+
+	/** Zuora API password */
+	private final String password;
+
+	/** Max number of sessions (idle + borrowed) */
+	private final int maxSize;
+
+	/**
+	 * Permits to hold a session, one per possible session: taken by the
+	 * borrowers and by the idle check for the sessions it logs in again
+	 */
+	private final Semaphore permits;
+
+	/** The idle sessions, the last released is borrowed first */
+	private final BlockingDeque<PooledSession> idle = new LinkedBlockingDeque<PooledSession>();
+
+	/** The borrowed sessions */
+	private final Map<ZApi, PooledSession> borrowed = new IdentityHashMap<ZApi, PooledSession>();
+
+	/** Max idle time before a session is logged in again */
+	private volatile long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+
+	/** Checks the idle sessions in background */
+	private final ScheduledExecutorService idleChecker;
+
+	/** True once the pool is closed */
+	private volatile boolean closed;
+
+	/**
+	 * Instantiates a pool connecting with the endpoint and credentials of the
+	 * config.properties file
+	 *
+	 * @param initialSize
+	 *            Number of sessions logged in right away
+	 * @param maxSize
+	 *            Max number of sessions
+	 */
+	public ZApiPool(int initialSize, int maxSize) {
+		this(null, null, null, initialSize, maxSize);
+	}
+
+	/**
+	 * Instantiates a pool
+	 *
+	 * @param endpoint
+	 *            Zuora endpoint (null to read it from config.properties)
+	 * @param username
+	 *            Zuora API user (null to read the credentials from
+	 *            config.properties)
+	 * @param password
+	 *            Zuora API password
+	 * @param initialSize
+	 *            Number of sessions logged in right away
+	 * @param maxSize
+	 *            Max number of sessions
+	 */
+	public ZApiPool(String endpoint, String username, String password, int initialSize, int maxSize) {
+
+		if (maxSize < 1 || initialSize < 0 || initialSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: initial = " + initialSize + ", max = " + maxSize);
+		}
+
+		this.endpoint = endpoint;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		// Log in the initial sessions
+		for (int i = 0; i < initialSize; i++) {
+			PooledSession session = createSession();
+			if (session != null) {
+				idle.offerLast(session);
+			}
+		}
+		logger.info("Session pool created with " + idle.size() + " session(s), max = " + maxSize);
+
+		idleChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zapi-pool-idle-check");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		idleChecker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkIdleSessions();
+			}
+		}, IDLE_CHECK_PERIOD_MILLIS, IDLE_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrow a logged in session, waiting for one to be released if the pool
+	 * is exhausted
+	 *
+	 * @return The session or null if the login failed
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public ZApi borrow() throws InterruptedException {
+		permits.acquire();
+		return take();
+	}
+
+	/**
+	 * Borrow a logged in session, waiting at most `timeout` for one to be
+	 * released if the pool is exhausted
+	 *
+	 * @param timeout
+	 *            Max time to wait
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return The session or null if the timeout elapsed or the login failed
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public ZApi borrow(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!permits.tryAcquire(timeout, unit)) {
+			logger.warn("No session available after " + unit.toMillis(timeout) + " ms");
+			return null;
+		}
+		return take();
+	}
+
+	/**
+	 * Give back a borrowed session
+	 *
+	 * @param zapi
+	 *            The session returned by borrow()
+	 */
+	public void release(ZApi zapi) {
+		PooledSession session;
+		synchronized (borrowed) {
+			session = borrowed.remove(zapi);
+		}
+		if (session == null) {
+			logger.warn("Released session does not belong to the pool, ignored");
+			return;
+		}
+
+		if (!closed) {
+			session.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(session);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Give back a borrowed session that must not be reused (e.g. after an
+	 * unexpected error), a new one will be logged in when needed
+	 *
+	 * @param zapi
+	 *            The session returned by borrow()
+	 */
+	public void invalidate(ZApi zapi) {
+		PooledSession session;
+		synchronized (borrowed) {
+			session = borrowed.remove(zapi);
+		}
+		if (session != null) {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Close the pool: the idle sessions are dropped, the borrowed ones will be
+	 * dropped when released
+	 */
+	public void close() {
+		closed = true;
+		idleChecker.shutdownNow();
+		idle.clear();
+	}
+
+	/**
+	 * Get an idle session (logged in again if idle for too long) or log in a
+	 * new one. The caller holds a permit, released if no session can be given.
+	 */
+	private ZApi take() {
+		if (closed) {
+			permits.release();
+			throw new IllegalStateException("The session pool is closed");
+		}
+
+		PooledSession session = idle.pollFirst();
+
+		if (session != null && isStale(session) && !login(session.zapi)) {
+			session = null;
+		}
+
+		if (session == null) {
+			session = createSession();
+		}
+
+		if (session == null) {
+			permits.release();
+			return null;
+		}
+
+		synchronized (borrowed) {
+			borrowed.put(session.zapi, session);
+		}
+		return session.zapi;
+	}
+
+	/**
+	 * Log in again the sessions idle for too long, so that borrowed sessions
+	 * are always authenticated. A session out of the idle queue holds a permit
+	 * like a borrowed one: take() cannot log in another session in its place
+	 * and exceed the max size.
+	 */
+	void checkIdleSessions() {
+		List<PooledSession> stale = new ArrayList<PooledSession>();
+		for (PooledSession session : idle) {
+			if (isStale(session) && permits.tryAcquire()) {
+				if (idle.remove(session)) {
+					stale.add(session);
+				} else {
+					// Borrowed in the meantime
+					permits.release();
+				}
+			}
+		}
+
+		for (PooledSession session : stale) {
+			try {
+				if (login(session.zapi) && !closed) {
+					session.lastUsed = System.currentTimeMillis();
+					idle.offerLast(session);
+				}
+			} finally {
+				permits.release();
+			}
+		}
+
+		if (!stale.isEmpty()) {
+			logger.debug("Idle check: " + stale.size() + " session(s) logged in again");
+		}
+	}
+
+	private boolean isStale(PooledSession session) {
+		return System.currentTimeMillis() - session.lastUsed > maxIdleMillis;
+	}
+
+	/**
+	 * Create and log in a new session
+	 *
+	 * @return The session or null if the login failed
+	 */
+	private PooledSession createSession() {
+		ZApi zapi = endpoint != null ? new ZApi(endpoint) : new ZApi();
+		return login(zapi) ? new PooledSession(zapi) : null;
+	}
+
+	private boolean login(ZApi zapi) {
+		LoginResult result = username != null ? zapi.zLogin(username, password) : zapi.zLogin();
+		if (result == null) {
+			logger.error("Could not log in a session for the pool");
+		}
+		return result != null;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return The number of idle sessions
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return The number of borrowed sessions
+	 */
+	public int getActiveCount() {
+		synchronized (borrowed) {
+			return borrowed.size();
+		}
+	}
+
+	public long getMaxIdleMillis() {
+		return maxIdleMillis;
+	}
+
+	/**
+	 * @param maxIdleMillis
+	 *            Max idle time before a session is logged in again (should be
+	 *            lower than the session timeout of the tenant)
+	 */
+	public void setMaxIdleMillis(long maxIdleMillis) {
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+
+/**
+ * Result of a bulk import: the file has been split in parts, each uploaded as
+ * its own Import.
+ */
+public class ZBulkImportResult {
+
+	/** Combined status of the uploads */
+	public enum Status {
+		/** Every part has been uploaded */
+		UPLOADED,
+		/** Some parts could not be uploaded */
+		PARTIALLY_UPLOADED,
+		/** No part could be uploaded */
+		FAILED
+	}
+
+	/**
+	 * A part of the file
+	 */
+	public static class Part {
+
+		private final int index;
+
+		private final String name;
+
+		private long rows;
+
+		private long bytes;
+
+		/** The temporary file holding the part until it is uploaded */
+		File file;
+
+		private ID importId;
+
+		private String error;
+
+		Part(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+
+		/**
+		 * @return The index of the part (from 1)
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The file name of the part
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The number of rows of the part (header excluded)
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return The size of the part (header included)
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return The ID of the Import created for this part, null if the
+		 *         upload failed
+		 */
+		public ID getImportId() {
+			return importId;
+		}
+
+		/**
+		 * @return The upload error, null if uploaded
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public boolean isUploaded() {
+			return importId != null;
+		}
+
+		void addRow(long rowBytes) {
+			rows++;
+			bytes += rowBytes;
+		}
+
+		void addHeader(long headerBytes) {
+			bytes += headerBytes;
+		}
+
+		void uploaded(ID importId) {
+			this.importId = importId;
+		}
+
+		void failed(String error) {
+			this.error = error;
+		}
+	}
+
+	private final List<Part> parts;
+
+	ZBulkImportResult(List<Part> parts) {
+		this.parts = Collections.unmodifiableList(new ArrayList<Part>(parts));
+	}
+
+	/**
+	 * @return The parts, in the order of the file
+	 */
+	public List<Part> getParts() {
+		return parts;
+	}
+
+	/**
+	 * @return The IDs of the Imports created, in the order of the parts
+	 *         (failed parts excluded)
+	 */
+	public List<ID> getImportIds() {
+		List<ID> ids = new ArrayList<ID>();
+		for (Part part : parts) {
+			if (part.isUploaded()) {
+				ids.add(part.getImportId());
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return The parts that could not be uploaded
+	 */
+	public List<Part> getFailedParts() {
+		List<Part> failed = new ArrayList<Part>();
+		for (Part part : parts) {
+			if (!part.isUploaded()) {
+				failed.add(part);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return The number of rows of the file (header excluded)
+	 */
+	public long getRows() {
+		long rows = 0;
+		for (Part part : parts) {
+			rows += part.getRows();
+		}
+		return rows;
+	}
+
+	/**
+	 * @return The combined status of the uploads
+	 */
+	public Status getStatus() {
+		int failed = getFailedParts().size();
+		if (failed == 0 && !parts.isEmpty()) {
+			return Status.UPLOADED;
+		}
+		return failed < parts.size() ? Status.PARTIALLY_UPLOADED : Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return getStatus() + " | parts = " + parts.size() + " | failed parts = " + getFailedParts().size()
+				+ " | rows = " + getRows();
+	}
+
+}
@@ -0,0 +1,348 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Groups the objects submitted one at a time by many threads in create,
+ * update and delete calls of MAX_OBJECTS objects.
+ *
+ * The objects are batched per operation and type. A batch is sent as soon as
+ * it is full, or once its first object has waited for the linger time. Each
+ * submitted object gets a future completed with its own result. The writer
+ * holds at most `capacity` objects not completed yet (waiting or in flight):
+ * beyond, the submitting threads wait.
+ *
+ * The callbacks of the futures run in the sender threads. A callback can
+ * submit again, but when the writer is full it waits there holding its
+ * sender: if every sender waits so, no batch completes and the writer is
+ * stuck. Callbacks that may fill the writer should submit from other threads.
+ *
+ * <pre>
+ * ZBulkWriter writer = new ZBulkWriter(zapi);
+ * ZFuture&lt;SaveResult&gt; result = writer.update(account);
+ * ...
+ * writer.close();
+ * </pre>
+ */
+public class ZBulkWriter implements Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZBulkWriter.class);
+
+	/** Default max number of objects not completed yet */
+	public static final int DEFAULT_CAPACITY = 5000;
+
+	/** Default max time an object waits for its batch to fill (ms) */
+	public static final long DEFAULT_LINGER = 200;
+
+	/** Default number of calls in flight */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** Number of the writer, for the thread names */
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/** The Zuora API used to write */
+	private final ZApi zapi;
+
+	private final int capacity;
+
+	private final long linger;
+
+	/** Permits of the objects that can still be submitted */
+	private final Semaphore available;
+
+	/** The batches filling up, by operation and type */
+	private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+	/** The thread sending the batches once their linger time elapsed */
+	private final ScheduledExecutorService timer;
+
+	/** The threads sending the batches */
+	private final ExecutorService senders;
+
+	private boolean closed;
+
+	/** Number of calls sent */
+	private final AtomicLong calls = new AtomicLong();
+
+	/** Number of objects sent */
+	private final AtomicLong sent = new AtomicLong();
+
+	/**
+	 * Instantiates a writer with the default capacity, linger and concurrency
+	 *
+	 * @param zapi
+	 *            Logged in ZApi used to write
+	 */
+	public ZBulkWriter(ZApi zapi) {
+		this(zapi, DEFAULT_CAPACITY, DEFAULT_LINGER, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Instantiates a writer
+	 *
+	 * @param zapi
+	 *            Logged in ZApi used to write
+	 * @param capacity
+	 *            Max number of objects not completed yet, beyond the
+	 *            submitting threads wait
+	 * @param linger
+	 *            Max time an object waits for its batch to fill (ms)
+	 * @param concurrency
+	 *            Max number of calls in flight
+	 */
+	public ZBulkWriter(ZApi zapi, int capacity, long linger, int concurrency) {
+		if (capacity < 1 || linger < 0 || concurrency < 1) {
+			throw new IllegalArgumentException("Invalid bulk writer settings: capacity = " + capacity + ", linger = "
+					+ linger + ", concurrency = " + concurrency);
+		}
+		this.zapi = zapi;
+		this.capacity = capacity;
+		this.linger = linger;
+		this.available = new Semaphore(capacity);
+
+		final int instance = instances.incrementAndGet();
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zbulk-writer-" + instance + "-timer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.senders = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zbulk-writer-" + instance + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Submit an object to create, waiting if the writer is full
+	 *
+	 * @param object
+	 *            The object to create
+	 * @return The future result of the object
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public ZFuture<SaveResult> create(ZObject object) throws InterruptedException {
+		return submit(ZOperation.CREATE, object.getClass().getSimpleName(), object);
+	}
+
+	/**
+	 * Submit an object to update, waiting if the writer is full
+	 *
+	 * @param object
+	 *            The object to update (with its ID)
+	 * @return The future result of the object
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public ZFuture<SaveResult> update(ZObject object) throws InterruptedException {
+		return submit(ZOperation.UPDATE, object.getClass().getSimpleName(), object);
+	}
+
+	/**
+	 * Submit an object to delete, waiting if the writer is full
+	 *
+	 * @param type
+	 *            The type of the object (Account, Subscription...)
+	 * @param id
+	 *            The ID of the object
+	 * @return The future result of the object
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public ZFuture<DeleteResult> delete(String type, String id) throws InterruptedException {
+		return submit(ZOperation.DELETE, type, id);
+	}
+
+	/**
+	 * Send the batches filling up without waiting for their linger time
+	 */
+	public void flush() {
+		synchronized (this) {
+			// Queued under the lock: close() shuts the senders down after
+			for (Batch batch : batches.values()) {
+				senders.execute(batch);
+			}
+			batches.clear();
+		}
+	}
+
+	/**
+	 * Send the batches filling up and wait for the calls in flight. The
+	 * objects submitted after are refused.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flush();
+		}
+		timer.shutdownNow();
+		senders.shutdown();
+		try {
+			while (!senders.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.info("Bulk writer | waiting for " + getPendingCount() + " object(s)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		logger.info("Bulk writer closed | calls = " + calls.get() + " | objects = " + sent.get());
+	}
+
+	/**
+	 * @return The number of objects submitted and not completed yet
+	 */
+	public int getPendingCount() {
+		return capacity - available.availablePermits();
+	}
+
+	/**
+	 * @return The number of calls sent
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+
+	/**
+	 * @return The average number of objects per call
+	 */
+	public double getMeanBatchSize() {
+		long count = calls.get();
+		return count == 0 ? 0 : (double) sent.get() / count;
+	}
+
+	private <R> ZFuture<R> submit(ZOperation operation, String type, Object item) throws InterruptedException {
+
+		// Backpressure: wait for the completion of other objects when full
+		available.acquire();
+
+		ZFuture<R> future = new ZFuture<R>();
+		synchronized (this) {
+			if (closed) {
+				available.release();
+				throw new IllegalStateException("Bulk writer closed");
+			}
+			final String key = operation + " " + type;
+			Batch batch = batches.get(key);
+			if (batch == null) {
+				batch = new Batch(operation, type);
+				batches.put(key, batch);
+				final Batch lingering = batch;
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						expire(key, lingering);
+					}
+				}, linger, TimeUnit.MILLISECONDS);
+			}
+			batch.items.add(item);
+			batch.futures.add(future);
+			if (batch.items.size() == ZApi.MAX_OBJECTS) {
+				batches.remove(key);
+				senders.execute(batch);
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Send a batch once its linger time elapsed, unless already sent full
+	 */
+	private void expire(String key, Batch batch) {
+		synchronized (this) {
+			if (batches.get(key) != batch) {
+				return;
+			}
+			batches.remove(key);
+			senders.execute(batch);
+		}
+	}
+
+	/**
+	 * Objects of a same operation and type, sent in one call
+	 */
+	private class Batch implements Runnable {
+
+		private final ZOperation operation;
+
+		private final String type;
+
+		private final List<Object> items = new ArrayList<Object>(ZApi.MAX_OBJECTS);
+
+		private final List<ZFuture<?>> futures = new ArrayList<ZFuture<?>>(ZApi.MAX_OBJECTS);
+
+		Batch(ZOperation operation, String type) {
+			this.operation = operation;
+			this.type = type;
+		}
+
+		@Override
+		public void run() {
+			Object[] results = null;
+			Throwable failure = null;
+			try {
+				if (operation == ZOperation.DELETE) {
+					results = zapi.zDelete(items.toArray(new String[items.size()]), type);
+				} else {
+					ZObject[] objects = items.toArray(new ZObject[items.size()]);
+					results = operation == ZOperation.CREATE ? zapi.zCreate(objects) : zapi.zUpdate(objects);
+				}
+			} catch (RuntimeException e) {
+				logger.error("Bulk writer | " + operation + " " + type + " | " + e.getMessage());
+				failure = e;
+			}
+			calls.incrementAndGet();
+			sent.addAndGet(items.size());
+
+			// Make room before completing, the callbacks may submit again (see the class doc)
+			available.release(items.size());
+
+			for (int i = 0; i < futures.size(); i++) {
+				Object result = results != null && i < results.length ? results[i] : null;
+				if (result != null) {
+					complete(futures.get(i), result);
+				} else {
+					futures.get(i).fail(failure != null ? failure : new IllegalStateException(operation + " " + type
+							+ " call failed, no result received"));
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> void complete(ZFuture<R> future, Object result) {
+		future.complete((R) result);
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.zuora.api.util;
+
+/**
+ * Callback notified when a {@link ZFuture} completes.
+ */
+public interface ZCallback<T> {
+
+	/**
+	 * Called with the result of a successful operation
+	 *
+	 * @param result
+	 *            The result
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Called when the operation failed
+	 *
+	 * @param error
+	 *            The error (e.g. RemoteException, UnexpectedErrorFault)
+	 */
+	void onFailure(Throwable error);
+
+}
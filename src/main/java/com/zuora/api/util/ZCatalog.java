@@ -0,0 +1,362 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Product;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlan;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlanCharge;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlanChargeTier;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * In-memory snapshot of the product catalog (Product, ProductRatePlan,
+ * ProductRatePlanCharge and ProductRatePlanChargeTier), indexed by ID, by
+ * parent and by the fields given to {@link #addIndex(String, String)}. The
+ * lookups are map lookups on an immutable snapshot, without any call.
+ *
+ * {@link #refresh()} only queries the objects updated since the last load
+ * (UpdatedDate filter); the deleted objects are only removed by a full
+ * {@link #load()}.
+ *
+ * <pre>
+ * ZCatalog catalog = new ZCatalog(zapi);
+ * catalog.addIndex(ZCatalog.RATE_PLAN, "titleKey__c");
+ * catalog.load();
+ * List&lt;ZObject&gt; plans = catalog.find(ZCatalog.RATE_PLAN, "titleKey__c", "my-title");
+ * </pre>
+ */
+public class ZCatalog {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZCatalog.class);
+
+	public static final String PRODUCT = "Product";
+
+	public static final String RATE_PLAN = "ProductRatePlan";
+
+	public static final String CHARGE = "ProductRatePlanCharge";
+
+	public static final String TIER = "ProductRatePlanChargeTier";
+
+	/** The field holding the last update of the objects */
+	private static final String UPDATED_DATE = "UpdatedDate";
+
+	/** The Zuora API used to load the catalog */
+	private final ZApi zapi;
+
+	/** The fields queried per type */
+	private final Map<String, Set<String>> fields = new LinkedHashMap<String, Set<String>>();
+
+	/** The fields indexed per type */
+	private final Map<String, Set<String>> indexes = new HashMap<String, Set<String>>();
+
+	/** The current snapshot, null before the first load */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Instantiates an empty catalog (call {@link #load()})
+	 *
+	 * @param zapi
+	 *            Logged in ZApi used to load the catalog
+	 */
+	public ZCatalog(ZApi zapi) {
+		this.zapi = zapi;
+		addFields(PRODUCT, "Id", "Name", "SKU", "Category", "Description", "EffectiveStartDate", "EffectiveEndDate");
+		addFields(RATE_PLAN, "Id", "Name", "ProductId", "Description", "EffectiveStartDate", "EffectiveEndDate");
+		addFields(CHARGE, "Id", "Name", "ProductRatePlanId", "ChargeModel", "ChargeType", "BillingPeriod", "UOM");
+		addFields(TIER, "Id", "ProductRatePlanChargeId", "Currency", "Price", "Tier", "StartingUnit", "EndingUnit");
+		addIndex(PRODUCT, "SKU");
+		addIndex(RATE_PLAN, "ProductId");
+		addIndex(CHARGE, "ProductRatePlanId");
+		addIndex(TIER, "ProductRatePlanChargeId");
+	}
+
+	/**
+	 * Query more fields of a type (e.g. custom fields), before the load
+	 *
+	 * @param type
+	 *            The type (PRODUCT, RATE_PLAN, CHARGE or TIER)
+	 * @param names
+	 *            The fields
+	 */
+	public synchronized void addFields(String type, String... names) {
+		Set<String> typeFields = fields.get(type);
+		if (typeFields == null) {
+			typeFields = new LinkedHashSet<String>(Arrays.asList("Id", UPDATED_DATE));
+			fields.put(type, typeFields);
+		}
+		typeFields.addAll(Arrays.asList(names));
+	}
+
+	/**
+	 * Index a field of a type (queried if not already), before the load
+	 *
+	 * @param type
+	 *            The type (PRODUCT, RATE_PLAN, CHARGE or TIER)
+	 * @param field
+	 *            The field, e.g. SKU or titleKey__c
+	 */
+	public synchronized void addIndex(String type, String field) {
+		addFields(type, field);
+		Set<String> typeIndexes = indexes.get(type);
+		if (typeIndexes == null) {
+			typeIndexes = new LinkedHashSet<String>();
+			indexes.put(type, typeIndexes);
+		}
+		typeIndexes.add(field.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Load the whole catalog
+	 *
+	 * @return False if a query failed (the previous snapshot is kept)
+	 */
+	public synchronized boolean load() {
+		return update(null);
+	}
+
+	/**
+	 * Load the objects updated since the last load (the whole catalog if
+	 * never loaded)
+	 *
+	 * @return False if a query failed (the previous snapshot is kept)
+	 */
+	public synchronized boolean refresh() {
+		return update(snapshot);
+	}
+
+	/**
+	 * @return True once the catalog has been loaded
+	 */
+	public boolean isLoaded() {
+		return snapshot != null;
+	}
+
+	/**
+	 * Get an object by ID
+	 *
+	 * @param type
+	 *            The type (PRODUCT, RATE_PLAN, CHARGE or TIER)
+	 * @param id
+	 *            The Zuora ID
+	 * @return The object, null if not found
+	 */
+	public ZObject get(String type, String id) {
+		Snapshot current = checkLoaded();
+		Map<String, ZObject> objects = current.objects.get(type);
+		return objects != null ? objects.get(id) : null;
+	}
+
+	/**
+	 * Find the objects by an indexed field
+	 *
+	 * @param type
+	 *            The type (PRODUCT, RATE_PLAN, CHARGE or TIER)
+	 * @param field
+	 *            The indexed field
+	 * @param value
+	 *            The value (String for the IDs)
+	 * @return The objects, empty if none
+	 * @throws IllegalArgumentException
+	 *             If the field is not indexed
+	 */
+	public List<ZObject> find(String type, String field, Object value) {
+		Snapshot current = checkLoaded();
+		Map<String, Map<Object, List<ZObject>>> typeIndexes = current.indexes.get(type);
+		Map<Object, List<ZObject>> index = typeIndexes != null ? typeIndexes.get(field.toLowerCase(Locale.ROOT))
+				: null;
+		if (index == null) {
+			throw new IllegalArgumentException("Field not indexed: " + type + "." + field);
+		}
+		List<ZObject> found = index.get(key(value));
+		return found != null ? found : Collections.<ZObject> emptyList();
+	}
+
+	/**
+	 * @return The number of objects of a type
+	 */
+	public int size(String type) {
+		Map<String, ZObject> objects = checkLoaded().objects.get(type);
+		return objects != null ? objects.size() : 0;
+	}
+
+	public Product getProduct(String id) {
+		return (Product) get(PRODUCT, id);
+	}
+
+	public ProductRatePlan getRatePlan(String id) {
+		return (ProductRatePlan) get(RATE_PLAN, id);
+	}
+
+	public ProductRatePlanCharge getCharge(String id) {
+		return (ProductRatePlanCharge) get(CHARGE, id);
+	}
+
+	/**
+	 * @return The products with this SKU
+	 */
+	public List<Product> findProductsBySku(String sku) {
+		return cast(find(PRODUCT, "SKU", sku), Product.class);
+	}
+
+	/**
+	 * @return The rate plans of a product
+	 */
+	public List<ProductRatePlan> getRatePlans(String productId) {
+		return cast(find(RATE_PLAN, "ProductId", productId), ProductRatePlan.class);
+	}
+
+	/**
+	 * @return The charges of a rate plan
+	 */
+	public List<ProductRatePlanCharge> getCharges(String ratePlanId) {
+		return cast(find(CHARGE, "ProductRatePlanId", ratePlanId), ProductRatePlanCharge.class);
+	}
+
+	/**
+	 * @return The tiers of a charge
+	 */
+	public List<ProductRatePlanChargeTier> getTiers(String chargeId) {
+		return cast(find(TIER, "ProductRatePlanChargeId", chargeId), ProductRatePlanChargeTier.class);
+	}
+
+	/**
+	 * Query the objects (all of them if previous is null, else the ones
+	 * updated since) and swap the snapshot
+	 */
+	private boolean update(Snapshot previous) {
+		Map<String, Map<String, ZObject>> objects = new HashMap<String, Map<String, ZObject>>();
+		Map<String, Calendar> watermarks = new HashMap<String, Calendar>();
+		int updated = 0;
+
+		for (Map.Entry<String, Set<String>> type : fields.entrySet()) {
+			Map<String, ZObject> typeObjects = new LinkedHashMap<String, ZObject>();
+			Calendar watermark = null;
+			StringBuilder query = new StringBuilder("SELECT ");
+			for (String field : type.getValue()) {
+				query.append(query.length() > "SELECT ".length() ? ", " : "").append(field);
+			}
+			query.append(" FROM ").append(type.getKey());
+			if (previous != null && previous.objects.containsKey(type.getKey())) {
+				typeObjects.putAll(previous.objects.get(type.getKey()));
+				watermark = previous.watermarks.get(type.getKey());
+				if (watermark != null) {
+					// Objects updated in the same second may have been missed
+					query.append(" WHERE UpdatedDate >= '").append(ZuoraUtility.formatZoqlDateTime(watermark))
+							.append("'");
+				}
+			}
+
+			ZQueryIterator records = zapi.zQueryIterator(query.toString());
+			try {
+				while (records.hasNext()) {
+					ZObject record = records.next();
+					typeObjects.put(record.getId().getID(), record);
+					Calendar updatedDate = (Calendar) ZuoraUtility.getFieldValue(record, UPDATED_DATE);
+					if (updatedDate != null && (watermark == null || updatedDate.after(watermark))) {
+						watermark = updatedDate;
+					}
+					updated++;
+				}
+			} finally {
+				records.close();
+			}
+			if (records.isFailed()) {
+				logger.error("Catalog not loaded, the " + type.getKey() + " query failed");
+				return false;
+			}
+			objects.put(type.getKey(), typeObjects);
+			watermarks.put(type.getKey(), watermark);
+		}
+
+		snapshot = new Snapshot(objects, buildIndexes(objects), watermarks);
+		logger.info("Catalog " + (previous == null ? "loaded" : "refreshed") + " | " + updated + " object(s) received");
+		return true;
+	}
+
+	private Map<String, Map<String, Map<Object, List<ZObject>>>> buildIndexes(
+			Map<String, Map<String, ZObject>> objects) {
+		Map<String, Map<String, Map<Object, List<ZObject>>>> result = new HashMap<String, Map<String, Map<Object, List<ZObject>>>>();
+		for (Map.Entry<String, Set<String>> type : indexes.entrySet()) {
+			Map<String, Map<Object, List<ZObject>>> typeIndexes = new HashMap<String, Map<Object, List<ZObject>>>();
+			for (String field : type.getValue()) {
+				Map<Object, List<ZObject>> index = new HashMap<Object, List<ZObject>>();
+				for (ZObject object : objects.get(type.getKey()).values()) {
+					Object key = key(ZuoraUtility.getFieldValue(object, field));
+					if (key == null) {
+						continue;
+					}
+					List<ZObject> list = index.get(key);
+					if (list == null) {
+						list = new ArrayList<ZObject>(1);
+						index.put(key, list);
+					}
+					list.add(object);
+				}
+				for (Map.Entry<Object, List<ZObject>> entry : index.entrySet()) {
+					entry.setValue(Collections.unmodifiableList(entry.getValue()));
+				}
+				typeIndexes.put(field, index);
+			}
+			result.put(type.getKey(), typeIndexes);
+		}
+		return result;
+	}
+
+	private Snapshot checkLoaded() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			throw new IllegalStateException("Catalog not loaded");
+		}
+		return current;
+	}
+
+	/**
+	 * The key of a value in an index (the IDs are indexed as String)
+	 */
+	private static Object key(Object value) {
+		return value instanceof ID ? ((ID) value).getID() : value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> cast(List<ZObject> objects, Class<T> type) {
+		return (List<T>) objects;
+	}
+
+	/**
+	 * Immutable state of the catalog
+	 */
+	private static class Snapshot {
+
+		/** The objects per type, by ID */
+		private final Map<String, Map<String, ZObject>> objects;
+
+		/** The indexes per type, by lower case field name */
+		private final Map<String, Map<String, Map<Object, List<ZObject>>>> indexes;
+
+		/** The last UpdatedDate received per type */
+		private final Map<String, Calendar> watermarks;
+
+		private Snapshot(Map<String, Map<String, ZObject>> objects,
+				Map<String, Map<String, Map<Object, List<ZObject>>>> indexes, Map<String, Calendar> watermarks) {
+			this.objects = objects;
+			this.indexes = indexes;
+			this.watermarks = watermarks;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of tasks (typically one API call per chunk of MAX_OBJECTS
+ * objects) with at most `concurrency` of them in flight. The results are
+ * returned in the order of the tasks, whatever the order of completion.
+ */
+public class ZChunkDispatcher {
+
+	/** Executor shared by the dispatchers created without their own executor */
+	private static ExecutorService sharedExecutor;
+
+	/** The executor running the tasks */
+	private final ExecutorService executor;
+
+	/** Max number of tasks running at the same time */
+	private final int concurrency;
+
+	/**
+	 * Instantiates a dispatcher using a shared pool of daemon threads
+	 *
+	 * @param concurrency
+	 *            Max number of tasks running at the same time (1 to run them
+	 *            one after another in the calling thread)
+	 */
+	public ZChunkDispatcher(int concurrency) {
+		this(null, concurrency);
+	}
+
+	/**
+	 * Instantiates a dispatcher on the given executor
+	 *
+	 * @param executor
+	 *            The executor running the tasks (null for the shared pool)
+	 * @param concurrency
+	 *            Max number of tasks running at the same time on this
+	 *            dispatcher call
+	 */
+	public ZChunkDispatcher(ExecutorService executor, int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.executor = executor;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Run all the tasks and wait for their completion
+	 *
+	 * @param tasks
+	 *            The tasks to run
+	 * @return One completed future per task, in the same order (a failed task
+	 *         throws an ExecutionException on get()). If the calling thread is
+	 *         interrupted while waiting, the tasks not completed yet are
+	 *         cancelled and the interrupt flag is restored.
+	 */
+	public <T> List<Future<T>> run(List<? extends Callable<T>> tasks) {
+
+		final List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(new FutureTask<T>(task));
+		}
+
+		int workers = Math.min(concurrency, futures.size());
+
+		if (workers <= 1) {
+			// Nothing to parallelize, run in the calling thread
+			for (FutureTask<T> future : futures) {
+				future.run();
+			}
+
+		} else {
+			// Each worker picks the next task not started yet
+			final AtomicInteger next = new AtomicInteger(0);
+			Runnable worker = new Runnable() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < futures.size()) {
+						futures.get(i).run();
+					}
+				}
+			};
+
+			List<Future<?>> running = new ArrayList<Future<?>>(workers);
+			try {
+				for (int i = 0; i < workers; i++) {
+					running.add(getExecutor().submit(worker));
+				}
+			} catch (RejectedExecutionException e) {
+				// The executor is saturated or shut down, help from the calling thread
+				worker.run();
+			}
+
+			try {
+				for (FutureTask<T> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						// Reported to the caller through the returned future
+					}
+				}
+			} catch (InterruptedException e) {
+				for (FutureTask<T> future : futures) {
+					future.cancel(true);
+				}
+				for (Future<?> r : running) {
+					r.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return new ArrayList<Future<T>>(futures);
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	private ExecutorService getExecutor() {
+		return executor != null ? executor : getSharedExecutor();
+	}
+
+	/**
+	 * Get the pool shared by the dispatchers (lazily created, its daemon
+	 * threads are released after 60 seconds of inactivity)
+	 */
+	public static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "zapi-worker-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+}
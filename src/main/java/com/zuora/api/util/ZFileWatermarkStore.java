@@ -0,0 +1,65 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Watermark store in a local properties file
+ * (`&lt;type&gt;.updatedDate` in ms since the epoch, `&lt;type&gt;.boundaryIds`
+ * comma separated).
+ */
+public class ZFileWatermarkStore implements ZWatermarkStore {
+
+	/** The properties file */
+	private final File file;
+
+	/**
+	 * Instantiates a store (the file is created on the first save)
+	 *
+	 * @param file
+	 *            The properties file
+	 */
+	public ZFileWatermarkStore(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public synchronized ZSyncWatermark load(String type) throws IOException {
+		Properties properties = ZuoraUtility.readProperties(file);
+		String updatedDate = properties.getProperty(type + ".updatedDate");
+		if (updatedDate == null) {
+			return null;
+		}
+		Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		date.setTimeInMillis(Long.parseLong(updatedDate));
+		String ids = properties.getProperty(type + ".boundaryIds", "");
+		Set<String> boundaryIds = new HashSet<String>();
+		if (ids.length() > 0) {
+			boundaryIds.addAll(Arrays.asList(ids.split(",")));
+		}
+		return new ZSyncWatermark(date, boundaryIds);
+	}
+
+	@Override
+	public synchronized void save(String type, ZSyncWatermark watermark) throws IOException {
+		Properties properties = ZuoraUtility.readProperties(file);
+		properties.setProperty(type + ".updatedDate", String.valueOf(watermark.getUpdatedDate().getTimeInMillis()));
+		StringBuilder ids = new StringBuilder();
+		for (String id : watermark.getBoundaryIds()) {
+			ids.append(ids.length() > 0 ? "," : "").append(id);
+		}
+		properties.setProperty(type + ".boundaryIds", ids.toString());
+		ZuoraUtility.writeProperties(properties, file, "ZSyncEngine watermarks");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of an asynchronous operation, completed by the thread receiving the
+ * response. Callbacks can be registered instead of blocking on get().
+ */
+public class ZFuture<T> implements Future<T> {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZFuture.class);
+
+	/** Released once the future is completed */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/** The callbacks waiting for the completion */
+	private List<ZCallback<T>> callbacks = new ArrayList<ZCallback<T>>();
+
+	/** The result */
+	private T result;
+
+	/** The error, if failed */
+	private Throwable error;
+
+	/** True if cancelled */
+	private boolean cancelled;
+
+	/**
+	 * Complete the future with a result
+	 *
+	 * @param value
+	 *            The result
+	 * @return False if the future was already completed
+	 */
+	public boolean complete(T value) {
+		List<ZCallback<T>> toNotify;
+		synchronized (this) {
+			if (callbacks == null) {
+				return false;
+			}
+			result = value;
+			toNotify = callbacks;
+			callbacks = null;
+		}
+		done.countDown();
+
+		for (ZCallback<T> callback : toNotify) {
+			notifySuccess(callback, value);
+		}
+		return true;
+	}
+
+	/**
+	 * Complete the future with an error
+	 *
+	 * @param e
+	 *            The error
+	 * @return False if the future was already completed
+	 */
+	public boolean fail(Throwable e) {
+		List<ZCallback<T>> toNotify;
+		synchronized (this) {
+			if (callbacks == null) {
+				return false;
+			}
+			error = e;
+			toNotify = callbacks;
+			callbacks = null;
+		}
+		done.countDown();
+
+		for (ZCallback<T> callback : toNotify) {
+			notifyFailure(callback, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Register a callback, called right away (in the calling thread) if the
+	 * future is already completed, otherwise by the thread completing it
+	 *
+	 * @param callback
+	 *            The callback
+	 */
+	public void addCallback(ZCallback<T> callback) {
+		synchronized (this) {
+			if (callbacks != null) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+
+		if (error != null) {
+			notifyFailure(callback, error);
+		} else {
+			notifySuccess(callback, result);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		// The request already sent cannot be stopped, only its result is dropped
+		CancellationException e = new CancellationException("Cancelled");
+		List<ZCallback<T>> toNotify;
+		synchronized (this) {
+			if (callbacks == null) {
+				return false;
+			}
+			cancelled = true;
+			error = e;
+			toNotify = callbacks;
+			callbacks = null;
+		}
+		done.countDown();
+
+		for (ZCallback<T> callback : toNotify) {
+			notifyFailure(callback, e);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("No result after " + unit.toMillis(timeout) + " ms");
+		}
+		return getResult();
+	}
+
+	private synchronized T getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException("Cancelled");
+		}
+		if (error != null) {
+			throw new ExecutionException(error);
+		}
+		return result;
+	}
+
+	private void notifySuccess(ZCallback<T> callback, T value) {
+		try {
+			callback.onSuccess(value);
+		} catch (RuntimeException e) {
+			logger.error("Error in callback | " + e.getMessage(), e);
+		}
+	}
+
+	private void notifyFailure(ZCallback<T> callback, Throwable e) {
+		try {
+			callback.onFailure(e);
+		} catch (RuntimeException re) {
+			logger.error("Error in callback | " + re.getMessage(), re);
+		}
+	}
+
+}
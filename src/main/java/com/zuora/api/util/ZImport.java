@@ -1,28 +1,49 @@
 package com.zuora.api.util;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
-import javax.mail.util.ByteArrayDataSource;
 
-import org.apache.axis2.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.zuora.api.axis2.ZuoraServiceStub.ID;
 import com.zuora.api.axis2.ZuoraServiceStub.Import;
 import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
-import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
 
 public class ZImport {
 
 	/** The constant USAGE_TYPE */
 	public static final String USAGE_TYPE = "Usage";
 
+	/** Default max size of a part of a bulk import (bytes) */
+	public static final long DEFAULT_MAX_PART_BYTES = 4L * 1024 * 1024;
+
+	/** Default number of parts of a bulk import uploaded at the same time */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** Encoding of the usage files */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The MIME content expected by Zuora, followed by the file name */
+	private static final String MIME_PREFIX = "text/plain;name=";
+
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(ZImport.class);
 
@@ -38,18 +59,21 @@ public class ZImport {
 	 * @return ID of the created usage import
 	 */
 	public static ID createImport(String usageFilePath, String usageFileName) {
-		ID createdImportId = null;
-		try {
-			InputStream is = new FileInputStream(usageFilePath);
-			createdImportId = createImport(is, usageFileName);
-		} catch (FileNotFoundException ex) {
+		File file = new File(usageFilePath);
+		if (!file.isFile() || !file.canRead()) {
 			logger.error("Could not load file from path: `" + usageFilePath + "`");
+			return null;
 		}
-		return createdImportId;
+		// The file is streamed from disk into the attachment
+		DataSource dataSource = new ZStreamDataSource(file, contentType(usageFileName));
+		ZApi zapi = new ZApi();
+		zapi.zLogin();
+		return createImport(zapi, dataSource);
 	}
 
 	/**
-	 * High-level wrapper to create an import object in Zuora
+	 * High-level wrapper to create an import object in Zuora. The stream is
+	 * read once: the import call is not retried if it fails.
 	 * 
 	 * @param usageFileInputStream
 	 *            InputStream for the usage file
@@ -61,31 +85,40 @@ public class ZImport {
 	 */
 	public static ID createImport(InputStream usageFileInputStream, String usageFileName) {
 		logger.debug("Entering import method for filename `" + usageFileName + "`");
-		// Add the MIME content if not already present
-		if (!usageFileName.contains("text/plain;name=")) {
-			usageFileName = "text/plain;name=" + usageFileName;
-			logger.debug("Added MIME content to filename: `" + usageFileName + "`");
-		}
-		// Create the import object and set the import type
-		Import zimport = new Import();
-		zimport.setImportType(USAGE_TYPE);
-		// Prepare the data source (CSV file containing the usage)
-		DataSource dataSource = null;
-		try {
-			dataSource = new ByteArrayDataSource(usageFileInputStream, usageFileName);
-		} catch (IOException e) {
-			logger.error("I/O Error loading usage file | " + e.getMessage());
-		}
-		DataHandler dataHandler = new DataHandler(dataSource);
-		zimport.setFileContent(dataHandler);
+		// Prepare the data source (CSV file containing the usage), streamed
+		// once into the attachment: a failed upload is not retried
+		String contentType = contentType(usageFileName);
+		DataSource dataSource = new ZStreamDataSource(usageFileInputStream, contentType,
+				contentType.substring(MIME_PREFIX.length()));
 		// Get the zuora API object and log into Zuora
 		ZApi zapi = new ZApi();
 		zapi.zLogin();
-		// Set the proper configuration option to the ZApi
-		zapi.getStub()._getServiceClient().getOptions()
-				.setProperty(Constants.Configuration.ENABLE_MTOM, Constants.VALUE_TRUE);
+		return createImport(zapi, dataSource);
+	}
+
+	/**
+	 * Create an import object in Zuora with an already logged in ZApi
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi (the import is sent with a stub of its own, see
+	 *            {@link ZApi#zCreateImport(Import)})
+	 * @param dataSource
+	 *            The usage file, its content type giving the file name
+	 *            (`text/plain;name=<YOUR FILE NAME>`)
+	 * @return ID of the created usage import, null if the import failed
+	 */
+	public static ID createImport(ZApi zapi, DataSource dataSource) {
+		// Create the import object and set the import type
+		Import zimport = new Import();
+		zimport.setImportType(USAGE_TYPE);
+		zimport.setFileContent(new DataHandler(dataSource));
 		// Create the object in Zuora
-		SaveResult result = zapi.zCreate(new ZObject[] { zimport })[0];
+		SaveResult[] results = zapi.zCreateImport(zimport);
+		if (results == null || results[0] == null) {
+			logger.error("Import failed for `" + dataSource.getName() + "`, see the ZApi logs");
+			return null;
+		}
+		SaveResult result = results[0];
 		if (result.getSuccess()) {
 			logger.debug("Successfully created import with ID = " + result.getId());
 		} else {
@@ -98,4 +131,253 @@ public class ZImport {
 		return result.getId();
 	}
 
+	/**
+	 * Bulk import of a large usage file with the default part size and
+	 * concurrency
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi, shared by the uploads
+	 * @param usageFilePath
+	 *            Path to your usage file (CSV with a header row)
+	 * @return The Imports created, null if the file could not be read
+	 */
+	public static ZBulkImportResult createBulkImport(ZApi zapi, String usageFilePath) {
+		return createBulkImport(zapi, usageFilePath, DEFAULT_MAX_PART_BYTES, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Bulk import of a large usage file: the file is split in parts of at most
+	 * maxPartBytes (the header row is repeated in each part, a record is never
+	 * cut) and each part is uploaded as its own Import
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi, shared by the uploads
+	 * @param usageFilePath
+	 *            Path to your usage file (CSV with a header row)
+	 * @param maxPartBytes
+	 *            Max size of a part (a single record larger than that makes
+	 *            its own part)
+	 * @param concurrency
+	 *            Max number of parts uploaded at the same time
+	 * @return The Imports created, null if the file could not be read
+	 */
+	public static ZBulkImportResult createBulkImport(ZApi zapi, String usageFilePath, long maxPartBytes,
+			int concurrency) {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(usageFilePath);
+			return createBulkImport(zapi, is, new File(usageFilePath).getName(), maxPartBytes, concurrency);
+		} catch (FileNotFoundException ex) {
+			logger.error("Could not load file from path: `" + usageFilePath + "`");
+			return null;
+		} finally {
+			close(is);
+		}
+	}
+
+	/**
+	 * Bulk import of a large usage file read from a stream (see
+	 * {@link #createBulkImport(ZApi, String, long, int)})
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi, shared by the uploads
+	 * @param usageFileInputStream
+	 *            InputStream for the usage file, read once
+	 * @param usageFileName
+	 *            File name, the parts are named after it
+	 *            (`usage-part-001.csv`...)
+	 * @param maxPartBytes
+	 *            Max size of a part
+	 * @param concurrency
+	 *            Max number of parts uploaded at the same time
+	 * @return The Imports created, null if the file could not be read
+	 */
+	public static ZBulkImportResult createBulkImport(ZApi zapi, InputStream usageFileInputStream,
+			String usageFileName, long maxPartBytes, int concurrency) {
+		List<ZBulkImportResult.Part> parts = null;
+		try {
+			parts = splitCsv(usageFileInputStream, usageFileName, maxPartBytes);
+			logger.debug("Split `" + usageFileName + "` in " + parts.size() + " part(s)");
+
+			ZBulkImportResult result = uploadParts(zapi, parts, concurrency);
+			logger.debug("Bulk import of `" + usageFileName + "` | " + result);
+			return result;
+		} catch (IOException e) {
+			logger.error("I/O Error splitting usage file | " + e.getMessage());
+			return null;
+		} finally {
+			deleteParts(parts);
+		}
+	}
+
+	/**
+	 * Upload files as Imports, at most `concurrency` at the same time
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi, shared by the uploads
+	 * @param parts
+	 *            The files to upload (not deleted)
+	 * @param concurrency
+	 *            Max number of files uploaded at the same time
+	 * @return The Imports created
+	 */
+	static ZBulkImportResult uploadParts(final ZApi zapi, List<ZBulkImportResult.Part> parts, int concurrency) {
+		List<Callable<ID>> uploads = new ArrayList<Callable<ID>>(parts.size());
+		for (final ZBulkImportResult.Part part : parts) {
+			uploads.add(new Callable<ID>() {
+				public ID call() {
+					return createImport(zapi, new ZStreamDataSource(part.file, MIME_PREFIX + part.getName()));
+				}
+			});
+		}
+		List<Future<ID>> futures = new ZChunkDispatcher(zapi.getChunkExecutor(), concurrency).run(uploads);
+
+		for (int i = 0; i < parts.size(); i++) {
+			ZBulkImportResult.Part part = parts.get(i);
+			try {
+				ID id = futures.get(i).get();
+				if (id != null) {
+					part.uploaded(id);
+				} else {
+					part.failed("Import not created, see the logs");
+				}
+			} catch (ExecutionException e) {
+				logger.error("Upload of `" + part.getName() + "` failed | " + e.getCause());
+				part.failed(String.valueOf(e.getCause()));
+			} catch (Exception e) {
+				// Cancelled or interrupted
+				part.failed(String.valueOf(e));
+			}
+		}
+		return new ZBulkImportResult(parts);
+	}
+
+	/**
+	 * Split a CSV file in parts of at most maxPartBytes, each starting with the
+	 * header row. A record spanning several lines (line break in a quoted
+	 * field) is kept whole, blank lines are skipped.
+	 * 
+	 * @param in
+	 *            The CSV file (UTF-8)
+	 * @param fileName
+	 *            Name of the file, the parts are named after it
+	 * @param maxPartBytes
+	 *            Max size of a part (a single record larger than that makes
+	 *            its own part)
+	 * @return The parts, written in temporary files
+	 * @throws IOException
+	 *             On read or write error (the parts already written are
+	 *             deleted)
+	 */
+	static List<ZBulkImportResult.Part> splitCsv(InputStream in, String fileName, long maxPartBytes)
+			throws IOException {
+		List<ZBulkImportResult.Part> parts = new ArrayList<ZBulkImportResult.Part>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+		Writer writer = null;
+		try {
+			String header = reader.readLine();
+			if (header == null) {
+				return parts;
+			}
+			header = header + "\n";
+			long headerBytes = header.getBytes(UTF8).length;
+
+			ZBulkImportResult.Part part = null;
+			StringBuilder record = new StringBuilder();
+			boolean quoted = false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (record.length() == 0 && line.trim().length() == 0) {
+					continue;
+				}
+				record.append(line).append('\n');
+				if (quoteCount(line) % 2 == 1) {
+					quoted = !quoted;
+				}
+				if (quoted) {
+					// Line break in a quoted field, the record goes on
+					continue;
+				}
+				String row = record.toString();
+				record.setLength(0);
+				long rowBytes = row.getBytes(UTF8).length;
+
+				if (part == null || part.getRows() > 0 && part.getBytes() + rowBytes > maxPartBytes) {
+					close(writer);
+					part = new ZBulkImportResult.Part(parts.size() + 1, partName(fileName, parts.size() + 1));
+					parts.add(part);
+					part.file = File.createTempFile("zimport-", ".csv");
+					writer = new OutputStreamWriter(new FileOutputStream(part.file), UTF8);
+					writer.write(header);
+					part.addHeader(headerBytes);
+				}
+				writer.write(row);
+				part.addRow(rowBytes);
+			}
+			if (record.length() > 0) {
+				throw new IOException("Unterminated quoted field at the end of `" + fileName + "`");
+			}
+			writer = close(writer);
+			return parts;
+		} catch (IOException e) {
+			close(writer);
+			deleteParts(parts);
+			throw e;
+		}
+	}
+
+	/**
+	 * Add the MIME content to a file name if not already present
+	 */
+	private static String contentType(String usageFileName) {
+		if (usageFileName.contains(MIME_PREFIX)) {
+			return usageFileName;
+		}
+		logger.debug("Added MIME content to filename: `" + usageFileName + "`");
+		return MIME_PREFIX + usageFileName;
+	}
+
+	/**
+	 * Name of a part of a file: `usage.csv` gives `usage-part-001.csv`
+	 */
+	static String partName(String fileName, int index) {
+		int dot = fileName.lastIndexOf('.');
+		String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+		String extension = dot > 0 ? fileName.substring(dot) : "";
+		return base + "-part-" + String.format("%03d", index) + extension;
+	}
+
+	private static int quoteCount(String line) {
+		int count = 0;
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) == '"') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void deleteParts(List<ZBulkImportResult.Part> parts) {
+		if (parts == null) {
+			return;
+		}
+		for (ZBulkImportResult.Part part : parts) {
+			if (part.file != null && !part.file.delete()) {
+				logger.warn("Could not delete temporary file `" + part.file + "`");
+			}
+			part.file = null;
+		}
+	}
+
+	private static <T extends java.io.Closeable> T close(T closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				logger.warn("Error closing stream | " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
 }
@@ -0,0 +1,334 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Tracks the status of many Imports with one query per poll (the IDs are OR'd
+ * in the WHERE clause), and completes the future of each Import once it
+ * reaches a terminal status (Completed, Canceled or Failed).
+ *
+ * The poll interval starts at minInterval, doubles while no status changes,
+ * up to maxInterval, and goes back to minInterval on any change.
+ *
+ * <pre>
+ * ZImportTracker tracker = new ZImportTracker(zapi);
+ * Import result = tracker.track(ZImport.createImport(zapi, dataSource)).get();
+ * tracker.close();
+ * </pre>
+ */
+public class ZImportTracker {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZImportTracker.class);
+
+	/** Max number of IDs OR'd in one query */
+	public static final int MAX_IDS_PER_QUERY = 200;
+
+	/** Default min interval between two polls (ms) */
+	public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+	/** Default max interval between two polls (ms) */
+	public static final long DEFAULT_MAX_INTERVAL = 30000;
+
+	/** Terminal statuses of an Import */
+	private static final String[] TERMINAL_STATUSES = { "Completed", "Canceled", "Failed" };
+
+	/** The Zuora API used to poll */
+	private final ZApi zapi;
+
+	/** The imports not in a terminal status yet, by ID */
+	private final Map<String, Tracked> pending = new LinkedHashMap<String, Tracked>();
+
+	/** The thread polling the statuses */
+	private final ScheduledExecutorService poller;
+
+	private final long minInterval;
+
+	private final long maxInterval;
+
+	/** Current interval between two polls (ms) */
+	private long interval;
+
+	/** True if a poll is scheduled */
+	private boolean scheduled;
+
+	private boolean closed;
+
+	/** Number of queries sent */
+	private final AtomicLong queries = new AtomicLong();
+
+	/**
+	 * Instantiates a tracker with the default poll intervals
+	 *
+	 * @param zapi
+	 *            Logged in ZApi used to poll
+	 */
+	public ZImportTracker(ZApi zapi) {
+		this(zapi, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+	}
+
+	/**
+	 * Instantiates a tracker
+	 *
+	 * @param zapi
+	 *            Logged in ZApi used to poll
+	 * @param minInterval
+	 *            Interval between two polls after a status change (ms)
+	 * @param maxInterval
+	 *            Max interval between two polls (ms)
+	 */
+	public ZImportTracker(ZApi zapi, long minInterval, long maxInterval) {
+		if (minInterval < 1 || maxInterval < minInterval) {
+			throw new IllegalArgumentException("Invalid poll intervals: min = " + minInterval + ", max = "
+					+ maxInterval);
+		}
+		this.zapi = zapi;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.interval = minInterval;
+		this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zimport-tracker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Track an Import
+	 *
+	 * @param importId
+	 *            ID of the Import
+	 * @return Future completed with the Import (Id, Name, Status, StatusReason,
+	 *         ImportedCount, TotalCount, ResultResourceUrl) once it reaches a
+	 *         terminal status. Cancel it to stop tracking the Import.
+	 */
+	public ZFuture<Import> track(ID importId) {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Tracker closed");
+			}
+			Tracked tracked = pending.get(importId.getID());
+			if (tracked == null) {
+				tracked = new Tracked(importId);
+				pending.put(importId.getID(), tracked);
+			}
+			// A new import is likely to change soon
+			interval = minInterval;
+			if (!scheduled) {
+				schedule();
+			}
+			return tracked.future;
+		}
+	}
+
+	/**
+	 * Track an Import, notifying a callback
+	 *
+	 * @param importId
+	 *            ID of the Import
+	 * @param callback
+	 *            Called with the Import once it reaches a terminal status
+	 * @return The future of the Import
+	 */
+	public ZFuture<Import> track(ID importId, ZCallback<Import> callback) {
+		ZFuture<Import> future = track(importId);
+		future.addCallback(callback);
+		return future;
+	}
+
+	/**
+	 * Track the Imports of a bulk import
+	 *
+	 * @param result
+	 *            The bulk import
+	 * @return One future per Import created, in the order of the parts
+	 */
+	public List<ZFuture<Import>> track(ZBulkImportResult result) {
+		List<ZFuture<Import>> futures = new ArrayList<ZFuture<Import>>();
+		for (ID id : result.getImportIds()) {
+			futures.add(track(id));
+		}
+		return futures;
+	}
+
+	/**
+	 * @return The number of Imports not in a terminal status yet
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The number of queries sent since the creation of the tracker
+	 */
+	public long getQueryCount() {
+		return queries.get();
+	}
+
+	/**
+	 * Stop polling, the futures of the Imports still pending are cancelled
+	 */
+	public void close() {
+		List<Tracked> cancelled;
+		synchronized (this) {
+			closed = true;
+			cancelled = new ArrayList<Tracked>(pending.values());
+			pending.clear();
+		}
+		poller.shutdownNow();
+		for (Tracked tracked : cancelled) {
+			tracked.future.cancel(false);
+		}
+	}
+
+	/**
+	 * @param status
+	 *            Status of an Import
+	 * @return True if the Import will not change anymore
+	 */
+	public static boolean isTerminal(String status) {
+		for (String terminal : TERMINAL_STATUSES) {
+			if (terminal.equalsIgnoreCase(status)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Must be called with the lock held */
+	private void schedule() {
+		scheduled = true;
+		poller.schedule(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Query the status of the pending Imports, complete the terminated ones
+	 * and schedule the next poll
+	 */
+	private void poll() {
+		List<Tracked> batch;
+		synchronized (this) {
+			for (Iterator<Tracked> it = pending.values().iterator(); it.hasNext();) {
+				if (it.next().future.isCancelled()) {
+					it.remove();
+				}
+			}
+			batch = new ArrayList<Tracked>(pending.values());
+		}
+
+		boolean changed = false;
+		try {
+			for (int from = 0; from < batch.size(); from += MAX_IDS_PER_QUERY) {
+				List<Tracked> chunk = batch.subList(from, Math.min(batch.size(), from + MAX_IDS_PER_QUERY));
+				changed |= poll(chunk);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Import status poll | " + e.getMessage());
+		}
+
+		synchronized (this) {
+			scheduled = false;
+			if (closed || pending.isEmpty()) {
+				return;
+			}
+			interval = changed ? minInterval : Math.min(interval * 2, maxInterval);
+			schedule();
+		}
+	}
+
+	/**
+	 * Query the status of some Imports
+	 *
+	 * @return True if a status changed
+	 */
+	private boolean poll(List<Tracked> chunk) {
+		StringBuilder query = new StringBuilder(
+				"SELECT Id, Name, Status, StatusReason, ImportedCount, TotalCount, ResultResourceUrl FROM Import WHERE ");
+		for (int i = 0; i < chunk.size(); i++) {
+			if (i > 0) {
+				query.append(" OR ");
+			}
+			query.append("Id = '").append(chunk.get(i).id.getID()).append("'");
+		}
+
+		queries.incrementAndGet();
+		QueryResult result = zapi.zQuery(query.toString());
+		if (result == null || result.getRecords() == null) {
+			// The error has been logged by ZApi, try again at the next poll
+			return false;
+		}
+
+		boolean changed = false;
+		List<Tracked> terminated = new ArrayList<Tracked>();
+		synchronized (this) {
+			for (ZObject record : result.getRecords()) {
+				Import zimport = (Import) record;
+				Tracked tracked = pending.get(zimport.getId().getID());
+				if (tracked == null) {
+					continue;
+				}
+				String status = zimport.getStatus();
+				if (tracked.status == null || !tracked.status.equals(status)) {
+					logger.debug("Import " + zimport.getId() + " | " + tracked.status + " -> " + status);
+					tracked.status = status;
+					changed = true;
+				}
+				if (isTerminal(status)) {
+					pending.remove(zimport.getId().getID());
+					tracked.result = zimport;
+					terminated.add(tracked);
+				}
+			}
+		}
+		// Callbacks run outside the lock
+		for (Tracked tracked : terminated) {
+			tracked.future.complete(tracked.result);
+		}
+		return changed;
+	}
+
+	/**
+	 * An Import being tracked
+	 */
+	private static class Tracked {
+
+		private final ID id;
+
+		private final ZFuture<Import> future = new ZFuture<Import>();
+
+		/** Last status seen, null before the first poll */
+		private String status;
+
+		private Import result;
+
+		private Tracked(ID id) {
+			this.id = id;
+		}
+	}
+
+}
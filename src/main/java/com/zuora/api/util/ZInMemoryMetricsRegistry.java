@@ -0,0 +1,320 @@
+package com.zuora.api.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics registry keeping the measures in memory: per operation, the number
+ * of calls and errors, a latency histogram, the results of the objects, the
+ * payload sizes and the chunk counts.
+ *
+ * <pre>
+ * ZInMemoryMetricsRegistry metrics = ZInMemoryMetricsRegistry.getShared();
+ * logger.info("create | " + metrics.getStats(ZOperation.CREATE));
+ * </pre>
+ */
+public class ZInMemoryMetricsRegistry implements ZMetricsRegistry {
+
+	/** Upper bounds of the latency histogram buckets (ms), the last bucket is unbounded */
+	private static final long[] LATENCY_BUCKETS_MILLIS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000,
+			30000, 60000, 120000 };
+
+	/** The registry used by default by the ZApi instances */
+	private static ZInMemoryMetricsRegistry shared;
+
+	/** The measures of each operation */
+	private final Map<ZOperation, Measures> measures = new ConcurrentHashMap<ZOperation, Measures>();
+
+	/**
+	 * Instantiates an empty registry
+	 */
+	public ZInMemoryMetricsRegistry() {
+		for (ZOperation operation : ZOperation.values()) {
+			measures.put(operation, new Measures());
+		}
+	}
+
+	/**
+	 * Get the registry used by default by the ZApi instances
+	 *
+	 * @return The shared registry
+	 */
+	public static synchronized ZInMemoryMetricsRegistry getShared() {
+		if (shared == null) {
+			shared = new ZInMemoryMetricsRegistry();
+		}
+		return shared;
+	}
+
+	@Override
+	public void recordCall(ZOperation operation, long durationNanos, boolean success) {
+		Measures m = measures.get(operation);
+		m.calls.incrementAndGet();
+		if (!success) {
+			m.errors.incrementAndGet();
+		}
+		m.totalNanos.addAndGet(durationNanos);
+		max(m.maxNanos, durationNanos);
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+		int bucket = 0;
+		while (bucket < LATENCY_BUCKETS_MILLIS.length && millis > LATENCY_BUCKETS_MILLIS[bucket]) {
+			bucket++;
+		}
+		m.latencyBuckets.incrementAndGet(bucket);
+	}
+
+	@Override
+	public void recordObjects(ZOperation operation, int succeeded, int failed) {
+		Measures m = measures.get(operation);
+		m.objectsSucceeded.addAndGet(succeeded);
+		m.objectsFailed.addAndGet(failed);
+	}
+
+	@Override
+	public void recordPayload(ZOperation operation, int objects) {
+		Measures m = measures.get(operation);
+		m.payloads.incrementAndGet();
+		m.payloadObjects.addAndGet(objects);
+		max(m.maxPayload, objects);
+	}
+
+	@Override
+	public void recordChunks(ZOperation operation, int chunks) {
+		Measures m = measures.get(operation);
+		m.splitCalls.incrementAndGet();
+		m.chunks.addAndGet(chunks);
+		max(m.maxChunks, chunks);
+	}
+
+	/**
+	 * Get the measures of an operation
+	 *
+	 * @param operation
+	 *            The operation
+	 * @return A snapshot of the measures
+	 */
+	public Stats getStats(ZOperation operation) {
+		return new Stats(measures.get(operation));
+	}
+
+	/**
+	 * Forget all the measures
+	 */
+	public void reset() {
+		for (ZOperation operation : ZOperation.values()) {
+			measures.put(operation, new Measures());
+		}
+	}
+
+	/**
+	 * Measures of an operation at a given time
+	 */
+	public static class Stats {
+
+		private final long calls;
+
+		private final long errors;
+
+		private final long totalNanos;
+
+		private final long maxNanos;
+
+		private final long[] latencyBuckets;
+
+		private final long objectsSucceeded;
+
+		private final long objectsFailed;
+
+		private final long payloads;
+
+		private final long payloadObjects;
+
+		private final long maxPayload;
+
+		private final long splitCalls;
+
+		private final long chunks;
+
+		private final long maxChunks;
+
+		private Stats(Measures m) {
+			this.calls = m.calls.get();
+			this.errors = m.errors.get();
+			this.totalNanos = m.totalNanos.get();
+			this.maxNanos = m.maxNanos.get();
+			this.latencyBuckets = new long[m.latencyBuckets.length()];
+			for (int i = 0; i < latencyBuckets.length; i++) {
+				latencyBuckets[i] = m.latencyBuckets.get(i);
+			}
+			this.objectsSucceeded = m.objectsSucceeded.get();
+			this.objectsFailed = m.objectsFailed.get();
+			this.payloads = m.payloads.get();
+			this.payloadObjects = m.payloadObjects.get();
+			this.maxPayload = m.maxPayload.get();
+			this.splitCalls = m.splitCalls.get();
+			this.chunks = m.chunks.get();
+			this.maxChunks = m.maxChunks.get();
+		}
+
+		/**
+		 * @return The number of API calls
+		 */
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return The number of API calls that raised an error
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return The average duration of a call (ms)
+		 */
+		public double getMeanMillis() {
+			return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+		}
+
+		/**
+		 * @return The longest call (ms)
+		 */
+		public long getMaxMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+		}
+
+		/**
+		 * Get an upper bound of a percentile of the call durations, from the
+		 * latency histogram
+		 *
+		 * @param percentile
+		 *            The percentile, between 0 and 1 (e.g. 0.99)
+		 * @return The upper bound of the histogram bucket of the percentile
+		 *         (ms), the longest call for the last bucket
+		 */
+		public long getPercentileMillis(double percentile) {
+			long rank = (long) Math.ceil(percentile * calls);
+			long count = 0;
+			for (int i = 0; i < latencyBuckets.length; i++) {
+				count += latencyBuckets[i];
+				if (count >= rank && count > 0) {
+					return i < LATENCY_BUCKETS_MILLIS.length ? Math.min(LATENCY_BUCKETS_MILLIS[i], getMaxMillis())
+							: getMaxMillis();
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return The number of calls per latency bucket (see
+		 *         {@link #getLatencyBucketsMillis()})
+		 */
+		public long[] getLatencyBuckets() {
+			return latencyBuckets.clone();
+		}
+
+		/**
+		 * @return The upper bounds of the latency buckets (ms), the last
+		 *         bucket being unbounded
+		 */
+		public static long[] getLatencyBucketsMillis() {
+			return LATENCY_BUCKETS_MILLIS.clone();
+		}
+
+		/**
+		 * @return The number of objects processed successfully
+		 */
+		public long getObjectsSucceeded() {
+			return objectsSucceeded;
+		}
+
+		/**
+		 * @return The number of objects in error
+		 */
+		public long getObjectsFailed() {
+			return objectsFailed;
+		}
+
+		/**
+		 * @return The average number of objects per call
+		 */
+		public double getMeanPayload() {
+			return payloads == 0 ? 0 : (double) payloadObjects / payloads;
+		}
+
+		/**
+		 * @return The largest number of objects of a call
+		 */
+		public long getMaxPayload() {
+			return maxPayload;
+		}
+
+		/**
+		 * @return The average number of chunks per ZApi operation
+		 */
+		public double getMeanChunks() {
+			return splitCalls == 0 ? 0 : (double) chunks / splitCalls;
+		}
+
+		/**
+		 * @return The largest number of chunks of a ZApi operation
+		 */
+		public long getMaxChunks() {
+			return maxChunks;
+		}
+
+		@Override
+		public String toString() {
+			return "calls = " + calls + " | errors = " + errors + " | mean = " + String.format("%.1f", getMeanMillis())
+					+ " ms | p99 = " + getPercentileMillis(0.99) + " ms | max = " + getMaxMillis()
+					+ " ms | objects ok = " + objectsSucceeded + " | objects failed = " + objectsFailed
+					+ " | mean payload = " + String.format("%.1f", getMeanPayload()) + " | mean chunks = "
+					+ String.format("%.1f", getMeanChunks());
+		}
+	}
+
+	/**
+	 * Counters of an operation
+	 */
+	private static class Measures {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+
+		private final AtomicLong objectsSucceeded = new AtomicLong();
+
+		private final AtomicLong objectsFailed = new AtomicLong();
+
+		private final AtomicLong payloads = new AtomicLong();
+
+		private final AtomicLong payloadObjects = new AtomicLong();
+
+		private final AtomicLong maxPayload = new AtomicLong();
+
+		private final AtomicLong splitCalls = new AtomicLong();
+
+		private final AtomicLong chunks = new AtomicLong();
+
+		private final AtomicLong maxChunks = new AtomicLong();
+	}
+
+	private static void max(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+}
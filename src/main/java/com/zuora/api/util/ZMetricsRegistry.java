@@ -0,0 +1,58 @@
+package com.zuora.api.util;
+
+/**
+ * Receives the measures of the Zuora API calls made by ZApi. Implement it to
+ * forward the measures to a monitoring system (Micrometer, Dropwizard
+ * Metrics...), or use {@link ZInMemoryMetricsRegistry}.
+ *
+ * The methods are called by the threads making the calls, they must be
+ * thread-safe and fast.
+ */
+public interface ZMetricsRegistry {
+
+	/**
+	 * Record one API call (each attempt of a retried call is recorded)
+	 *
+	 * @param operation
+	 *            The operation called
+	 * @param durationNanos
+	 *            Duration of the call, throttling excluded (ns)
+	 * @param success
+	 *            False if the call raised an error
+	 */
+	void recordCall(ZOperation operation, long durationNanos, boolean success);
+
+	/**
+	 * Record the results of the objects of a ZApi operation (from the
+	 * SaveResult, DeleteResult, SubscribeResult or AmendResult)
+	 *
+	 * @param operation
+	 *            The operation
+	 * @param succeeded
+	 *            Number of objects processed successfully
+	 * @param failed
+	 *            Number of objects in error, or of a chunk that failed
+	 */
+	void recordObjects(ZOperation operation, int succeeded, int failed);
+
+	/**
+	 * Record the size of the payload of an API call
+	 *
+	 * @param operation
+	 *            The operation called
+	 * @param objects
+	 *            Number of objects sent (records received for the queries)
+	 */
+	void recordPayload(ZOperation operation, int objects);
+
+	/**
+	 * Record the number of chunks a ZApi operation has been split in
+	 *
+	 * @param operation
+	 *            The operation
+	 * @param chunks
+	 *            Number of chunks (API calls)
+	 */
+	void recordChunks(ZOperation operation, int chunks);
+
+}
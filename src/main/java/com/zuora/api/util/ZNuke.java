@@ -1,69 +1,422 @@
 package com.zuora.api.util;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.zuora.api.axis2.ZuoraServiceStub.Account;
 import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
-import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
 import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
 
+/**
+ * Deletes all the objects of the given types from the tenant. The IDs are
+ * paged with query()/queryMore() and deleted in parallel chunks of
+ * MAX_OBJECTS, one page at a time.
+ *
+ * The progress is saved in a checkpoint file after each page: an interrupted
+ * or failed run started again skips the types already purged. The file is
+ * deleted once every type has been purged.
+ */
 public class ZNuke {
 
+	/** The types that can be purged, dependent objects first */
+	public static final List<String> DEPENDENCY_ORDER = Collections.unmodifiableList(Arrays.asList("Usage",
+			"Refund", "InvoiceItemAdjustment", "InvoiceAdjustment", "CreditBalanceAdjustment", "Payment", "Invoice",
+			"Amendment", "Subscription", "PaymentMethod", "Account", "Contact", "ProductRatePlanCharge",
+			"ProductRatePlan", "Product"));
+
+	/** Default checkpoint file */
+	public static final String DEFAULT_CHECKPOINT_FILE = "znuke.checkpoint.properties";
+
+	/** Default number of delete calls in flight */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/** Latency of a delete call assumed by the dry run without any sample (ms) */
+	public static final long DEFAULT_DELETE_LATENCY = 1000;
+
+	/** Max number of IDs deleted at once (the size of a query page) */
+	private static final int BATCH_SIZE = 2000;
+
 	/** The Zuora API helper instance */
 	private ZApi zapi;
 	
 	/** The logger */
 	private static Logger logger = LoggerFactory.getLogger(ZNuke.class);
+
+	/** The types to purge, in dependency order */
+	private List<String> types = Arrays.asList("Account");
+
+	/** Max number of delete calls in flight */
+	private int concurrency = DEFAULT_CONCURRENCY;
+
+	/** The file the progress is saved to */
+	private File checkpointFile = new File(DEFAULT_CHECKPOINT_FILE);
+
+	/** Latency of a delete call for the dry run estimates (ms), 0 to measure it */
+	private long deleteLatency;
 	
 	public ZNuke() {
 		zapi = new ZApi();
 		zapi.zLogin();
 	}
+
+	/**
+	 * Instantiates a nuke on an existing session
+	 * 
+	 * @param zapi
+	 *            Logged in ZApi
+	 */
+	public ZNuke(ZApi zapi) {
+		this.zapi = zapi;
+	}
 	
-	public void launch() {
+	/**
+	 * Delete all the objects of the types to purge
+	 * 
+	 * @return True if every object has been deleted
+	 */
+	public boolean launch() {
 		logger.debug("* * * NUKE LAUNCHED!!! * * *");
-		// Query the existing billing account(s)
-		QueryResult accountQueryResult = zapi.zQuery("SELECT Id FROM Account");
-		
-		// Extract their IDs
-		List<String> ids = new ArrayList<String>();
-		for (ZObject zobj : accountQueryResult.getRecords()) {
-			Account a = (Account) zobj;
-			ids.add(a.getId().getID());
-		}
-		logger.debug("* * * Estimated casualties: " + ids.size() + " * * *");
-		
-		// Nuke'em
-		DeleteResult[] deleted = zapi.zDelete(ids.toArray(new String[ids.size()]), "Account");
-		
-		// Check the result
+		Properties checkpoint = loadCheckpoint();
+
+		// The chunks are dispatched here, the settings of the ZApi (maybe shared) are left alone
+		ZChunkDispatcher dispatcher = new ZChunkDispatcher(concurrency);
 		boolean hasFailure = false;
-		for (DeleteResult d : deleted) {
-			if (!d.getSuccess()) {
+		for (String type : types) {
+			if (Boolean.parseBoolean(checkpoint.getProperty(type + ".done"))) {
+				logger.debug("* * * " + type + " already nuked (" + checkpoint.getProperty(type + ".deleted", "0")
+						+ "), skipped * * *");
+				continue;
+			}
+			if (!purge(type, checkpoint, dispatcher)) {
 				hasFailure = true;
-				logger.error("* * * Could not nuke the target * * *");
-				for (com.zuora.api.axis2.ZuoraServiceStub.Error e : d.getErrors()) {
-					logger.error("Field: " + e.getField() + " | Message: " + e.getMessage() + " | Code: " + e.getCode());
-				}
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				logger.error("* * * Nuke interrupted, run it again to resume * * *");
+				return false;
 			}
 		}
 		
 		if (!hasFailure) {
+			if (checkpointFile.exists() && !checkpointFile.delete()) {
+				logger.warn("Could not delete the checkpoint file `" + checkpointFile + "`");
+			}
 			logger.debug("* * * Successfully nuked this tenant! Congrats. * * *");
 		}
+		return !hasFailure;
+	}
+
+	/**
+	 * Count the objects of the types to purge, without deleting anything, and
+	 * estimate the duration of the purge: the query time measured plus the
+	 * delete calls (of MAX_OBJECTS IDs, concurrency in flight) at the
+	 * configured latency, or else the mean latency of the delete calls
+	 * measured by the metrics registry, or else the mean round trip of the
+	 * query pages just sent (DEFAULT_DELETE_LATENCY if none was).
+	 * Client-side throttling is not taken into account.
+	 * 
+	 * @return The report
+	 */
+	public ZNukeReport dryRun() {
+		logger.debug("* * * NUKE DRY RUN * * *");
+		double latency = DEFAULT_DELETE_LATENCY;
+		ZNukeReport.LatencySource source = ZNukeReport.LatencySource.DEFAULT;
+		ZMetricsRegistry metrics = zapi.getMetricsRegistry();
+		if (deleteLatency > 0) {
+			latency = deleteLatency;
+			source = ZNukeReport.LatencySource.CONFIGURED;
+		} else if (metrics instanceof ZInMemoryMetricsRegistry) {
+			ZInMemoryMetricsRegistry.Stats stats = ((ZInMemoryMetricsRegistry) metrics).getStats(ZOperation.DELETE);
+			if (stats.getCalls() > 0) {
+				latency = stats.getMeanMillis();
+				source = ZNukeReport.LatencySource.METRICS;
+			}
+		}
+
+		int size = types.size();
+		long[] counts = new long[size];
+		long[] queryMillis = new long[size];
+		boolean[] complete = new boolean[size];
+		long pages = 0;
+		long pagesNanos = 0;
+		for (int i = 0; i < size; i++) {
+			long start = System.nanoTime();
+			ZQueryIterator records = zapi.zQueryIterator("SELECT Id FROM " + types.get(i));
+			try {
+				while (records.hasNext()) {
+					records.next();
+					counts[i]++;
+				}
+			} finally {
+				records.close();
+			}
+			long nanos = System.nanoTime() - start;
+			queryMillis[i] = nanos / 1000000;
+			complete[i] = !records.isFailed();
+			if (complete[i]) {
+				pages += Math.max(1, (counts[i] + BATCH_SIZE - 1) / BATCH_SIZE);
+				pagesNanos += nanos;
+			}
+		}
+		if (source == ZNukeReport.LatencySource.DEFAULT && pages > 0) {
+			// A real round trip to the tenant, in place of a delete call
+			latency = pagesNanos / 1000000.0 / pages;
+			source = ZNukeReport.LatencySource.SAMPLED;
+		}
+
+		List<ZNukeReport.TypeReport> reports = new ArrayList<ZNukeReport.TypeReport>();
+		for (int i = 0; i < size; i++) {
+			String type = types.get(i);
+			long count = counts[i];
+			long calls = (count + ZApi.MAX_OBJECTS - 1) / ZApi.MAX_OBJECTS;
+			// The calls of a page are sent in waves of `concurrency` calls
+			long waves = 0;
+			for (long page = 0; page < count; page += BATCH_SIZE) {
+				long pageCalls = (Math.min(BATCH_SIZE, count - page) + ZApi.MAX_OBJECTS - 1) / ZApi.MAX_OBJECTS;
+				waves += (pageCalls + concurrency - 1) / concurrency;
+			}
+			ZNukeReport.TypeReport report = new ZNukeReport.TypeReport(type, count, queryMillis[i], complete[i],
+					calls, Math.round(waves * latency));
+			logger.debug("* * * " + type + " | targets: " + count + " | estimated: "
+					+ report.getEstimatedMillis() + " ms * * *");
+			reports.add(report);
+		}
+		return new ZNukeReport(reports, concurrency, latency, source);
+	}
+
+	/**
+	 * Delete all the objects of a type, page by page
+	 * 
+	 * @return True if every object has been deleted
+	 */
+	private boolean purge(String type, Properties checkpoint, ZChunkDispatcher dispatcher) {
+		ZQueryIterator records = zapi.zQueryIterator("SELECT Id FROM " + type);
+		long deleted = Long.parseLong(checkpoint.getProperty(type + ".deleted", "0"));
+		long failed = 0;
+		try {
+			List<String> ids = new ArrayList<String>(BATCH_SIZE);
+			while (records.hasNext()) {
+				ZObject zobj = records.next();
+				ids.add(zobj.getId().getID());
+				if (ids.size() == BATCH_SIZE || !records.hasNext()) {
+					logger.debug("* * * Estimated casualties: " + ids.size() + " " + type + " * * *");
+
+					// Nuke'em
+					int succeeded = delete(type, ids, dispatcher);
+					deleted += succeeded;
+					failed += ids.size() - succeeded;
+					ids.clear();
+
+					checkpoint.setProperty(type + ".deleted", String.valueOf(deleted));
+					saveCheckpoint(checkpoint);
+					if (Thread.currentThread().isInterrupted()) {
+						return false;
+					}
+				}
+			}
+		} finally {
+			records.close();
+		}
+
+		if (records.isFailed()) {
+			logger.error("* * * Could not list all the " + type + " targets * * *");
+			return false;
+		}
+		logger.debug("* * * " + type + " | nuked: " + deleted + " | survivors: " + failed + " * * *");
+		if (failed > 0) {
+			return false;
+		}
+		checkpoint.setProperty(type + ".done", "true");
+		saveCheckpoint(checkpoint);
+		return true;
+	}
+
+	/**
+	 * Delete a batch of IDs, in chunks of MAX_OBJECTS sent by the dispatcher
+	 * 
+	 * @return The number of objects deleted
+	 */
+	private int delete(final String type, List<String> ids, ZChunkDispatcher dispatcher) {
+		List<Callable<DeleteResult[]>> calls = new ArrayList<Callable<DeleteResult[]>>();
+		for (final String[] chunk : ZuoraUtility.splitIds(ids.toArray(new String[ids.size()]))) {
+			calls.add(new Callable<DeleteResult[]>() {
+				@Override
+				public DeleteResult[] call() {
+					return zapi.zDelete(chunk, type);
+				}
+			});
+		}
+
+		int succeeded = 0;
+		for (Future<DeleteResult[]> future : dispatcher.run(calls)) {
+			DeleteResult[] deleted = null;
+			try {
+				deleted = future.get();
+			} catch (ExecutionException e) {
+				logger.error("* * * Could not nuke the targets | " + e.getCause() + " * * *");
+				continue;
+			} catch (CancellationException e) {
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				continue;
+			}
+			if (deleted == null) {
+				logger.error("* * * Could not nuke the targets * * *");
+				continue;
+			}
+			// Check the result
+			for (DeleteResult d : deleted) {
+				if (d != null && d.getSuccess()) {
+					succeeded++;
+				} else if (d != null) {
+					logger.error("* * * Could not nuke the target * * *");
+					for (com.zuora.api.axis2.ZuoraServiceStub.Error e : d.getErrors()) {
+						logger.error("Field: " + e.getField() + " | Message: " + e.getMessage() + " | Code: " + e.getCode());
+					}
+				}
+			}
+		}
+		return succeeded;
+	}
+
+	private Properties loadCheckpoint() {
+		try {
+			Properties checkpoint = ZuoraUtility.readProperties(checkpointFile);
+			if (!checkpoint.isEmpty()) {
+				logger.info("Resuming from checkpoint `" + checkpointFile + "`");
+			}
+			return checkpoint;
+		} catch (IOException e) {
+			logger.error("Could not read the checkpoint file | " + e.getMessage());
+			return new Properties();
+		}
+	}
+
+	private void saveCheckpoint(Properties checkpoint) {
+		try {
+			ZuoraUtility.writeProperties(checkpoint, checkpointFile, "ZNuke progress");
+		} catch (IOException e) {
+			logger.error("Could not write the checkpoint file | " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return The types to purge, in dependency order
+	 */
+	public List<String> getTypes() {
+		return types;
+	}
+
+	/**
+	 * Set the types to purge (Account by default). They are purged in the
+	 * order of {@link #DEPENDENCY_ORDER}, the other types last in the given
+	 * order.
+	 * 
+	 * @param types
+	 *            The types to purge
+	 */
+	public void setTypes(String... types) {
+		List<String> ordered = new ArrayList<String>();
+		for (String type : DEPENDENCY_ORDER) {
+			if (Arrays.asList(types).contains(type)) {
+				ordered.add(type);
+			}
+		}
+		for (String type : types) {
+			if (!ordered.contains(type)) {
+				ordered.add(type);
+			}
+		}
+		this.types = Collections.unmodifiableList(ordered);
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @param concurrency
+	 *            Max number of delete calls (of MAX_OBJECTS IDs) in flight
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.concurrency = concurrency;
+	}
+
+	public long getDeleteLatency() {
+		return deleteLatency;
+	}
+
+	/**
+	 * @param deleteLatency
+	 *            Latency of a delete call for the dry run estimates (ms), 0 to
+	 *            use the measured one
+	 */
+	public void setDeleteLatency(long deleteLatency) {
+		this.deleteLatency = deleteLatency;
+	}
+
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * @param checkpointFile
+	 *            The file the progress is saved to
+	 */
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
 	}
 	
+	/**
+	 * Usage: ZNuke [--dry-run [--latency=&lt;ms&gt;]] [type...]
+	 * 
+	 * The dry run prints its JSON report on the standard output. Its delete
+	 * latency is the one given, or else sampled from the query pages.
+	 */
 	public static void main(String[] args) {
 		// Change this to "True" to proceed WITH CAUTION!!!
 		boolean proceed = false;
+
+		boolean dryRun = false;
+		long latency = 0;
+		List<String> types = new ArrayList<String>();
+		for (String arg : args) {
+			if ("--dry-run".equals(arg)) {
+				dryRun = true;
+			} else if (arg.startsWith("--latency=")) {
+				latency = Long.parseLong(arg.substring("--latency=".length()));
+			} else {
+				types.add(arg);
+			}
+		}
 		
-		// ALL account(s) will be erased from the associated tenant!
-		if (proceed) {
-			new ZNuke().launch();
+		// ALL the objects of the given types (Account by default) will be
+		// erased from the associated tenant!
+		if (proceed || dryRun) {
+			ZNuke nuke = new ZNuke();
+			if (!types.isEmpty()) {
+				nuke.setTypes(types.toArray(new String[types.size()]));
+			}
+			nuke.setDeleteLatency(latency);
+			if (dryRun) {
+				System.out.println(nuke.dryRun().toJson());
+			} else {
+				nuke.launch();
+			}
 		}
 	}
 
@@ -0,0 +1,207 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Report of a {@link ZNuke#dryRun() dry run}: the objects counted per type,
+ * the query throughput measured and the estimated duration of the deletes.
+ */
+public class ZNukeReport {
+
+	/** Where the latency of a delete call comes from */
+	public enum LatencySource {
+		/** Set on the nuke */
+		CONFIGURED,
+		/** Mean of the delete calls measured by the metrics registry */
+		METRICS,
+		/** Mean round trip of the query pages sent by the dry run */
+		SAMPLED,
+		/** No measure available, default value */
+		DEFAULT
+	}
+
+	/**
+	 * Report of a type
+	 */
+	public static class TypeReport {
+
+		private final String type;
+
+		private final long count;
+
+		private final long queryMillis;
+
+		private final boolean complete;
+
+		private final long deleteCalls;
+
+		private final long estimatedDeleteMillis;
+
+		TypeReport(String type, long count, long queryMillis, boolean complete, long deleteCalls,
+				long estimatedDeleteMillis) {
+			this.type = type;
+			this.count = count;
+			this.queryMillis = queryMillis;
+			this.complete = complete;
+			this.deleteCalls = deleteCalls;
+			this.estimatedDeleteMillis = estimatedDeleteMillis;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return The number of objects of the type
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The time spent paging through the objects (ms)
+		 */
+		public long getQueryMillis() {
+			return queryMillis;
+		}
+
+		/**
+		 * @return The number of records received per second
+		 */
+		public double getRecordsPerSecond() {
+			return queryMillis == 0 ? 0 : count * 1000.0 / queryMillis;
+		}
+
+		/**
+		 * @return False if a page could not be retrieved (the count is a
+		 *         lower bound)
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * @return The number of delete calls (of MAX_OBJECTS IDs) needed
+		 */
+		public long getDeleteCalls() {
+			return deleteCalls;
+		}
+
+		/**
+		 * @return The estimated duration of the deletes (ms)
+		 */
+		public long getEstimatedDeleteMillis() {
+			return estimatedDeleteMillis;
+		}
+
+		/**
+		 * @return The estimated duration of the purge of the type, queries
+		 *         included (ms)
+		 */
+		public long getEstimatedMillis() {
+			return queryMillis + estimatedDeleteMillis;
+		}
+	}
+
+	private final List<TypeReport> types;
+
+	private final int concurrency;
+
+	private final double deleteLatencyMillis;
+
+	private final LatencySource latencySource;
+
+	ZNukeReport(List<TypeReport> types, int concurrency, double deleteLatencyMillis, LatencySource latencySource) {
+		this.types = Collections.unmodifiableList(new ArrayList<TypeReport>(types));
+		this.concurrency = concurrency;
+		this.deleteLatencyMillis = deleteLatencyMillis;
+		this.latencySource = latencySource;
+	}
+
+	/**
+	 * @return The reports of the types, in the order they would be purged
+	 */
+	public List<TypeReport> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return The number of delete calls in flight of the estimate
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @return The latency of a delete call of the estimate (ms)
+	 */
+	public double getDeleteLatencyMillis() {
+		return deleteLatencyMillis;
+	}
+
+	public LatencySource getLatencySource() {
+		return latencySource;
+	}
+
+	/**
+	 * @return The number of objects of all the types
+	 */
+	public long getTotalCount() {
+		long count = 0;
+		for (TypeReport type : types) {
+			count += type.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The estimated duration of the purge (ms)
+	 */
+	public long getEstimatedMillis() {
+		long millis = 0;
+		for (TypeReport type : types) {
+			millis += type.getEstimatedMillis();
+		}
+		return millis;
+	}
+
+	/**
+	 * @return The report in JSON
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"concurrency\": ").append(concurrency).append(",\n");
+		json.append("  \"deleteLatencyMillis\": ").append(String.format(Locale.ROOT, "%.1f", deleteLatencyMillis)).append(",\n");
+		json.append("  \"deleteLatencySource\": \"").append(latencySource).append("\",\n");
+		json.append("  \"totalCount\": ").append(getTotalCount()).append(",\n");
+		json.append("  \"estimatedMillis\": ").append(getEstimatedMillis()).append(",\n");
+		json.append("  \"types\": [");
+		for (int i = 0; i < types.size(); i++) {
+			TypeReport type = types.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"type\": \"").append(escape(type.getType())).append("\"");
+			json.append(", \"count\": ").append(type.getCount());
+			json.append(", \"complete\": ").append(type.isComplete());
+			json.append(", \"queryMillis\": ").append(type.getQueryMillis());
+			json.append(", \"recordsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", type.getRecordsPerSecond()));
+			json.append(", \"deleteCalls\": ").append(type.getDeleteCalls());
+			json.append(", \"estimatedDeleteMillis\": ").append(type.getEstimatedDeleteMillis());
+			json.append(", \"estimatedMillis\": ").append(type.getEstimatedMillis()).append("}");
+		}
+		json.append(types.isEmpty() ? "]\n" : "\n  ]\n");
+		return json.append("}").toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.zuora.api.util;
+
+/**
+ * The Zuora API operations made by ZApi, grouped by type of budget (logins,
+ * queries, writes and subscribe/amend calls are limited separately).
+ */
+public enum ZOperation {
+
+	LOGIN(Type.LOGIN),
+
+	QUERY(Type.QUERY),
+
+	QUERY_MORE(Type.QUERY),
+
+	CREATE(Type.WRITE),
+
+	UPDATE(Type.WRITE),
+
+	DELETE(Type.WRITE),
+
+	SUBSCRIBE(Type.SUBSCRIBE_AMEND),
+
+	AMEND(Type.SUBSCRIBE_AMEND);
+
+	/** The types of operation */
+	public enum Type {
+		LOGIN, QUERY, WRITE, SUBSCRIBE_AMEND
+	}
+
+	private final Type type;
+
+	private ZOperation(Type type) {
+		this.type = type;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.zuora.api.util;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+
+/**
+ * Query iterator fetching the next pages in a background thread while the
+ * caller consumes the current one. At most `readAhead` pages are waiting to be
+ * consumed, the fetcher blocks when this limit is reached.
+ *
+ * The fetcher stops after the last page, when the iterator is closed, or once
+ * the iterator is no longer referenced (checked every CONSUMER_CHECK_MILLIS
+ * while the queue is full): an iteration abandoned without close() does not
+ * keep the thread and its pages forever, but close() releases them at once.
+ */
+public class ZPrefetchQueryIterator extends ZQueryIterator {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZPrefetchQueryIterator.class);
+
+	/** Marker put in the queue when a page could not be retrieved */
+	private static final QueryResult FAILED = new QueryResult();
+
+	/** How often a fetcher waiting for room checks its iterator is still used */
+	static final long CONSUMER_CHECK_MILLIS = 1000L;
+
+	/** The pages fetched and not consumed yet */
+	private final BlockingQueue<QueryResult> pages;
+
+	/** The background fetcher */
+	private Fetcher fetcher;
+
+	/** The thread of the fetcher */
+	private Thread fetcherThread;
+
+	/**
+	 * Instantiates a new prefetching iterator (the query is not sent until
+	 * the first call to hasNext() or next())
+	 *
+	 * @param zapi
+	 *            Logged in Zuora API helper
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param readAhead
+	 *            Max number of pages fetched in advance
+	 */
+	public ZPrefetchQueryIterator(ZApi zapi, String queryString, int readAhead) {
+		super(zapi, queryString);
+		if (readAhead < 1) {
+			throw new IllegalArgumentException("Read ahead must be at least 1 page");
+		}
+		this.pages = new ArrayBlockingQueue<QueryResult>(readAhead);
+	}
+
+	@Override
+	protected QueryResult fetchFirstPage() {
+		// The fetcher must not reference the iterator, to notice it is gone
+		fetcher = new Fetcher(zapi, queryString, pages, new WeakReference<ZPrefetchQueryIterator>(this));
+		fetcherThread = new Thread(fetcher, "zquery-prefetch");
+		fetcherThread.setDaemon(true);
+		fetcherThread.start();
+
+		return takePage();
+	}
+
+	@Override
+	protected QueryResult fetchNextPage(QueryResult previous) {
+		return takePage();
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		if (fetcher != null) {
+			fetcher.closed = true;
+			fetcherThread.interrupt();
+		}
+		pages.clear();
+	}
+
+	/**
+	 * Wait for the next page fetched by the background thread
+	 *
+	 * @return The next page or null if it could not be retrieved
+	 */
+	private QueryResult takePage() {
+		try {
+			QueryResult page = pages.take();
+			return page == FAILED ? null : page;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Fetch all the pages until the last one, the iterator is closed or gone,
+	 * or an error occurs
+	 */
+	private static class Fetcher implements Runnable {
+
+		private final ZApi zapi;
+
+		private final String queryString;
+
+		private final BlockingQueue<QueryResult> pages;
+
+		/** The iterator consuming the pages */
+		private final WeakReference<ZPrefetchQueryIterator> consumer;
+
+		/** True once the iterator has been closed */
+		private volatile boolean closed;
+
+		Fetcher(ZApi zapi, String queryString, BlockingQueue<QueryResult> pages,
+				WeakReference<ZPrefetchQueryIterator> consumer) {
+			this.zapi = zapi;
+			this.queryString = queryString;
+			this.pages = pages;
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void run() {
+			try {
+				QueryResult page = zapi.zQuery(queryString);
+				boolean queued = put(page);
+
+				while (queued && page != null && !page.getDone() && !closed) {
+					page = zapi.zQueryMore(page.getQueryLocator());
+					queued = put(page);
+				}
+
+			} catch (InterruptedException e) {
+				logger.debug("Prefetch interrupted for query `" + queryString + "`");
+
+			} catch (RuntimeException e) {
+				logger.error("Error while prefetching query `" + queryString + "` | " + e.getMessage());
+				try {
+					put(null);
+				} catch (InterruptedException ie) {
+					logger.debug("Prefetch interrupted for query `" + queryString + "`");
+				}
+			}
+		}
+
+		/**
+		 * Queue a page, waiting for room as long as the iterator is used
+		 *
+		 * @param page
+		 *            The page, null if it could not be retrieved
+		 * @return False if the iterator has been closed or is gone
+		 */
+		private boolean put(QueryResult page) throws InterruptedException {
+			QueryResult element = page == null ? FAILED : page;
+			while (!pages.offer(element, CONSUMER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (closed || consumer.get() == null) {
+					logger.debug("Prefetch stopped for query `" + queryString + "`, iterator "
+							+ (closed ? "closed" : "no longer referenced"));
+					pages.clear();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,472 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+
+/**
+ * Cache of query results for read-mostly objects (Product, ProductRatePlan,
+ * ProductRatePlanCharge...), used by {@link ZApi#zQuery(String)} and
+ * {@link ZApi#zAdvancedQuery(String)} once set with
+ * {@link ZApi#setQueryCache(ZQueryCache)}.
+ *
+ * The results are keyed on the normalized ZOQL string (case and spacing
+ * outside the quoted values ignored) and kept for the TTL of the queried
+ * object type; the types without TTL are not cached. The least recently used
+ * results are evicted beyond maxEntries. The creates, updates and deletes
+ * made through ZApi and ZApiAsync invalidate the results of their type, the
+ * subscribes and amends the results of the types they write.
+ *
+ * Each invalidation of a type changes its generation: a result queried while
+ * its type was invalidated may be stale, so it is only stored if the
+ * generation read before the query is unchanged (see
+ * {@link #getGeneration(String)}).
+ *
+ * Each caller gets its own QueryResult and records array (a
+ * {@link ZQueryIterator} clears the array it reads), but the cached records
+ * are shared by the callers, they must not be modified.
+ *
+ * <pre>
+ * ZQueryCache cache = new ZQueryCache(1000, 0);
+ * cache.setTtl("Product", TimeUnit.HOURS.toMillis(1));
+ * zapi.setQueryCache(cache);
+ * </pre>
+ */
+public class ZQueryCache {
+
+	/** The cached results, least recently used first */
+	private final LinkedHashMap<String, CachedResult> entries;
+
+	/** TTL per object type (lower case), in ms */
+	private final Map<String, Long> ttls = new ConcurrentHashMap<String, Long>();
+
+	/** TTL of the types without their own TTL (ms), 0 to not cache them */
+	private final long defaultTtl;
+
+	/** Number of invalidations per object type (lower case) */
+	private final Map<String, Long> generations = new HashMap<String, Long>();
+
+	/** Number of invalidations of all the results */
+	private long clears;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	private long expirations;
+
+	/**
+	 * Instantiates a cache
+	 *
+	 * @param maxEntries
+	 *            Max number of results kept
+	 * @param defaultTtl
+	 *            TTL of the types without their own TTL (ms), 0 to cache only
+	 *            the types given to {@link #setTtl(String, long)}
+	 */
+	public ZQueryCache(final int maxEntries, long defaultTtl) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be at least 1");
+		}
+		this.defaultTtl = defaultTtl;
+		this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Set the TTL of an object type
+	 *
+	 * @param type
+	 *            The object type (Product, ProductRatePlan...)
+	 * @param ttl
+	 *            How long its results are kept (ms), 0 to not cache them
+	 */
+	public void setTtl(String type, long ttl) {
+		ttls.put(type.toLowerCase(Locale.ROOT), ttl);
+	}
+
+	/**
+	 * Get the TTL of an object type
+	 *
+	 * @param type
+	 *            The object type
+	 * @return The TTL (ms)
+	 */
+	public long getTtl(String type) {
+		Long ttl = type == null ? null : ttls.get(type.toLowerCase(Locale.ROOT));
+		return ttl != null ? ttl : defaultTtl;
+	}
+
+	/**
+	 * Get the cached result of a query
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return A copy of the result, null if not cached or expired
+	 */
+	public QueryResult getResult(String queryString) {
+		QueryResult result = (QueryResult) get("query:" + normalize(queryString));
+		return result != null ? copy(result) : null;
+	}
+
+	/**
+	 * Get the generation of the results of a query, changed by each
+	 * invalidation of its type
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return The generation, to read before sending the query
+	 */
+	public synchronized long getGeneration(String queryString) {
+		Long generation = generations.get(type(normalize(queryString)));
+		return clears + (generation != null ? generation : 0);
+	}
+
+	/**
+	 * Cache the result of a query (only a complete result, without query
+	 * locator)
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param result
+	 *            The result
+	 */
+	public void putResult(String queryString, QueryResult result) {
+		putResult(queryString, result, getGeneration(queryString));
+	}
+
+	/**
+	 * Cache the result of a query (only a complete result, without query
+	 * locator), unless its type has been invalidated since the query was sent
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param result
+	 *            The result
+	 * @param generation
+	 *            The generation of the query read before sending it
+	 */
+	public void putResult(String queryString, QueryResult result, long generation) {
+		if (result != null && result.getDone()) {
+			put("query:", queryString, copy(result), generation);
+		}
+	}
+
+	/**
+	 * Copy a result and its records array (not the records)
+	 */
+	private static QueryResult copy(QueryResult result) {
+		QueryResult copy = new QueryResult();
+		copy.setDone(result.getDone());
+		copy.setSize(result.getSize());
+		copy.setQueryLocator(result.getQueryLocator());
+		if (result.getRecords() != null) {
+			copy.setRecords(result.getRecords().clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Get the cached records of a query returning all the records
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return The records, null if not cached or expired
+	 */
+	@SuppressWarnings("rawtypes")
+	public List getRecords(String queryString) {
+		return (List) get("records:" + normalize(queryString));
+	}
+
+	/**
+	 * Cache the records of a query returning all the records
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param records
+	 *            All the records
+	 */
+	@SuppressWarnings("rawtypes")
+	public void putRecords(String queryString, List records) {
+		putRecords(queryString, records, getGeneration(queryString));
+	}
+
+	/**
+	 * Cache the records of a query returning all the records, unless their
+	 * type has been invalidated since the query was sent
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @param records
+	 *            All the records
+	 * @param generation
+	 *            The generation of the query read before sending it
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void putRecords(String queryString, List records, long generation) {
+		if (records != null) {
+			put("records:", queryString, Collections.unmodifiableList(new ArrayList(records)), generation);
+		}
+	}
+
+	/**
+	 * Forget the results of a query (the results of the other queries of its
+	 * type being queried are not stored either)
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 */
+	public synchronized void invalidateQuery(String queryString) {
+		String key = normalize(queryString);
+		entries.remove("query:" + key);
+		entries.remove("records:" + key);
+		nextGeneration(type(key));
+	}
+
+	/**
+	 * Forget the results of the queries of an object type
+	 *
+	 * @param type
+	 *            The object type
+	 */
+	public synchronized void invalidate(String type) {
+		String lowerType = type.toLowerCase(Locale.ROOT);
+		for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext();) {
+			if (lowerType.equals(it.next().type)) {
+				it.remove();
+			}
+		}
+		nextGeneration(lowerType);
+	}
+
+	/**
+	 * Forget all the results
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+		clears++;
+	}
+
+	/**
+	 * @return A snapshot of the statistics
+	 */
+	public synchronized Stats getStats() {
+		return new Stats(hits, misses, evictions, expirations, entries.size());
+	}
+
+	/**
+	 * Reset the statistics
+	 */
+	public synchronized void resetStats() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		expirations = 0;
+	}
+
+	private synchronized Object get(String key) {
+		CachedResult entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (System.nanoTime() - entry.expiresAt >= 0) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	private void put(String kind, String queryString, Object value, long generation) {
+		String key = normalize(queryString);
+		String type = type(key);
+		long ttl = getTtl(type);
+		if (ttl <= 0) {
+			return;
+		}
+		CachedResult entry = new CachedResult(type, value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+		synchronized (this) {
+			if (generation == getGeneration(queryString)) {
+				entries.put(kind + key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Change the generation of a type (lower case), the caller holds the lock
+	 */
+	private void nextGeneration(String type) {
+		Long generation = generations.get(type);
+		generations.put(type, generation != null ? generation + 1 : 1);
+	}
+
+	/**
+	 * Normalize a ZOQL query: outside the quoted values, lower case, single
+	 * spaces, and no space around , = &lt; &gt; ! ( )
+	 *
+	 * @param queryString
+	 *            The ZOQL query string
+	 * @return The normalized query
+	 */
+	static String normalize(String queryString) {
+		StringBuilder key = new StringBuilder(queryString.length());
+		boolean quoted = false;
+		boolean space = false;
+		for (int i = 0; i < queryString.length(); i++) {
+			char c = queryString.charAt(i);
+			if (quoted) {
+				key.append(c);
+				if (c == '\\' && i + 1 < queryString.length()) {
+					key.append(queryString.charAt(++i));
+				} else if (c == '\'') {
+					quoted = false;
+				}
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+			} else {
+				boolean operator = ",=<>!()".indexOf(c) >= 0;
+				if (space && !operator && key.length() > 0 && ",=<>!(".indexOf(key.charAt(key.length() - 1)) < 0) {
+					key.append(' ');
+				}
+				space = false;
+				key.append(Character.toLowerCase(c));
+				quoted = c == '\'';
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * The object type of a normalized query (the word after `from`)
+	 */
+	static String type(String normalizedQuery) {
+		int from = normalizedQuery.indexOf(" from ");
+		if (from < 0) {
+			return null;
+		}
+		int start = from + " from ".length();
+		int end = start;
+		while (end < normalizedQuery.length() && Character.isJavaIdentifierPart(normalizedQuery.charAt(end))) {
+			end++;
+		}
+		return normalizedQuery.substring(start, end);
+	}
+
+	/**
+	 * A cached result
+	 */
+	private static class CachedResult {
+
+		/** The object type (lower case) */
+		private final String type;
+
+		private final Object value;
+
+		/** Expiration time (System.nanoTime()) */
+		private final long expiresAt;
+
+		private CachedResult(String type, Object value, long expiresAt) {
+			this.type = type;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Statistics of the cache at a given time
+	 */
+	public static class Stats {
+
+		private final long hits;
+
+		private final long misses;
+
+		private final long evictions;
+
+		private final long expirations;
+
+		private final int size;
+
+		private Stats(long hits, long misses, long evictions, long expirations, int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.expirations = expirations;
+			this.size = size;
+		}
+
+		/**
+		 * @return The number of queries answered from the cache
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return The number of queries not cached or expired
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return The share of the queries answered from the cache
+		 */
+		public double getHitRatio() {
+			return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+		}
+
+		/**
+		 * @return The number of results evicted to stay within maxEntries
+		 */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		/**
+		 * @return The number of results dropped at their expiration
+		 */
+		public long getExpirations() {
+			return expirations;
+		}
+
+		/**
+		 * @return The number of results cached
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return "hits = " + hits + " | misses = " + misses + " | hit ratio = "
+					+ String.format("%.2f", getHitRatio()) + " | evictions = " + evictions + " | expirations = "
+					+ expirations + " | size = " + size;
+		}
+	}
+
+}
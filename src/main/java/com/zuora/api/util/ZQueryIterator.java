@@ -0,0 +1,170 @@
+package com.zuora.api.util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Lazy iterator over the records of a ZOQL query. Pages are requested from
+ * Zuora (query() then queryMore()) only when the current one has been
+ * consumed, so only one page of records is kept in memory at a time.
+ *
+ * An iteration stopped before the last record should be closed, to release
+ * the pages (and the fetcher thread of a {@link ZPrefetchQueryIterator}).
+ */
+public class ZQueryIterator implements Iterator<ZObject>, Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZQueryIterator.class);
+
+	/** The Zuora API helper used to fetch the pages */
+	protected final ZApi zapi;
+
+	/** The ZOQL query string */
+	protected final String queryString;
+
+	/** The last page received from Zuora */
+	private QueryResult page;
+
+	/** The records of the current page */
+	private ZObject[] records;
+
+	/** Position of the next record to return in the current page */
+	private int position;
+
+	/** Total number of records returned so far */
+	private long count;
+
+	/** True once the query has been sent */
+	private boolean started;
+
+	/** True once no more record will be returned */
+	private boolean finished;
+
+	/** True if a page could not be retrieved (the iteration ended early) */
+	private boolean failed;
+
+	/**
+	 * Instantiates a new iterator (the query is not sent until the first
+	 * call to hasNext() or next())
+	 *
+	 * @param zapi
+	 *            Logged in Zuora API helper
+	 * @param queryString
+	 *            The ZOQL query string
+	 */
+	public ZQueryIterator(ZApi zapi, String queryString) {
+		this.zapi = zapi;
+		this.queryString = queryString;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		while (!finished && (records == null || position >= records.length)) {
+
+			// Release the consumed page before asking for the next one
+			records = null;
+			position = 0;
+
+			QueryResult result = started ? fetchNextPage(page) : fetchFirstPage();
+			started = true;
+
+			if (result == null) {
+				logger.error("Query stopped after " + count + " record(s), could not retrieve the next page");
+				failed = true;
+				close();
+				return false;
+			}
+
+			page = result;
+			records = result.getRecords();
+
+			if (result.getDone() && (records == null || records.length == 0)) {
+				close();
+			}
+		}
+
+		return !finished;
+	}
+
+	@Override
+	public ZObject next() {
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		ZObject record = records[position];
+		records[position++] = null;
+		count++;
+
+		// Nothing more to fetch once the last page has been consumed
+		if (position >= records.length && page.getDone()) {
+			close();
+		}
+
+		return record;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Zuora query results are read only");
+	}
+
+	/**
+	 * Stop the iteration, no more page will be requested to Zuora
+	 */
+	@Override
+	public void close() {
+		finished = true;
+		records = null;
+		page = null;
+	}
+
+	/**
+	 * Send the initial query() call
+	 *
+	 * @return The first page or null if an error occurred
+	 */
+	protected QueryResult fetchFirstPage() {
+		return zapi.zQuery(queryString);
+	}
+
+	/**
+	 * Request the page following the given one
+	 *
+	 * @param previous
+	 *            The last page received
+	 * @return The next page or null if an error occurred
+	 */
+	protected QueryResult fetchNextPage(QueryResult previous) {
+		return zapi.zQueryMore(previous.getQueryLocator());
+	}
+
+	/**
+	 * @return The number of records returned so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return True if the iteration ended because a page could not be
+	 *         retrieved
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public String getQueryString() {
+		return queryString;
+	}
+
+}
@@ -0,0 +1,307 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retry policy of the Zuora API calls failing with a transient error: a fault
+ * with one of the retryable codes, or a network error. Each failed attempt
+ * waits before the next one, the delay doubling from one attempt to the next
+ * (up to a max), minus a random part (jitter) so that parallel clients do not
+ * retry all at the same time.
+ *
+ * A call that failed with a network error may have been processed by Zuora,
+ * so only the idempotent operations (login, query, queryMore, update and
+ * delete) retry the network errors by default: retrying a create, subscribe or
+ * amend call could create the objects twice.
+ *
+ * The default policy is configured with the retry.* properties of the
+ * config.properties file: retry.maxAttempts, retry.initialDelay and
+ * retry.maxDelay (in milliseconds).
+ */
+public class ZRetryPolicy {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZRetryPolicy.class);
+
+	/** Property for the max number of attempts */
+	private static final String PROPERTY_MAX_ATTEMPTS = "retry.maxAttempts";
+
+	/** Property for the delay before the first retry (ms) */
+	private static final String PROPERTY_INITIAL_DELAY = "retry.initialDelay";
+
+	/** Property for the max delay between two attempts (ms) */
+	private static final String PROPERTY_MAX_DELAY = "retry.maxDelay";
+
+	/** Default max number of attempts (first call included) */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/** Default delay before the first retry (500 ms) */
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500L;
+
+	/** Default max delay between two attempts (30 seconds) */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000L;
+
+	/** Fault codes retried by default */
+	public static final Set<String> DEFAULT_RETRYABLE_CODES = Collections.unmodifiableSet(new HashSet<String>(
+			Arrays.asList("TEMPORARY_ERROR", "SERVER_UNAVAILABLE", "LOCK_COMPETITION", "REQUEST_EXCEEDED_RATE",
+					"TRANSACTION_TIMEOUT")));
+
+	/** Operations retrying the network errors by default (the idempotent ones) */
+	public static final Set<ZOperation> DEFAULT_NETWORK_RETRY_OPERATIONS = Collections.unmodifiableSet(EnumSet.of(
+			ZOperation.LOGIN, ZOperation.QUERY, ZOperation.QUERY_MORE, ZOperation.UPDATE, ZOperation.DELETE));
+
+	/** Random source of the jitter */
+	private static final Random random = new Random();
+
+	/** Max number of attempts (first call included) */
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/** Delay before the first retry */
+	private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+
+	/** Max delay between two attempts */
+	private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+	/** Growth of the delay from one attempt to the next */
+	private double multiplier = 2.0;
+
+	/** Max part of the delay removed at random (0 to 1) */
+	private double jitter = 0.5;
+
+	/** The fault codes retried */
+	private Set<String> retryableCodes = new HashSet<String>(DEFAULT_RETRYABLE_CODES);
+
+	/** True to retry the network errors (no response received) */
+	private boolean retryNetworkErrors = true;
+
+	/** The operations retrying the network errors */
+	private Set<ZOperation> networkRetryOperations = EnumSet.copyOf(DEFAULT_NETWORK_RETRY_OPERATIONS);
+
+	/**
+	 * Instantiates the default policy: 3 attempts, the retry delay starting
+	 * at 500 ms
+	 */
+	public ZRetryPolicy() {
+	}
+
+	/**
+	 * Instantiates a policy
+	 *
+	 * @param maxAttempts
+	 *            Max number of attempts, first call included (1 for no retry)
+	 * @param initialDelayMillis
+	 *            Delay before the first retry (ms)
+	 * @param maxDelayMillis
+	 *            Max delay between two attempts (ms)
+	 */
+	public ZRetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+		setMaxAttempts(maxAttempts);
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return A policy without retry
+	 */
+	public static ZRetryPolicy none() {
+		return new ZRetryPolicy(1, 0, 0);
+	}
+
+	/**
+	 * Create a policy configured with the retry.* properties of the
+	 * config.properties file (the defaults for the properties not set)
+	 *
+	 * @return The policy
+	 */
+	public static ZRetryPolicy fromProperties() {
+		return new ZRetryPolicy((int) getLongProperty(PROPERTY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+				getLongProperty(PROPERTY_INITIAL_DELAY, DEFAULT_INITIAL_DELAY_MILLIS),
+				getLongProperty(PROPERTY_MAX_DELAY, DEFAULT_MAX_DELAY_MILLIS));
+	}
+
+	/**
+	 * Check if a failed call can be sent again
+	 *
+	 * @param operation
+	 *            The operation made by the call
+	 * @param e
+	 *            The error raised by the call
+	 * @return True if the error has a retryable code, or is a network error
+	 *         and these are retried for the operation
+	 */
+	public boolean isRetryable(ZOperation operation, Throwable e) {
+
+		String code = ZuoraUtility.getFaultCode(e);
+
+		if (code != null && retryableCodes.contains(code)) {
+			return true;
+		}
+
+		if (retryNetworkErrors && networkRetryOperations.contains(operation)) {
+			// Axis2 wraps the connection errors and timeouts in an AxisFault
+			// (itself a RemoteException, so an IOException)
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof IOException && !(cause instanceof RemoteException)) {
+					return true;
+				}
+				if (cause.getCause() == cause) {
+					break;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get the delay before the next attempt
+	 *
+	 * @param attempt
+	 *            The number of the attempt that failed (1 for the first call)
+	 * @return The delay (ms)
+	 */
+	public long getDelayMillis(int attempt) {
+
+		double delay = initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+		delay = Math.min(delay, maxDelayMillis);
+
+		double random;
+		synchronized (ZRetryPolicy.random) {
+			random = ZRetryPolicy.random.nextDouble();
+		}
+
+		return (long) (delay * (1 - jitter * random));
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            Max number of attempts, first call included (1 for no retry)
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Max attempts must be at least 1");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * @param multiplier
+	 *            Growth of the delay from one attempt to the next (2 by
+	 *            default)
+	 */
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @param jitter
+	 *            Max part of the delay removed at random, from 0 (no jitter)
+	 *            to 1 (0.5 by default)
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("Jitter must be between 0 and 1");
+		}
+		this.jitter = jitter;
+	}
+
+	public Set<String> getRetryableCodes() {
+		return retryableCodes;
+	}
+
+	/**
+	 * @param retryableCodes
+	 *            The fault codes retried (e.g. TEMPORARY_ERROR)
+	 */
+	public void setRetryableCodes(Set<String> retryableCodes) {
+		this.retryableCodes = new HashSet<String>(retryableCodes);
+	}
+
+	public boolean isRetryNetworkErrors() {
+		return retryNetworkErrors;
+	}
+
+	/**
+	 * @param retryNetworkErrors
+	 *            True (the default) to retry the network errors of the
+	 *            {@link #setNetworkRetryOperations(Set) network retry
+	 *            operations}, false to retry none
+	 */
+	public void setRetryNetworkErrors(boolean retryNetworkErrors) {
+		this.retryNetworkErrors = retryNetworkErrors;
+	}
+
+	public Set<ZOperation> getNetworkRetryOperations() {
+		return networkRetryOperations;
+	}
+
+	/**
+	 * @param networkRetryOperations
+	 *            The operations retrying the network errors (by default
+	 *            DEFAULT_NETWORK_RETRY_OPERATIONS). A create, subscribe or
+	 *            amend call that timed out may have been processed by Zuora,
+	 *            add them only if sending the objects twice is harmless.
+	 */
+	public void setNetworkRetryOperations(Set<ZOperation> networkRetryOperations) {
+		this.networkRetryOperations = networkRetryOperations.isEmpty() ? EnumSet.noneOf(ZOperation.class)
+				: EnumSet.copyOf(networkRetryOperations);
+	}
+
+	/**
+	 * Read a numeric property of the config.properties file
+	 */
+	private static long getLongProperty(String name, long defaultValue) {
+
+		String value = ZuoraUtility.getPropertyValue(name);
+
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value `" + value + "` for property `" + name + "`, using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import javax.activation.DataSource;
+
+/**
+ * Read-only DataSource streaming its content into the MTOM attachment,
+ * without loading it in memory (unlike ByteArrayDataSource).
+ *
+ * Backed by a file, it can be read any number of times (a retried call sends
+ * the file again). Backed by an InputStream, it can be read only once.
+ */
+public class ZStreamDataSource implements DataSource {
+
+	/** The file, null if backed by a stream */
+	private final File file;
+
+	/** The stream, null if backed by a file */
+	private InputStream stream;
+
+	/** The MIME content type (`text/plain;name=<FILE NAME>` for an import) */
+	private final String contentType;
+
+	/** The name of the content */
+	private final String name;
+
+	/**
+	 * Instantiates a data source reading a file
+	 *
+	 * @param file
+	 *            The file
+	 * @param contentType
+	 *            The MIME content type
+	 */
+	public ZStreamDataSource(File file, String contentType) {
+		this.file = file;
+		this.contentType = contentType;
+		this.name = file.getName();
+	}
+
+	/**
+	 * Instantiates a data source reading a stream once
+	 *
+	 * @param stream
+	 *            The stream, closed once read
+	 * @param contentType
+	 *            The MIME content type
+	 * @param name
+	 *            The name of the content
+	 */
+	public ZStreamDataSource(InputStream stream, String contentType, String name) {
+		this.file = null;
+		this.stream = stream;
+		this.contentType = contentType;
+		this.name = name;
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		if (file != null) {
+			return Channels.newInputStream(new FileInputStream(file).getChannel());
+		}
+		if (stream == null) {
+			throw new IOException("The stream of `" + name + "` has already been read");
+		}
+		InputStream in = stream;
+		stream = null;
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Read-only data source");
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return True if backed by a file, false if backed by a stream (read
+	 *         once, a failed call sending it cannot be retried)
+	 */
+	public boolean isRepeatable() {
+		return file != null;
+	}
+
+	/**
+	 * @return The size of the content, -1 if backed by a stream
+	 */
+	public long getSize() {
+		return file != null ? file.length() : -1;
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.zuora.api.util;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.axis2.util.threadpool.ThreadPool;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub;
+
+/**
+ * Creates the Zuora stubs on one shared Axis2 ConfigurationContext, whose HTTP
+ * client keeps a pool of keep-alive connections. Creating a stub is then cheap
+ * and the calls reuse the TCP/TLS connections opened by the previous ones.
+ *
+ * The pool is configured with the following (optional) properties of the
+ * config.properties file: http.maxConnectionsPerHost, http.maxTotalConnections,
+ * http.connectionTimeout and http.socketTimeout (in milliseconds). The
+ * async.maxThreads property sets the number of threads sending the requests
+ * of {@link ZApiAsync}, each call in flight holding one of them.
+ */
+public class ZStubFactory {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZStubFactory.class);
+
+	/** Property for the max number of connections per host */
+	private static final String PROPERTY_MAX_CONNECTIONS_PER_HOST = "http.maxConnectionsPerHost";
+
+	/** Property for the max number of connections */
+	private static final String PROPERTY_MAX_TOTAL_CONNECTIONS = "http.maxTotalConnections";
+
+	/** Property for the connection timeout (ms) */
+	private static final String PROPERTY_CONNECTION_TIMEOUT = "http.connectionTimeout";
+
+	/** Property for the socket read timeout (ms) */
+	private static final String PROPERTY_SOCKET_TIMEOUT = "http.socketTimeout";
+
+	/** Property for the max number of threads running the asynchronous calls */
+	private static final String PROPERTY_ASYNC_MAX_THREADS = "async.maxThreads";
+
+	/** Default max number of connections per host */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+	/** Default max number of connections */
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+	/** Default connection timeout (30 seconds) */
+	public static final int DEFAULT_CONNECTION_TIMEOUT = 30 * 1000;
+
+	/** Default socket read timeout (10 minutes, large queries can be slow) */
+	public static final int DEFAULT_SOCKET_TIMEOUT = 10 * 60 * 1000;
+
+	/** The shared configuration context */
+	private static ConfigurationContext configurationContext;
+
+	/** The pool of HTTP connections of the shared context */
+	private static MultiThreadedHttpConnectionManager connectionManager;
+
+	/** Socket read timeout applied to the stubs */
+	private static int socketTimeout;
+
+	/** Connection timeout applied to the stubs */
+	private static int connectionTimeout;
+
+	/**
+	 * Create a stub on the shared configuration context
+	 *
+	 * @param endpoint
+	 *            The Zuora endpoint (null or empty to keep the WSDL one)
+	 * @return The stub
+	 * @throws AxisFault
+	 *             If the configuration context could not be created
+	 */
+	public static ZuoraServiceStub createStub(String endpoint) throws AxisFault {
+
+		ZuoraServiceStub stub = new ZuoraServiceStub(getConfigurationContext());
+
+		Options options = stub._getServiceClient().getOptions();
+
+		if (endpoint != null && endpoint.trim().length() > 0) {
+			options.getTo().setAddress(endpoint);
+		}
+
+		// Axis2 applies these timeouts to the shared client on every call
+		options.setTimeOutInMilliSeconds(socketTimeout);
+		options.setProperty(HTTPConstants.SO_TIMEOUT, socketTimeout);
+		options.setProperty(HTTPConstants.CONNECTION_TIMEOUT, connectionTimeout);
+
+		return stub;
+	}
+
+	/**
+	 * Get the shared configuration context (created on first use)
+	 *
+	 * @return The configuration context
+	 * @throws AxisFault
+	 *             If the configuration context could not be created
+	 */
+	public static synchronized ConfigurationContext getConfigurationContext() throws AxisFault {
+
+		if (configurationContext == null) {
+
+			int maxPerHost = getIntProperty(PROPERTY_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+			int maxTotal = getIntProperty(PROPERTY_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_TOTAL_CONNECTIONS);
+			connectionTimeout = getIntProperty(PROPERTY_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT);
+			socketTimeout = getIntProperty(PROPERTY_SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+
+			MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+			HttpConnectionManagerParams params = manager.getParams();
+			params.setDefaultMaxConnectionsPerHost(maxPerHost);
+			params.setMaxTotalConnections(maxTotal);
+			params.setConnectionTimeout(connectionTimeout);
+			params.setSoTimeout(socketTimeout);
+			params.setStaleCheckingEnabled(true);
+
+			ConfigurationContext context = ConfigurationContextFactory.createConfigurationContextFromFileSystem(null, null);
+
+			// Every stub of this context uses the same HTTP client (and pool)
+			context.setProperty(HTTPConstants.MULTITHREAD_HTTP_CONNECTION_MANAGER, manager);
+			context.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, Boolean.TRUE);
+			context.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, new HttpClient(manager));
+
+			// Threads sending the asynchronous calls (Axis2 default otherwise).
+			// The queue of the pool is unbounded, so it never grows past its
+			// core size: all the threads are core threads.
+			int asyncThreads = getIntProperty(PROPERTY_ASYNC_MAX_THREADS, 0);
+			if (asyncThreads > 0) {
+				context.setThreadPool(new ThreadPool(asyncThreads, asyncThreads));
+			}
+
+			connectionManager = manager;
+			configurationContext = context;
+
+			logger.info("Shared Axis2 context created | max connections per host = " + maxPerHost
+					+ " | max connections = " + maxTotal);
+		}
+
+		return configurationContext;
+	}
+
+	/**
+	 * Close the pooled connections and release the shared context, the next
+	 * stub will create a new one
+	 */
+	public static synchronized void shutdown() {
+
+		if (connectionManager != null) {
+			connectionManager.shutdown();
+			connectionManager = null;
+		}
+
+		if (configurationContext != null) {
+			try {
+				configurationContext.terminate();
+			} catch (AxisFault e) {
+				logger.error("Could not terminate the Axis2 context | " + e.getMessage());
+			}
+			configurationContext = null;
+		}
+	}
+
+	/**
+	 * Read an integer property of the config.properties file
+	 */
+	private static int getIntProperty(String name, int defaultValue) {
+
+		String value = ZuoraUtility.getPropertyValue(name);
+
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value `" + value + "` for property `" + name + "`, using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+}
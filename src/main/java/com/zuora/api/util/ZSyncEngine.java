@@ -0,0 +1,260 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Incremental synchronization of Zuora objects to a {@link ZSyncSink}: each
+ * run only queries the records updated since the watermark of their type
+ * (paging with queryMore()), skips the ones already sent at the boundary and
+ * advances the watermark once the sink has flushed.
+ *
+ * The records updated less than `lag` ago are left to the next run, so that
+ * a record updated while a run pages through the results is not missed.
+ * Deleted records are not reported.
+ *
+ * <pre>
+ * ZSyncEngine engine = new ZSyncEngine(zapi, new ZFileWatermarkStore(file), sink);
+ * engine.syncAll();
+ * </pre>
+ */
+public class ZSyncEngine {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZSyncEngine.class);
+
+	/** Default lag behind the current time (ms) */
+	public static final long DEFAULT_LAG = 60000;
+
+	/** Number of records sent to the sink at once */
+	private static final int PAGE_SIZE = 2000;
+
+	/** The field holding the last update of the records */
+	private static final String UPDATED_DATE = "UpdatedDate";
+
+	private final ZApi zapi;
+
+	private final ZWatermarkStore store;
+
+	private final ZSyncSink sink;
+
+	/** The fields queried per type, in synchronization order */
+	private final Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+
+	/** The records updated less than `lag` ago are left to the next run (ms) */
+	private long lag = DEFAULT_LAG;
+
+	/**
+	 * Instantiates an engine synchronizing Account, Subscription, Invoice and
+	 * Payment (change the fields or types with {@link #setFields(String, String...)})
+	 *
+	 * @param zapi
+	 *            Logged in ZApi
+	 * @param store
+	 *            The store of the watermarks
+	 * @param sink
+	 *            The receiver of the changes
+	 */
+	public ZSyncEngine(ZApi zapi, ZWatermarkStore store, ZSyncSink sink) {
+		this.zapi = zapi;
+		this.store = store;
+		this.sink = sink;
+		setFields("Account", "AccountNumber", "Name", "Status", "Currency", "Balance", "BillToId", "SoldToId");
+		setFields("Subscription", "Name", "AccountId", "Status", "Version", "TermType", "SubscriptionStartDate",
+				"SubscriptionEndDate");
+		setFields("Invoice", "InvoiceNumber", "AccountId", "Status", "InvoiceDate", "DueDate", "Amount", "Balance");
+		setFields("Payment", "AccountId", "PaymentNumber", "Status", "Type", "EffectiveDate", "Amount");
+	}
+
+	/**
+	 * Set the fields synchronized for a type (Id and UpdatedDate are always
+	 * queried), adding the type if new
+	 *
+	 * @param type
+	 *            The object type
+	 * @param names
+	 *            The fields
+	 */
+	public synchronized void setFields(String type, String... names) {
+		Set<String> typeFields = new LinkedHashSet<String>(Arrays.asList("Id", UPDATED_DATE));
+		typeFields.addAll(Arrays.asList(names));
+		fields.put(type, Collections.unmodifiableList(new ArrayList<String>(typeFields)));
+	}
+
+	/**
+	 * Stop synchronizing a type
+	 *
+	 * @param type
+	 *            The object type
+	 */
+	public synchronized void removeType(String type) {
+		fields.remove(type);
+	}
+
+	/**
+	 * @return The types synchronized, in order
+	 */
+	public synchronized List<String> getTypes() {
+		return new ArrayList<String>(fields.keySet());
+	}
+
+	/**
+	 * Synchronize all the types, in order
+	 *
+	 * @return False if a type could not be synchronized (the next types are
+	 *         synchronized anyway)
+	 */
+	public boolean syncAll() {
+		boolean success = true;
+		for (String type : getTypes()) {
+			if (sync(type) < 0) {
+				success = false;
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Send the records of a type changed since the last run to the sink
+	 *
+	 * @param type
+	 *            The object type
+	 * @return The number of records sent, -1 if the run failed (the watermark
+	 *         is not advanced)
+	 */
+	public long sync(String type) {
+		List<String> typeFields;
+		synchronized (this) {
+			typeFields = fields.get(type);
+		}
+		if (typeFields == null) {
+			throw new IllegalArgumentException("Type not synchronized: " + type);
+		}
+
+		ZSyncWatermark watermark;
+		try {
+			watermark = store.load(type);
+		} catch (IOException e) {
+			logger.error("Could not load the watermark of " + type + " | " + e.getMessage());
+			return -1;
+		}
+
+		Calendar cutoff = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cutoff.setTimeInMillis(System.currentTimeMillis() - lag);
+		String query = query(type, typeFields, watermark, cutoff);
+
+		long sent = 0;
+		long skipped = 0;
+		Calendar last = null;
+		Set<String> lastIds = new HashSet<String>();
+		List<ZObject> page = new ArrayList<ZObject>(PAGE_SIZE);
+		ZQueryIterator records = zapi.zQueryIterator(query);
+		try {
+			while (records.hasNext()) {
+				ZObject record = records.next();
+				String id = record.getId().getID();
+				Calendar updatedDate = (Calendar) ZuoraUtility.getFieldValue(record, UPDATED_DATE);
+
+				// Already sent by the previous run
+				if (watermark != null && watermark.isSynchronized(updatedDate, id)) {
+					skipped++;
+					continue;
+				}
+
+				// The results are not sorted, keep the latest update
+				if (last == null || updatedDate.after(last)) {
+					last = updatedDate;
+					lastIds.clear();
+				}
+				if (updatedDate.getTimeInMillis() == last.getTimeInMillis()) {
+					lastIds.add(id);
+				}
+
+				page.add(record);
+				if (page.size() == PAGE_SIZE) {
+					sink.write(type, page);
+					sent += page.size();
+					page = new ArrayList<ZObject>(PAGE_SIZE);
+				}
+			}
+			if (records.isFailed()) {
+				logger.error("Sync of " + type + " stopped, the query failed");
+				return -1;
+			}
+			if (!page.isEmpty()) {
+				sink.write(type, page);
+				sent += page.size();
+			}
+			sink.flush(type);
+		} catch (Exception e) {
+			logger.error("Sync of " + type + " stopped by the sink | " + e.getMessage());
+			return -1;
+		} finally {
+			records.close();
+		}
+
+		if (last != null) {
+			// Records of the previous boundary updated in the same second
+			if (watermark != null && watermark.getUpdatedDate().getTimeInMillis() == last.getTimeInMillis()) {
+				lastIds.addAll(watermark.getBoundaryIds());
+			}
+			try {
+				store.save(type, new ZSyncWatermark(last, lastIds));
+			} catch (IOException e) {
+				logger.error("Could not save the watermark of " + type + " | " + e.getMessage());
+				return -1;
+			}
+		}
+		logger.info("Sync of " + type + " | sent: " + sent + " | already sent: " + skipped + " | watermark: "
+				+ (last != null ? ZuoraUtility.formatZoqlDateTime(last) : watermark));
+		return sent;
+	}
+
+	/**
+	 * The query of the records updated between the watermark (included) and
+	 * the cutoff (excluded)
+	 */
+	static String query(String type, List<String> typeFields, ZSyncWatermark watermark, Calendar cutoff) {
+		StringBuilder query = new StringBuilder("SELECT ");
+		for (int i = 0; i < typeFields.size(); i++) {
+			query.append(i > 0 ? ", " : "").append(typeFields.get(i));
+		}
+		query.append(" FROM ").append(type).append(" WHERE ");
+		if (watermark != null) {
+			query.append("UpdatedDate >= '").append(ZuoraUtility.formatZoqlDateTime(watermark.getUpdatedDate()))
+					.append("' AND ");
+		}
+		return query.append("UpdatedDate < '").append(ZuoraUtility.formatZoqlDateTime(cutoff)).append("'")
+				.toString();
+	}
+
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * @param lag
+	 *            The records updated less than `lag` ago are left to the next
+	 *            run (ms), to cover the clock skew with Zuora and the
+	 *            transactions committed late
+	 */
+	public void setLag(long lag) {
+		this.lag = lag;
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.zuora.api.util;
+
+import java.util.List;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Receives the records changed since the last run of a {@link ZSyncEngine}
+ * (a database writer, a message queue...).
+ *
+ * The delivery is at least once: if a run fails, the next one sends the same
+ * changes again, so the writes must be idempotent (upsert by ID).
+ */
+public interface ZSyncSink {
+
+	/**
+	 * Receive a page of records created or updated since the last run
+	 *
+	 * @param type
+	 *            The object type (Account, Subscription...)
+	 * @param records
+	 *            The records, in no particular order
+	 * @throws Exception
+	 *             To stop the run of the type, its watermark is not advanced
+	 */
+	void write(String type, List<ZObject> records) throws Exception;
+
+	/**
+	 * Called once all the changes of a type have been written, before its
+	 * watermark is advanced (commit them here)
+	 *
+	 * @param type
+	 *            The object type
+	 * @throws Exception
+	 *             To keep the watermark where it was
+	 */
+	void flush(String type) throws Exception;
+
+}
@@ -0,0 +1,57 @@
+package com.zuora.api.util;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Position of a {@link ZSyncEngine} in the changes of an object type: the
+ * last UpdatedDate synchronized and the IDs of the records updated at that
+ * exact time, which the next run skips (it queries UpdatedDate &gt;= the
+ * watermark so that the records updated in the same second are not missed).
+ */
+public class ZSyncWatermark {
+
+	private final Calendar updatedDate;
+
+	private final Set<String> boundaryIds;
+
+	/**
+	 * Instantiates a watermark
+	 *
+	 * @param updatedDate
+	 *            The last UpdatedDate synchronized
+	 * @param boundaryIds
+	 *            The IDs of the records updated at updatedDate
+	 */
+	public ZSyncWatermark(Calendar updatedDate, Set<String> boundaryIds) {
+		this.updatedDate = (Calendar) updatedDate.clone();
+		this.boundaryIds = Collections.unmodifiableSet(new HashSet<String>(boundaryIds));
+	}
+
+	public Calendar getUpdatedDate() {
+		return (Calendar) updatedDate.clone();
+	}
+
+	public Set<String> getBoundaryIds() {
+		return boundaryIds;
+	}
+
+	/**
+	 * @param updatedDate
+	 *            UpdatedDate of a record
+	 * @param id
+	 *            ID of the record
+	 * @return True if the record has already been synchronized
+	 */
+	public boolean isSynchronized(Calendar updatedDate, String id) {
+		return updatedDate.getTimeInMillis() == this.updatedDate.getTimeInMillis() && boundaryIds.contains(id);
+	}
+
+	@Override
+	public String toString() {
+		return ZuoraUtility.formatZoqlDateTime(updatedDate) + " (" + boundaryIds.size() + " record(s))";
+	}
+
+}
@@ -0,0 +1,461 @@
+package com.zuora.api.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side limits on the Zuora API calls, to stay under the rate and
+ * concurrency limits of the tenant instead of being rejected. Each call takes
+ * a permit before being sent, which waits until:
+ * <ul>
+ * <li>a call slot is free (max number of calls in flight)</li>
+ * <li>a token is available (max number of calls per second, with bursts of
+ * one second of calls)</li>
+ * </ul>
+ * Both limits exist for all the calls and for each type of operation
+ * (logins, queries, writes and subscribe/amend). A limit of 0 means no
+ * limit.
+ *
+ * By default the ZApi instances share the throttle configured with the
+ * throttle.* properties of the config.properties file: throttle.callsPerSecond
+ * and throttle.maxInFlight for all the calls, throttle.login.*,
+ * throttle.query.*, throttle.write.* and throttle.subscribeAmend.* for each
+ * type.
+ */
+public class ZThrottle {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZThrottle.class);
+
+	/** Prefix of the throttle properties */
+	private static final String PROPERTY_PREFIX = "throttle.";
+
+	/** Property suffix for the max number of calls per second */
+	private static final String PROPERTY_CALLS_PER_SECOND = "callsPerSecond";
+
+	/** Property suffix for the max number of calls in flight */
+	private static final String PROPERTY_MAX_IN_FLIGHT = "maxInFlight";
+
+	/** The throttle shared by the ZApi instances */
+	private static ZThrottle shared;
+
+	/** Limits applied to all the calls */
+	private volatile Budget global = new Budget(0, 0);
+
+	/** Limits applied to each type of operation */
+	private final Map<ZOperation.Type, Budget> budgets = new ConcurrentHashMap<ZOperation.Type, Budget>();
+
+	/** Statistics of each type of operation */
+	private final Map<ZOperation.Type, Counters> counters = new ConcurrentHashMap<ZOperation.Type, Counters>();
+
+	/**
+	 * Instantiates a throttle without any limit
+	 */
+	public ZThrottle() {
+		for (ZOperation.Type type : ZOperation.Type.values()) {
+			budgets.put(type, new Budget(0, 0));
+			counters.put(type, new Counters());
+		}
+	}
+
+	/**
+	 * Get the throttle shared by the ZApi instances, configured with the
+	 * throttle.* properties (created on first use)
+	 *
+	 * @return The shared throttle
+	 */
+	public static synchronized ZThrottle getShared() {
+		if (shared == null) {
+			shared = fromProperties();
+		}
+		return shared;
+	}
+
+	/**
+	 * Create a throttle configured with the throttle.* properties of the
+	 * config.properties file
+	 *
+	 * @return The throttle (without limit if no property is set)
+	 */
+	public static ZThrottle fromProperties() {
+		ZThrottle throttle = new ZThrottle();
+
+		throttle.setGlobalLimits(getDoubleProperty(PROPERTY_PREFIX + PROPERTY_CALLS_PER_SECOND),
+				(int) getDoubleProperty(PROPERTY_PREFIX + PROPERTY_MAX_IN_FLIGHT));
+
+		for (ZOperation.Type type : ZOperation.Type.values()) {
+			String prefix = PROPERTY_PREFIX + propertyName(type) + ".";
+			throttle.setLimits(type, getDoubleProperty(prefix + PROPERTY_CALLS_PER_SECOND),
+					(int) getDoubleProperty(prefix + PROPERTY_MAX_IN_FLIGHT));
+		}
+
+		return throttle;
+	}
+
+	/**
+	 * Set the limits applied to all the calls. The calls in flight keep the
+	 * limits they were sent with.
+	 *
+	 * @param callsPerSecond
+	 *            Max number of calls per second (0 for no limit)
+	 * @param maxInFlight
+	 *            Max number of calls in flight (0 for no limit)
+	 */
+	public void setGlobalLimits(double callsPerSecond, int maxInFlight) {
+		global = new Budget(callsPerSecond, maxInFlight);
+		logLimits("all", callsPerSecond, maxInFlight);
+	}
+
+	/**
+	 * Set the limits applied to one type of operation. The calls in flight
+	 * keep the limits they were sent with.
+	 *
+	 * @param type
+	 *            The type of operation
+	 * @param callsPerSecond
+	 *            Max number of calls per second (0 for no limit)
+	 * @param maxInFlight
+	 *            Max number of calls in flight (0 for no limit)
+	 */
+	public void setLimits(ZOperation.Type type, double callsPerSecond, int maxInFlight) {
+		budgets.put(type, new Budget(callsPerSecond, maxInFlight));
+		logLimits(type.name(), callsPerSecond, maxInFlight);
+	}
+
+	/**
+	 * Wait until the operation can be sent. The returned permit must be
+	 * released once the call is completed.
+	 *
+	 * @param operation
+	 *            The operation about to be sent
+	 * @return The permit
+	 * @throws InterruptedException
+	 *             If interrupted while waiting (no permit is held then)
+	 */
+	public Permit acquire(ZOperation operation) throws InterruptedException {
+
+		ZOperation.Type type = operation.getType();
+		Budget budget = budgets.get(type);
+		Budget all = global;
+
+		long start = System.nanoTime();
+
+		// The slot of the type first, so that no global slot is held while
+		// waiting for a busy type
+		budget.enter();
+		try {
+			all.enter();
+		} catch (InterruptedException e) {
+			budget.exit();
+			throw e;
+		}
+
+		try {
+			long delay = Math.max(budget.reserve(), all.reserve());
+			if (delay > 0) {
+				TimeUnit.NANOSECONDS.sleep(delay);
+			}
+		} catch (InterruptedException e) {
+			all.exit();
+			budget.exit();
+			throw e;
+		}
+
+		long waited = System.nanoTime() - start;
+		counters.get(type).acquired(waited);
+
+		if (waited > TimeUnit.SECONDS.toNanos(1)) {
+			logger.debug(operation + " call throttled for " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms");
+		}
+
+		return new Permit(type, budget, all);
+	}
+
+	/**
+	 * Get the statistics of a type of operation
+	 *
+	 * @param type
+	 *            The type of operation
+	 * @return A snapshot of the statistics
+	 */
+	public Stats getStats(ZOperation.Type type) {
+		return counters.get(type).snapshot();
+	}
+
+	/**
+	 * Reset the statistics (the calls in flight are kept)
+	 */
+	public void resetStats() {
+		for (Counters c : counters.values()) {
+			c.reset();
+		}
+	}
+
+	/**
+	 * The right to send one call, to release once completed
+	 */
+	public class Permit {
+
+		private final ZOperation.Type type;
+
+		private final Budget budget;
+
+		private final Budget all;
+
+		private boolean released;
+
+		private Permit(ZOperation.Type type, Budget budget, Budget all) {
+			this.type = type;
+			this.budget = budget;
+			this.all = all;
+		}
+
+		/**
+		 * Release the call slots (only the first call has an effect)
+		 */
+		public synchronized void release() {
+			if (!released) {
+				released = true;
+				// Counted out before the slots are given to a waiting call
+				counters.get(type).released();
+				all.exit();
+				budget.exit();
+			}
+		}
+	}
+
+	/**
+	 * Statistics of a type of operation
+	 */
+	public static class Stats {
+
+		private final long calls;
+
+		private final long throttledCalls;
+
+		private final long totalWaitNanos;
+
+		private final long maxWaitNanos;
+
+		private final int inFlight;
+
+		private Stats(long calls, long throttledCalls, long totalWaitNanos, long maxWaitNanos, int inFlight) {
+			this.calls = calls;
+			this.throttledCalls = throttledCalls;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.inFlight = inFlight;
+		}
+
+		/**
+		 * @return The number of calls sent
+		 */
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return The number of calls that waited for a slot or a token
+		 */
+		public long getThrottledCalls() {
+			return throttledCalls;
+		}
+
+		/**
+		 * @return The total time waited by the calls (ms)
+		 */
+		public long getTotalWaitMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+		}
+
+		/**
+		 * @return The average time waited by a call (ms)
+		 */
+		public double getAverageWaitMillis() {
+			return calls == 0 ? 0 : totalWaitNanos / 1e6 / calls;
+		}
+
+		/**
+		 * @return The longest time waited by a call (ms)
+		 */
+		public long getMaxWaitMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+		}
+
+		/**
+		 * @return The number of calls in flight
+		 */
+		public int getInFlight() {
+			return inFlight;
+		}
+
+		@Override
+		public String toString() {
+			return "calls = " + calls + " | throttled = " + throttledCalls + " | avg wait = "
+					+ String.format("%.1f", getAverageWaitMillis()) + " ms | max wait = " + getMaxWaitMillis()
+					+ " ms | in flight = " + inFlight;
+		}
+	}
+
+	/**
+	 * Slots and tokens of one limit
+	 */
+	private static class Budget {
+
+		/** Calls in flight (null for no limit) */
+		private final Semaphore slots;
+
+		/** Calls per second (null for no limit) */
+		private final TokenBucket bucket;
+
+		Budget(double callsPerSecond, int maxInFlight) {
+			this.slots = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+			this.bucket = callsPerSecond > 0 ? new TokenBucket(callsPerSecond) : null;
+		}
+
+		void enter() throws InterruptedException {
+			if (slots != null) {
+				slots.acquire();
+			}
+		}
+
+		void exit() {
+			if (slots != null) {
+				slots.release();
+			}
+		}
+
+		long reserve() {
+			return bucket != null ? bucket.reserve() : 0;
+		}
+	}
+
+	/**
+	 * Token bucket refilled at a constant rate. A call takes a token, possibly
+	 * in advance: it is then given the time to wait for it.
+	 */
+	private static class TokenBucket {
+
+		private final double tokensPerNano;
+
+		private final double capacity;
+
+		private double tokens;
+
+		private long lastRefill;
+
+		TokenBucket(double callsPerSecond) {
+			this.tokensPerNano = callsPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = Math.max(1, callsPerSecond);
+			this.tokens = capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		/**
+		 * Take a token
+		 *
+		 * @return The time to wait before using it (ns)
+		 */
+		synchronized long reserve() {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+
+			tokens -= 1;
+			return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+		}
+	}
+
+	/**
+	 * Counters of one type of operation
+	 */
+	private static class Counters {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong throttledCalls = new AtomicLong();
+
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		void acquired(long waitNanos) {
+			calls.incrementAndGet();
+			inFlight.incrementAndGet();
+			totalWaitNanos.addAndGet(waitNanos);
+			if (waitNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+				throttledCalls.incrementAndGet();
+			}
+
+			long max = maxWaitNanos.get();
+			while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+				max = maxWaitNanos.get();
+			}
+		}
+
+		void released() {
+			inFlight.decrementAndGet();
+		}
+
+		void reset() {
+			calls.set(0);
+			throttledCalls.set(0);
+			totalWaitNanos.set(0);
+			maxWaitNanos.set(0);
+		}
+
+		Stats snapshot() {
+			return new Stats(calls.get(), throttledCalls.get(), totalWaitNanos.get(), maxWaitNanos.get(), inFlight.get());
+		}
+	}
+
+	private static String propertyName(ZOperation.Type type) {
+		switch (type) {
+		case LOGIN:
+			return "login";
+		case QUERY:
+			return "query";
+		case WRITE:
+			return "write";
+		default:
+			return "subscribeAmend";
+		}
+	}
+
+	private static void logLimits(String name, double callsPerSecond, int maxInFlight) {
+		if (callsPerSecond > 0 || maxInFlight > 0) {
+			logger.info("Throttle limits for " + name + " calls | calls per second = " + callsPerSecond
+					+ " | max in flight = " + maxInFlight);
+		}
+	}
+
+	/**
+	 * Read a numeric property of the config.properties file
+	 *
+	 * @return The value or 0 if not set or invalid
+	 */
+	private static double getDoubleProperty(String name) {
+		String value = ZuoraUtility.getPropertyValue(name);
+
+		if (value == null || value.trim().length() == 0) {
+			return 0;
+		}
+
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value `" + value + "` for property `" + name + "`, ignored");
+			return 0;
+		}
+	}
+
+}
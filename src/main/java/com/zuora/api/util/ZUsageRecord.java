@@ -0,0 +1,113 @@
+package com.zuora.api.util;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * A usage row of an Import file (see {@link ZUsageWriter})
+ */
+public class ZUsageRecord {
+
+	private String accountId;
+
+	private String uom;
+
+	private BigDecimal quantity;
+
+	private Date startDate;
+
+	private Date endDate;
+
+	private String subscriptionId;
+
+	private String chargeId;
+
+	private String description;
+
+	public ZUsageRecord() {
+	}
+
+	/**
+	 * Instantiates a record with the required fields
+	 *
+	 * @param accountId
+	 *            Account number (ACCOUNT_ID column)
+	 * @param uom
+	 *            Unit of measure, as defined in Zuora (UOM)
+	 * @param quantity
+	 *            Quantity (QTY)
+	 * @param startDate
+	 *            Usage date (STARTDATE)
+	 */
+	public ZUsageRecord(String accountId, String uom, BigDecimal quantity, Date startDate) {
+		this.accountId = accountId;
+		this.uom = uom;
+		this.quantity = quantity;
+		this.startDate = startDate;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(String accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getUom() {
+		return uom;
+	}
+
+	public void setUom(String uom) {
+		this.uom = uom;
+	}
+
+	public BigDecimal getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(BigDecimal quantity) {
+		this.quantity = quantity;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+
+	public String getSubscriptionId() {
+		return subscriptionId;
+	}
+
+	public void setSubscriptionId(String subscriptionId) {
+		this.subscriptionId = subscriptionId;
+	}
+
+	public String getChargeId() {
+		return chargeId;
+	}
+
+	public void setChargeId(String chargeId) {
+		this.chargeId = chargeId;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+}
@@ -0,0 +1,290 @@
+package com.zuora.api.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes usage records in the CSV format of the usage Imports, streamed to
+ * disk. The rows are spread over several files (`usage-part-001.csv`...) of
+ * at most maxFileBytes, each with the header row, ready to be uploaded with
+ * {@link #importFiles(ZApi, int)}.
+ *
+ * <pre>
+ * ZUsageWriter writer = new ZUsageWriter(directory, "usage.csv", ZImport.DEFAULT_MAX_PART_BYTES);
+ * for (ZUsageRecord record : records) {
+ * 	writer.write(record);
+ * }
+ * ZBulkImportResult result = writer.importFiles(zapi, ZImport.DEFAULT_CONCURRENCY);
+ * </pre>
+ *
+ * Not thread-safe.
+ */
+public class ZUsageWriter implements Closeable {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ZUsageWriter.class);
+
+	/** The header row of a usage file */
+	public static final String HEADER = "ACCOUNT_ID,UOM,QTY,STARTDATE,ENDDATE,SUBSCRIPTION_ID,CHARGE_ID,DESCRIPTION";
+
+	/** The date format of a usage file */
+	public static final String DATE_FORMAT = "MM/dd/yyyy";
+
+	/** Size of the write buffer (chars) */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The directory of the files */
+	private final File directory;
+
+	/** The name of the file, or the base name of the parts if rolling */
+	private final String fileName;
+
+	/** Max size of a file, Long.MAX_VALUE to write a single file */
+	private final long maxFileBytes;
+
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+	/** The files written */
+	private final List<ZBulkImportResult.Part> files = new ArrayList<ZBulkImportResult.Part>();
+
+	/** The row being formatted */
+	private final StringBuilder row = new StringBuilder();
+
+	/** The writer of the current file */
+	private Writer writer;
+
+	private ZBulkImportResult.Part current;
+
+	private boolean closed;
+
+	/**
+	 * Instantiates a writer of a single file
+	 *
+	 * @param file
+	 *            The usage file
+	 */
+	public ZUsageWriter(File file) {
+		this(file.getAbsoluteFile().getParentFile(), file.getName(), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Instantiates a writer rolling to a new file once maxFileBytes is reached
+	 *
+	 * @param directory
+	 *            The directory of the files
+	 * @param fileName
+	 *            The base name of the files (`usage.csv` gives
+	 *            `usage-part-001.csv`, `usage-part-002.csv`...)
+	 * @param maxFileBytes
+	 *            Max size of a file (header included)
+	 */
+	public ZUsageWriter(File directory, String fileName, long maxFileBytes) {
+		if (maxFileBytes <= HEADER.length() + 1) {
+			throw new IllegalArgumentException("Max file size too small: " + maxFileBytes);
+		}
+		this.directory = directory;
+		this.fileName = fileName;
+		this.maxFileBytes = maxFileBytes;
+	}
+
+	/**
+	 * Set the time zone the dates are formatted in (the default time zone if
+	 * not set)
+	 *
+	 * @param timeZone
+	 *            The time zone
+	 */
+	public void setTimeZone(TimeZone timeZone) {
+		dateFormat.setTimeZone(timeZone);
+	}
+
+	/**
+	 * Write a usage record
+	 *
+	 * @param record
+	 *            The record
+	 * @throws IllegalArgumentException
+	 *             If a required field is missing or the end date is before the
+	 *             start date (nothing is written)
+	 * @throws IOException
+	 *             On write error
+	 */
+	public void write(ZUsageRecord record) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Writer closed");
+		}
+		validate(record);
+
+		row.setLength(0);
+		appendField(record.getAccountId()).append(',');
+		appendField(record.getUom()).append(',');
+		row.append(record.getQuantity().toPlainString()).append(',');
+		row.append(dateFormat.format(record.getStartDate())).append(',');
+		if (record.getEndDate() != null) {
+			row.append(dateFormat.format(record.getEndDate()));
+		}
+		row.append(',');
+		appendField(record.getSubscriptionId()).append(',');
+		appendField(record.getChargeId()).append(',');
+		appendField(record.getDescription()).append('\n');
+
+		long rowBytes = utf8Length(row);
+		if (current == null || current.getRows() > 0 && current.getBytes() + rowBytes > maxFileBytes) {
+			roll();
+		}
+		writer.append(row);
+		current.addRow(rowBytes);
+	}
+
+	/**
+	 * @return The files written so far
+	 */
+	public List<File> getFiles() {
+		List<File> result = new ArrayList<File>(files.size());
+		for (ZBulkImportResult.Part part : files) {
+			result.add(part.file);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @return The number of rows written
+	 */
+	public long getRowCount() {
+		long rows = 0;
+		for (ZBulkImportResult.Part part : files) {
+			rows += part.getRows();
+		}
+		return rows;
+	}
+
+	/**
+	 * Close the writer and upload the files, one Import each (the files are
+	 * kept)
+	 *
+	 * @param zapi
+	 *            Logged in ZApi, shared by the uploads
+	 * @param concurrency
+	 *            Max number of files uploaded at the same time
+	 * @return The Imports created
+	 * @throws IOException
+	 *             If the last file could not be flushed
+	 */
+	public ZBulkImportResult importFiles(ZApi zapi, int concurrency) throws IOException {
+		close();
+		ZBulkImportResult result = ZImport.uploadParts(zapi, files, concurrency);
+		logger.debug("Import of " + files.size() + " usage file(s) | " + result);
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Close the current file and start a new one
+	 */
+	private void roll() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+		int index = files.size() + 1;
+		String name = maxFileBytes == Long.MAX_VALUE ? fileName : ZImport.partName(fileName, index);
+		current = new ZBulkImportResult.Part(index, name);
+		current.file = new File(directory, name);
+		files.add(current);
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current.file), UTF8), BUFFER_SIZE);
+		writer.write(HEADER);
+		writer.write('\n');
+		current.addHeader(HEADER.length() + 1);
+		logger.debug("Writing usage file `" + current.file + "`");
+	}
+
+	private static void validate(ZUsageRecord record) {
+		if (isEmpty(record.getAccountId())) {
+			throw new IllegalArgumentException("Missing account ID");
+		}
+		if (isEmpty(record.getUom())) {
+			throw new IllegalArgumentException("Missing unit of measure | account = " + record.getAccountId());
+		}
+		if (record.getQuantity() == null) {
+			throw new IllegalArgumentException("Missing quantity | account = " + record.getAccountId());
+		}
+		if (record.getStartDate() == null) {
+			throw new IllegalArgumentException("Missing start date | account = " + record.getAccountId());
+		}
+		if (record.getEndDate() != null && record.getEndDate().before(record.getStartDate())) {
+			throw new IllegalArgumentException("End date before start date | account = " + record.getAccountId());
+		}
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.trim().length() == 0;
+	}
+
+	/**
+	 * Append a field, quoted if it contains a comma, a quote or a line break
+	 */
+	private StringBuilder appendField(String value) {
+		if (value == null) {
+			return row;
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+				&& value.indexOf('\r') < 0) {
+			return row.append(value);
+		}
+		row.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				row.append('"');
+			}
+			row.append(c);
+		}
+		return row.append('"');
+	}
+
+	/**
+	 * Size of a text in UTF-8, without encoding it
+	 */
+	private static long utf8Length(CharSequence text) {
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+}
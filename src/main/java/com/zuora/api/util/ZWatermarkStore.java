@@ -0,0 +1,35 @@
+package com.zuora.api.util;
+
+import java.io.IOException;
+
+/**
+ * Keeps the watermarks of a {@link ZSyncEngine} between two runs, see
+ * {@link ZFileWatermarkStore}. Store them next to the synchronized data (same
+ * database) to advance them in the same transaction.
+ */
+public interface ZWatermarkStore {
+
+	/**
+	 * Get the watermark of an object type
+	 *
+	 * @param type
+	 *            The object type
+	 * @return The watermark, null if the type has never been synchronized
+	 * @throws IOException
+	 *             If the store could not be read
+	 */
+	ZSyncWatermark load(String type) throws IOException;
+
+	/**
+	 * Save the watermark of an object type
+	 *
+	 * @param type
+	 *            The object type
+	 * @param watermark
+	 *            The watermark
+	 * @throws IOException
+	 *             If the store could not be written
+	 */
+	void save(String type, ZSyncWatermark watermark) throws IOException;
+
+}
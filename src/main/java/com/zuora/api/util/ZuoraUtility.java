@@ -1,16 +1,34 @@
 package com.zuora.api.util;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.axis2.AxisFault;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.zuora.api.axis2.ZuoraServiceStub.ApiFault;
 import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.InvalidQueryLocatorFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.InvalidTypeFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.InvalidValueFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.MalformedQueryFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.UnexpectedErrorFaultE;
 import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
 
 public class ZuoraUtility {
@@ -24,6 +42,9 @@ public class ZuoraUtility {
 	/** The properties, loaded from the file. */
 	private static Properties properties = null;
 
+	/** The getters of the ZObject classes, by lower case field name */
+	private static final Map<Class<?>, Map<String, Method>> getters = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+
 	
 	/**
 	 * Load the properties.
@@ -90,17 +111,36 @@ public class ZuoraUtility {
 	
 	
 	/**
-	 * Split object in tab of 50
+	 * Split object in tab of 50 (the last one holds the remaining objects).
+	 * The sub tables keep the runtime type of the given table, so they can be
+	 * cast back (e.g. to Amendment[]).
 	 */
 	public static ZObject[][] splitObjects(ZObject[] objects) {
+		return split(objects, ZApi.MAX_OBJECTS);
+	}
+
+	/**
+	 * Split an array in chunks of at most `size` elements (the last chunk is
+	 * not padded)
+	 *
+	 * @param objects
+	 *            The array
+	 * @param size
+	 *            Max size of a chunk
+	 * @return The chunks, of the same component type as the array
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T[][] split(T[] objects, int size) {
 
-		int n = objects.length / ZApi.MAX_OBJECTS + 1;
+		int n = (objects.length + size - 1) / size;
 
-		ZObject[][] returnedObjects = new ZObject[n][ZApi.MAX_OBJECTS];
+		T[][] returnedObjects = (T[][]) Array.newInstance(objects.getClass(), n);
 
-		for (int i = 0; i < objects.length; i++) {
-			int j = i / ZApi.MAX_OBJECTS;
-			returnedObjects[j][i % ZApi.MAX_OBJECTS] = objects[i];
+		for (int j = 0; j < n; j++) {
+			int from = j * size;
+			int length = Math.min(size, objects.length - from);
+			returnedObjects[j] = (T[]) Array.newInstance(objects.getClass().getComponentType(), length);
+			System.arraycopy(objects, from, returnedObjects[j], 0, length);
 		}
 
 		return returnedObjects;
@@ -108,17 +148,19 @@ public class ZuoraUtility {
 
 	
 	/**
-	 * Split string in tab of 50
+	 * Split string in tab of 50 (the last one holds the remaining IDs)
 	 */
 	public static String[][] splitIds(String[] ids) {
 
-		int n = ids.length / ZApi.MAX_OBJECTS + 1;
+		int n = (ids.length + ZApi.MAX_OBJECTS - 1) / ZApi.MAX_OBJECTS;
 
-		String[][] returnedIds = new String[n][ZApi.MAX_OBJECTS];
+		String[][] returnedIds = new String[n][];
 
-		for (int i = 0; i < ids.length; i++) {
-			int j = i / ZApi.MAX_OBJECTS;
-			returnedIds[j][i % ZApi.MAX_OBJECTS] = ids[i];
+		for (int j = 0; j < n; j++) {
+			int from = j * ZApi.MAX_OBJECTS;
+			int size = Math.min(ZApi.MAX_OBJECTS, ids.length - from);
+			returnedIds[j] = new String[size];
+			System.arraycopy(ids, from, returnedIds[j], 0, size);
 		}
 
 		return returnedIds;
@@ -141,6 +183,54 @@ public class ZuoraUtility {
 		return zuoraIds;
 	}
 
+	/**
+	 * Get the Zuora error code (e.g. INVALID_SESSION) of an exception raised by
+	 * an API call.
+	 *
+	 * @param e
+	 *            The exception
+	 * @return The error code, or null if the exception does not carry one
+	 */
+	public static String getFaultCode(Throwable e) {
+
+		ApiFault fault = null;
+
+		if (e instanceof com.zuora.api.axis2.UnexpectedErrorFault) {
+			UnexpectedErrorFaultE msg = ((com.zuora.api.axis2.UnexpectedErrorFault) e).getFaultMessage();
+			fault = msg != null ? msg.getUnexpectedErrorFault() : null;
+
+		} else if (e instanceof com.zuora.api.axis2.InvalidTypeFault) {
+			InvalidTypeFaultE msg = ((com.zuora.api.axis2.InvalidTypeFault) e).getFaultMessage();
+			fault = msg != null ? msg.getInvalidTypeFault() : null;
+
+		} else if (e instanceof com.zuora.api.axis2.InvalidValueFault) {
+			InvalidValueFaultE msg = ((com.zuora.api.axis2.InvalidValueFault) e).getFaultMessage();
+			fault = msg != null ? msg.getInvalidValueFault() : null;
+
+		} else if (e instanceof com.zuora.api.axis2.MalformedQueryFault) {
+			MalformedQueryFaultE msg = ((com.zuora.api.axis2.MalformedQueryFault) e).getFaultMessage();
+			fault = msg != null ? msg.getMalformedQueryFault() : null;
+
+		} else if (e instanceof com.zuora.api.axis2.InvalidQueryLocatorFault) {
+			InvalidQueryLocatorFaultE msg = ((com.zuora.api.axis2.InvalidQueryLocatorFault) e).getFaultMessage();
+			fault = msg != null ? msg.getInvalidQueryLocatorFault() : null;
+
+		} else if (e instanceof com.zuora.api.axis2.LoginFault) {
+			LoginFaultE msg = ((com.zuora.api.axis2.LoginFault) e).getFaultMessage();
+			fault = msg != null ? msg.getLoginFault() : null;
+
+		} else if (e instanceof AxisFault && ((AxisFault) e).getFaultCode() != null) {
+			// Plain SOAP fault, e.g. <faultcode>fns:INVALID_SESSION</faultcode>
+			return ((AxisFault) e).getFaultCode().getLocalPart();
+		}
+
+		if (fault != null && fault.getFaultCode() != null) {
+			return fault.getFaultCode().getValue();
+		}
+
+		return null;
+	}
+
 	/**
 	 * Gets the current date.
 	 *
@@ -150,4 +240,106 @@ public class ZuoraUtility {
 		return Calendar.getInstance();
 	}
 
+	/**
+	 * Format a date time for a ZOQL filter, e.g. `UpdatedDate >
+	 * '2014-02-12T10:20:30.000-08:00'`
+	 *
+	 * @param date
+	 *            The date time (in its own time zone)
+	 * @return The formatted date time, without the quotes
+	 */
+	public static String formatZoqlDateTime(Calendar date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		format.setTimeZone(date.getTimeZone());
+		String formatted = format.format(date.getTime());
+		// -0800 to -08:00
+		return formatted.substring(0, formatted.length() - 2) + ":" + formatted.substring(formatted.length() - 2);
+	}
+
+	/**
+	 * Read a field of a ZObject through its getter
+	 *
+	 * @param object
+	 *            The object
+	 * @param field
+	 *            The field name, case insensitive (e.g. UpdatedDate or
+	 *            titleKey__c)
+	 * @return The value of the field
+	 * @throws IllegalArgumentException
+	 *             If the object has no such field
+	 */
+	public static Object getFieldValue(ZObject object, String field) {
+		Map<String, Method> classGetters = getters.get(object.getClass());
+		if (classGetters == null) {
+			classGetters = new HashMap<String, Method>();
+			for (Method method : object.getClass().getMethods()) {
+				if (method.getName().startsWith("get") && method.getParameterTypes().length == 0) {
+					classGetters.put(method.getName().substring(3).toLowerCase(Locale.ROOT), method);
+				}
+			}
+			getters.put(object.getClass(), classGetters);
+		}
+		Method getter = classGetters.get(field.toLowerCase(Locale.ROOT));
+		if (getter == null) {
+			throw new IllegalArgumentException("Unknown field " + object.getClass().getSimpleName() + "." + field);
+		}
+		try {
+			return getter.invoke(object);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Could not read " + object.getClass().getSimpleName() + "." + field, e);
+		}
+	}
+
+	/**
+	 * Read a properties file
+	 *
+	 * @param file
+	 *            The file
+	 * @return The properties, empty if the file does not exist
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	public static Properties readProperties(File file) throws IOException {
+		Properties properties = new Properties();
+		if (file.exists()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Write a properties file to a temporary file renamed over the previous
+	 * one, so an interrupted write does not lose it
+	 *
+	 * @param properties
+	 *            The properties
+	 * @param file
+	 *            The file
+	 * @param comments
+	 *            The header of the file
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	public static void writeProperties(Properties properties, File file, String comments) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, comments);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not rename over an existing file
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Could not rename `" + tmp + "` to `" + file + "`");
+			}
+		}
+	}
+
 }
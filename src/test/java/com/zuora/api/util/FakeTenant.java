@@ -0,0 +1,375 @@
+package com.zuora.api.util;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.axis2.AxisFault;
+
+import com.zuora.api.axis2.ZuoraServiceStub;
+import com.zuora.api.axis2.ZuoraServiceStub.Amend;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.CallOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.Create;
+import com.zuora.api.axis2.ZuoraServiceStub.CreateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.Delete;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Query;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMore;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryMoreResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SessionHeader;
+import com.zuora.api.axis2.ZuoraServiceStub.Update;
+import com.zuora.api.axis2.ZuoraServiceStub.UpdateResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * Fake tenant keeping the records in memory, behind a fake stub: the calls go
+ * through the ZApi chunking, dispatch and query cache as with a real tenant.
+ * The queries return all the records of their type (see
+ * {@link #matches(String, ZObject)}) in pages of PAGE_SIZE, the updates
+ * replace the records. The tests override the protected methods to change the
+ * answers of the tenant.
+ */
+class FakeTenant extends ZApi {
+
+	/** Endpoint of the fakes, never connected to */
+	static final String ENDPOINT = "http://localhost:1/apps/services/a/79.0";
+
+	/** Max number of records returned by a query call */
+	static final int PAGE_SIZE = 2000;
+
+	private static final Pattern FROM = Pattern.compile("\\bFROM\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+	/** The records of each type, in creation order */
+	private final Map<String, Map<String, ZObject>> records = new HashMap<String, Map<String, ZObject>>();
+
+	/** The records of each query sent, as when it was sent */
+	private final List<List<ZObject>> snapshots = new ArrayList<List<ZObject>>();
+
+	/** The calls received, as "operation Type size" (see {@link #describe}) */
+	final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+	/** The query strings received */
+	final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
+	private final AtomicInteger ids = new AtomicInteger();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	FakeTenant() {
+		super(ENDPOINT);
+		setThrottle(null);
+		setRetryPolicy(ZRetryPolicy.none());
+		try {
+			setStub(new Stub());
+		} catch (AxisFault e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String id(int n) {
+		return String.format("%032x", n);
+	}
+
+	static ID newId(String value) {
+		ID id = new ID();
+		id.setID(value);
+		return id;
+	}
+
+	/**
+	 * Store a record, with a new ID if it has none (replaces the record of the
+	 * same ID)
+	 */
+	void add(String type, ZObject record) {
+		if (record.getId() == null) {
+			record.setId(newId(id(ids.incrementAndGet())));
+		}
+		put(type, record.getId().getID(), record);
+	}
+
+	private synchronized void put(String type, String id, ZObject record) {
+		Map<String, ZObject> typeRecords = records.get(type);
+		if (typeRecords == null) {
+			typeRecords = new LinkedHashMap<String, ZObject>();
+			records.put(type, typeRecords);
+		}
+		typeRecords.put(id, record);
+	}
+
+	synchronized ZObject get(String type, String id) {
+		Map<String, ZObject> typeRecords = records.get(type);
+		return typeRecords != null ? typeRecords.get(id) : null;
+	}
+
+	synchronized int count(String type) {
+		Map<String, ZObject> typeRecords = records.get(type);
+		return typeRecords != null ? typeRecords.size() : 0;
+	}
+
+	/**
+	 * @return Max number of calls received at the same time
+	 */
+	int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	/**
+	 * Called in the thread of each call before it is recorded and answered
+	 *
+	 * @param call
+	 *            The call, as recorded in {@link #calls}
+	 */
+	protected void received(String call) {
+	}
+
+	/**
+	 * @return True if the record is returned by the query (all the records of
+	 *         the type by default)
+	 */
+	protected boolean matches(String queryString, ZObject record) {
+		return true;
+	}
+
+	/**
+	 * @return True to create the record (the creates fail otherwise)
+	 */
+	protected boolean accept(ZObject record) {
+		return true;
+	}
+
+	/**
+	 * @return True to delete the record (the deletes fail otherwise)
+	 */
+	protected boolean deletable(String type, String id) {
+		return true;
+	}
+
+	/**
+	 * Answer an amend call (every request succeeds by default)
+	 */
+	protected AmendResult[] amend(AmendRequest[] requests) {
+		AmendResult[] results = new AmendResult[requests.length];
+		for (int i = 0; i < requests.length; i++) {
+			results[i] = new AmendResult();
+			results[i].setSuccess(true);
+		}
+		return results;
+	}
+
+	private synchronized QueryResult query(String queryString) {
+		Matcher matcher = FROM.matcher(queryString);
+		if (!matcher.find()) {
+			throw new IllegalArgumentException("No type in `" + queryString + "`");
+		}
+		List<ZObject> snapshot = new ArrayList<ZObject>();
+		Map<String, ZObject> typeRecords = records.get(matcher.group(1));
+		if (typeRecords != null) {
+			for (ZObject record : typeRecords.values()) {
+				if (matches(queryString, record)) {
+					snapshot.add(record);
+				}
+			}
+		}
+		snapshots.add(snapshot);
+		return page(snapshots.size() - 1, 0);
+	}
+
+	private synchronized QueryResult page(int query, int from) {
+		List<ZObject> snapshot = snapshots.get(query);
+		List<ZObject> page = snapshot.subList(from, Math.min(snapshot.size(), from + PAGE_SIZE));
+		QueryResult result = new QueryResult();
+		result.setRecords(page.toArray(new ZObject[page.size()]));
+		result.setSize(snapshot.size());
+		result.setDone(from + PAGE_SIZE >= snapshot.size());
+		if (!result.getDone()) {
+			QueryLocator locator = new QueryLocator();
+			locator.setQueryLocator(query + ":" + (from + PAGE_SIZE));
+			result.setQueryLocator(locator);
+		}
+		return result;
+	}
+
+	private SaveResult[] create(ZObject[] objects) {
+		SaveResult[] results = new SaveResult[objects.length];
+		for (int i = 0; i < objects.length; i++) {
+			results[i] = new SaveResult();
+			results[i].setSuccess(accept(objects[i]));
+			if (results[i].getSuccess()) {
+				// Stored as sent, the caller sets the ID of the result
+				String id = id(ids.incrementAndGet());
+				put(objects[i].getClass().getSimpleName(), id, objects[i]);
+				results[i].setId(newId(id));
+			} else {
+				results[i].setErrors(new ZuoraServiceStub.Error[] { error("Rejected") });
+			}
+		}
+		return results;
+	}
+
+	private SaveResult[] update(ZObject[] objects) {
+		SaveResult[] results = new SaveResult[objects.length];
+		for (int i = 0; i < objects.length; i++) {
+			put(objects[i].getClass().getSimpleName(), objects[i].getId().getID(), objects[i]);
+			results[i] = new SaveResult();
+			results[i].setSuccess(true);
+			results[i].setId(objects[i].getId());
+		}
+		return results;
+	}
+
+	private DeleteResult[] delete(String type, ID[] ids) {
+		DeleteResult[] results = new DeleteResult[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			results[i] = new DeleteResult();
+			results[i].setSuccess(deletable(type, ids[i].getID()));
+			if (results[i].getSuccess()) {
+				synchronized (this) {
+					Map<String, ZObject> typeRecords = records.get(type);
+					if (typeRecords != null) {
+						typeRecords.remove(ids[i].getID());
+					}
+				}
+				results[i].setId(ids[i]);
+			} else {
+				results[i].setErrors(new ZuoraServiceStub.Error[] { error("Not deletable") });
+			}
+		}
+		return results;
+	}
+
+	private static ZuoraServiceStub.Error error(String message) {
+		ZuoraServiceStub.Error error = new ZuoraServiceStub.Error();
+		error.setCode(ZuoraServiceStub.ErrorCode.INVALID_VALUE);
+		error.setMessage(message);
+		return error;
+	}
+
+	/**
+	 * @return The call as recorded, e.g. "create Account 50" or "update
+	 *         Contact 1 single"
+	 */
+	private static String describe(String operation, ZObject[] objects, CallOptions options) {
+		return operation + " " + objects[0].getClass().getSimpleName() + " " + objects.length
+				+ (options != null && options.getUseSingleTransaction() ? " single" : "");
+	}
+
+	private void enter(String call) {
+		int current = inFlight.incrementAndGet();
+		int max;
+		while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+			// Retry with the new max
+		}
+		received(call);
+		calls.add(call);
+	}
+
+	private void exit() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * The stub answering the calls from the records
+	 */
+	private class Stub extends ZuoraServiceStub {
+
+		Stub() throws AxisFault {
+			super(ZStubFactory.getConfigurationContext(), ENDPOINT);
+		}
+
+		@Override
+		public QueryResponse query(Query query, QueryOptions options, SessionHeader header) throws RemoteException {
+			enter("query");
+			try {
+				queries.add(query.getQueryString());
+				QueryResponse response = new QueryResponse();
+				response.setResult(FakeTenant.this.query(query.getQueryString()));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+
+		@Override
+		public QueryMoreResponse queryMore(QueryMore queryMore, QueryOptions options, SessionHeader header)
+				throws RemoteException {
+			enter("queryMore");
+			try {
+				String[] locator = queryMore.getQueryLocator().getQueryLocator().split(":");
+				QueryMoreResponse response = new QueryMoreResponse();
+				response.setResult(page(Integer.parseInt(locator[0]), Integer.parseInt(locator[1])));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+
+		@Override
+		public CreateResponse create(Create create, CallOptions options, SessionHeader header)
+				throws RemoteException {
+			enter(describe("create", create.getZObjects(), options));
+			try {
+				CreateResponse response = new CreateResponse();
+				response.setResult(FakeTenant.this.create(create.getZObjects()));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+
+		@Override
+		public UpdateResponse update(Update update, SessionHeader header) throws RemoteException {
+			enter(describe("update", update.getZObjects(), null));
+			try {
+				UpdateResponse response = new UpdateResponse();
+				response.setResult(FakeTenant.this.update(update.getZObjects()));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+
+		@Override
+		public DeleteResponse delete(Delete delete, SessionHeader header) throws RemoteException {
+			enter("delete " + delete.getType() + " " + delete.getIds().length);
+			try {
+				DeleteResponse response = new DeleteResponse();
+				response.setResult(FakeTenant.this.delete(delete.getType(), delete.getIds()));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+
+		@Override
+		public AmendResponse amend(Amend amend, SessionHeader header) throws RemoteException {
+			enter("amend " + amend.getRequests().length);
+			try {
+				AmendResponse response = new AmendResponse();
+				response.setResults(FakeTenant.this.amend(amend.getRequests()));
+				return response;
+			} finally {
+				exit();
+			}
+		}
+	}
+
+}
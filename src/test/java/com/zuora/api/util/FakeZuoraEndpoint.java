@@ -0,0 +1,233 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.LoginResult;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResponse;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+/**
+ * In-process HTTP endpoint answering the login and query calls with canned
+ * SOAP responses (a query returns no record, a create fails with
+ * INVALID_SESSION). The queries (or the logins) can be held until released,
+ * to observe the calls in flight.
+ */
+class FakeZuoraEndpoint {
+
+	/** The first element of the SOAP body, i.e. the operation called */
+	private static final Pattern OPERATION = Pattern.compile("<(?:[\\w-]+:)?Body[^>]*>\\s*<(?:[\\w-]+:)?(\\w+)");
+
+	private static final SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger logins = new AtomicInteger();
+
+	private final AtomicInteger creates = new AtomicInteger();
+
+	private final AtomicInteger queriesInFlight = new AtomicInteger();
+
+	private final AtomicInteger maxQueriesInFlight = new AtomicInteger();
+
+	/** Counted down by each held call received */
+	private volatile CountDownLatch received = new CountDownLatch(0);
+
+	/** The operation held by the gate */
+	private volatile String held = "query";
+
+	/** The held calls are answered once open */
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+
+	FakeZuoraEndpoint() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+		server.start();
+	}
+
+	String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/apps/services/a/79.0";
+	}
+
+	/**
+	 * Hold the next queries until {@link #release()}
+	 *
+	 * @param expected
+	 *            Number of queries {@link #awaitQueries(long)} waits for
+	 */
+	void hold(int expected) {
+		hold("query", expected);
+	}
+
+	/**
+	 * Hold the next calls of an operation (login or query) until
+	 * {@link #release()}
+	 *
+	 * @param expected
+	 *            Number of calls {@link #awaitQueries(long)} waits for
+	 */
+	void hold(String operation, int expected) {
+		received = new CountDownLatch(expected);
+		gate = new CountDownLatch(1);
+		held = operation;
+	}
+
+	/**
+	 * @return True if the expected held calls have been received in time
+	 */
+	boolean awaitQueries(long millis) throws InterruptedException {
+		return received.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	void release() {
+		gate.countDown();
+	}
+
+	int getLogins() {
+		return logins.get();
+	}
+
+	int getCreates() {
+		return creates.get();
+	}
+
+	int getMaxQueriesInFlight() {
+		return maxQueriesInFlight.get();
+	}
+
+	void stop() {
+		release();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		try {
+			Matcher matcher = OPERATION.matcher(read(exchange.getRequestBody()));
+			String operation = matcher.find() ? matcher.group(1) : "";
+			byte[] response = null;
+			if ("login".equals(operation)) {
+				logins.incrementAndGet();
+				if ("login".equals(held)) {
+					received.countDown();
+					gate.await(10, TimeUnit.SECONDS);
+				}
+				response = loginResponse();
+			} else if ("query".equals(operation)) {
+				int inFlight = queriesInFlight.incrementAndGet();
+				while (inFlight > maxQueriesInFlight.get()) {
+					int max = maxQueriesInFlight.get();
+					if (maxQueriesInFlight.compareAndSet(max, inFlight)) {
+						break;
+					}
+				}
+				try {
+					if ("query".equals(held)) {
+						received.countDown();
+						gate.await(10, TimeUnit.SECONDS);
+					}
+				} finally {
+					queriesInFlight.decrementAndGet();
+				}
+				response = queryResponse();
+			} else if ("create".equals(operation)) {
+				creates.incrementAndGet();
+				sendFault(exchange, "INVALID_SESSION");
+				return;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+			if (response == null) {
+				exchange.sendResponseHeaders(500, -1);
+			} else {
+				exchange.sendResponseHeaders(200, response.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		} catch (Exception e) {
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void sendFault(HttpExchange exchange, String code) throws IOException {
+		byte[] fault = ("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+				+ "<soapenv:Fault><faultcode xmlns:fns=\"http://fault.api.zuora.com/\">fns:" + code
+				+ "</faultcode><faultstring>" + code + "</faultstring></soapenv:Fault></soapenv:Body></soapenv:Envelope>")
+				.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+		exchange.sendResponseHeaders(500, fault.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(fault);
+		out.close();
+	}
+
+	private static byte[] loginResponse() throws Exception {
+		LoginResult result = new LoginResult();
+		result.setSession("fake-session");
+		result.setServerUrl("http://localhost/apps/services/a/79.0");
+		LoginResponse response = new LoginResponse();
+		response.setResult(result);
+		return envelope(response.getOMElement(LoginResponse.MY_QNAME, factory));
+	}
+
+	private static byte[] queryResponse() throws Exception {
+		QueryResult result = new QueryResult();
+		result.setRecords(new ZObject[0]);
+		result.setSize(0);
+		result.setDone(true);
+		QueryResponse response = new QueryResponse();
+		response.setResult(result);
+		return envelope(response.getOMElement(QueryResponse.MY_QNAME, factory));
+	}
+
+	private static byte[] envelope(OMElement payload) throws Exception {
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(payload);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		envelope.serialize(out);
+		return out.toByteArray();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+
+}
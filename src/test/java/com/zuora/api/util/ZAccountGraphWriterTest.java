@@ -0,0 +1,119 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Contact;
+import com.zuora.api.axis2.ZuoraServiceStub.PaymentMethod;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZAccountGraphWriterTest {
+
+	/**
+	 * Fake tenant rejecting the contacts named "Bad"
+	 */
+	private static class GraphTenant extends FakeTenant {
+
+		@Override
+		protected boolean accept(ZObject record) {
+			if (record instanceof Contact) {
+				Assert.assertNotNull(((Contact) record).getAccountId());
+				return !"Bad".equals(((Contact) record).getLastName());
+			}
+			return true;
+		}
+	}
+
+	@Test
+	public void testWrite() {
+		GraphTenant tenant = new GraphTenant();
+		List<ZAccountGraph> graphs = new ArrayList<ZAccountGraph>();
+		for (int i = 0; i < 30; i++) {
+			Account account = new Account();
+			account.setName("Account " + i);
+			graphs.add(new ZAccountGraph(account).addContact(contact("Contact " + i))
+					.setPaymentMethod(new PaymentMethod()));
+		}
+
+		ZAccountGraphWriter writer = new ZAccountGraphWriter(tenant);
+		writer.setSingleTransaction(true);
+		Assert.assertEquals(30, writer.write(graphs));
+
+		Assert.assertEquals(4, tenant.calls.size());
+		Assert.assertEquals("create Account 30 single", tenant.calls.get(0));
+		Assert.assertTrue(tenant.calls.contains("create Contact 30 single"));
+		Assert.assertTrue(tenant.calls.contains("create PaymentMethod 30 single"));
+		Assert.assertEquals("update Account 30", tenant.calls.get(3));
+
+		for (int i = 0; i < 30; i++) {
+			ZAccountGraph graph = graphs.get(i);
+			Account update = (Account) tenant.get("Account", graph.getAccountId().getID());
+			Assert.assertEquals(ZAccountGraph.Status.CREATED, graph.getStatus());
+			Assert.assertEquals(graph.getAccountId(), update.getId());
+			Assert.assertEquals(graph.getAccountId(), graph.getContacts().get(0).getAccountId());
+			Assert.assertEquals(graph.getContacts().get(0).getId(), update.getBillToId());
+			Assert.assertEquals(graph.getContacts().get(0).getId(), update.getSoldToId());
+			Assert.assertEquals(graph.getPaymentMethod().getId(), update.getDefaultPaymentMethodId());
+			Assert.assertEquals("Active", update.getStatus());
+		}
+	}
+
+	@Test
+	public void testRollback() {
+		GraphTenant tenant = new GraphTenant();
+		Account good = new Account();
+		Account bad = new Account();
+		List<ZAccountGraph> graphs = new ArrayList<ZAccountGraph>();
+		graphs.add(new ZAccountGraph(good).setBillTo(contact("Good")));
+		graphs.add(new ZAccountGraph(bad).setBillTo(contact("Bad")));
+
+		ZAccountGraphWriter writer = new ZAccountGraphWriter(tenant);
+		writer.setRollback(true);
+		Assert.assertEquals(1, writer.write(graphs));
+
+		Assert.assertEquals(ZAccountGraph.Status.CREATED, graphs.get(0).getStatus());
+		Assert.assertEquals(ZAccountGraph.Status.ROLLED_BACK, graphs.get(1).getStatus());
+		Assert.assertNull(graphs.get(1).getAccountId());
+		Assert.assertEquals(1, graphs.get(1).getErrors().size());
+		Assert.assertNull(tenant.get("Account", bad.getId().getID()));
+		Assert.assertEquals(1, tenant.count("Account"));
+		Assert.assertEquals(1, Collections.frequency(tenant.calls, "delete Account 1"));
+		Assert.assertEquals(1, Collections.frequency(tenant.calls, "update Account 1"));
+	}
+
+	@Test(timeout = 20000)
+	public void testBoundedChunkExecutor() {
+		GraphTenant tenant = new GraphTenant();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		tenant.setChunkExecutor(executor);
+		tenant.setChunkConcurrency(2);
+		List<ZAccountGraph> graphs = new ArrayList<ZAccountGraph>();
+		for (int i = 0; i < 60; i++) {
+			graphs.add(new ZAccountGraph(new Account()).addContact(contact("Contact " + i))
+					.setPaymentMethod(new PaymentMethod()));
+		}
+
+		try {
+			// The contact and payment method creates wait for their chunks on the 2 threads
+			Assert.assertEquals(60, new ZAccountGraphWriter(tenant).write(graphs));
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(60, tenant.count("Contact"));
+		Assert.assertEquals(60, tenant.count("PaymentMethod"));
+	}
+
+	private static Contact contact(String lastName) {
+		Contact contact = new Contact();
+		contact.setLastName(lastName);
+		return contact;
+	}
+
+}
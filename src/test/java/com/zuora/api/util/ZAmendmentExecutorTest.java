@@ -0,0 +1,126 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+
+public class ZAmendmentExecutorTest {
+
+	/**
+	 * Fake tenant: each successful amendment creates a new version of the
+	 * subscription, amending an older version fails
+	 */
+	private static class AmendedTenant extends FakeTenant {
+
+		private final List<String> latest = Collections.synchronizedList(new ArrayList<String>());
+
+		private final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+
+		private final AtomicInteger versions = new AtomicInteger();
+
+		private final String failing;
+
+		AmendedTenant(String failing) {
+			this.failing = failing;
+		}
+
+		@Override
+		protected synchronized AmendResult[] amend(AmendRequest[] requests) {
+			AmendResult[] results = new AmendResult[requests.length];
+			for (int i = 0; i < requests.length; i++) {
+				Amendment amendment = requests[i].getAmendments()[0];
+				String subscription = amendment.getSubscriptionId().getID();
+				AmendResult result = new AmendResult();
+				if (amendment.getName().equals(failing) || !latest.contains(subscription)) {
+					result.setSuccess(false);
+				} else {
+					String version = id(1000000 + versions.incrementAndGet());
+					latest.remove(subscription);
+					latest.add(version);
+					applied.add(amendment.getName());
+					result.setSuccess(true);
+					result.setSubscriptionId(newId(version));
+				}
+				results[i] = result;
+			}
+			return results;
+		}
+	}
+
+	@Test
+	public void testOrderPerSubscription() {
+		AmendedTenant tenant = new AmendedTenant(null);
+		List<Amendment> amendments = new ArrayList<Amendment>();
+		for (int s = 0; s < 120; s++) {
+			tenant.latest.add(FakeTenant.id(s));
+			for (int a = 0; a < 3; a++) {
+				amendments.add(amendment(s, "s" + s + "-a" + a));
+			}
+		}
+
+		ZAmendmentExecutor executor = new ZAmendmentExecutor(tenant);
+		executor.setConcurrency(3);
+		AmendResult[] results = executor.execute(amendments.toArray(new Amendment[0]));
+
+		Assert.assertEquals(360, results.length);
+		for (AmendResult result : results) {
+			Assert.assertTrue(result.getSuccess());
+		}
+		// 3 waves of 120 amendments, 3 calls each
+		Assert.assertEquals(9, tenant.calls.size());
+		for (int s = 0; s < 120; s++) {
+			int a0 = tenant.applied.indexOf("s" + s + "-a0");
+			int a1 = tenant.applied.indexOf("s" + s + "-a1");
+			int a2 = tenant.applied.indexOf("s" + s + "-a2");
+			Assert.assertTrue(a0 < a1 && a1 < a2);
+		}
+	}
+
+	@Test
+	public void testFailureSkipsSubscription() {
+		AmendedTenant tenant = new AmendedTenant("s1-a0");
+		tenant.latest.add(FakeTenant.id(0));
+		tenant.latest.add(FakeTenant.id(1));
+		Amendment[] amendments = { amendment(0, "s0-a0"), amendment(1, "s1-a0"), amendment(0, "s0-a1"),
+				amendment(1, "s1-a1") };
+
+		AmendResult[] results = new ZAmendmentExecutor(tenant).execute(amendments);
+
+		Assert.assertTrue(results[0].getSuccess());
+		Assert.assertFalse(results[1].getSuccess());
+		Assert.assertTrue(results[2].getSuccess());
+		Assert.assertFalse(results[3].getSuccess());
+		Assert.assertEquals(1, results[3].getErrors().length);
+		Assert.assertEquals(2, tenant.calls.size());
+		Assert.assertFalse(tenant.applied.contains("s1-a1"));
+	}
+
+	@Test
+	public void testFailedCall() {
+		ZApi zapi = new ZApi(FakeTenant.ENDPOINT);
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		Amendment[] amendments = { amendment(0, "s0-a0"), amendment(0, "s0-a1") };
+
+		AmendResult[] results = new ZAmendmentExecutor(zapi).execute(amendments);
+
+		Assert.assertFalse(results[0].getSuccess());
+		Assert.assertFalse(results[1].getSuccess());
+	}
+
+	private static Amendment amendment(int subscription, String name) {
+		Amendment amendment = new Amendment();
+		amendment.setName(name);
+		amendment.setSubscriptionId(FakeTenant.newId(FakeTenant.id(subscription)));
+		return amendment;
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.zuora.api.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendOptions;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.AmendResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+
+public class ZApiAmendTest {
+
+	@Test
+	public void testFailedCallsReportedPerRequest() {
+		// Nothing listens on this port: every call fails with a network error
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		ZInMemoryMetricsRegistry metrics = new ZInMemoryMetricsRegistry();
+		zapi.setMetricsRegistry(metrics);
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		zapi.setChunkConcurrency(2);
+
+		AmendRequest[] requests = new AmendRequest[60];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new AmendRequest();
+			requests[i].setAmendments(new Amendment[] { new Amendment(), new Amendment() });
+			AmendOptions options = new AmendOptions();
+			options.setGenerateInvoice(i % 2 == 0);
+			requests[i].setAmendOptions(options);
+		}
+		AmendResult[] results = zapi.zAmend(requests);
+
+		Assert.assertEquals(60, results.length);
+		for (AmendResult result : results) {
+			Assert.assertFalse(result.getSuccess());
+			Assert.assertEquals(ErrorCode.UNKNOWN_ERROR, result.getErrors()[0].getCode());
+		}
+		ZInMemoryMetricsRegistry.Stats stats = metrics.getStats(ZOperation.AMEND);
+		Assert.assertEquals(2, stats.getCalls());
+		Assert.assertEquals(2, stats.getMaxChunks());
+		Assert.assertEquals(100, stats.getMaxPayload());
+		Assert.assertEquals(60, stats.getObjectsFailed());
+	}
+
+}
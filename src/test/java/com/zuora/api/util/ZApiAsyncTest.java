@@ -0,0 +1,87 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SessionHeader;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZApiAsyncTest {
+
+	private FakeZuoraEndpoint endpoint;
+
+	@Before
+	public void setUp() throws Exception {
+		ZuoraUtility.getProperties().setProperty("async.maxThreads", "2");
+		// The next stub gets a context with the new thread pool
+		ZStubFactory.shutdown();
+		endpoint = new FakeZuoraEndpoint();
+	}
+
+	@After
+	public void tearDown() {
+		endpoint.stop();
+		ZuoraUtility.getProperties().remove("async.maxThreads");
+		ZStubFactory.shutdown();
+	}
+
+	@Test(timeout = 20000)
+	public void testCallsOverlap() throws Exception {
+		ZApi zapi = new ZApi(endpoint.getEndpoint());
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		Assert.assertNotNull(zapi.zLogin("user", "password"));
+		ZApiAsync async = new ZApiAsync(zapi);
+
+		endpoint.hold(2);
+		ZFuture<QueryResult> first = async.zQuery("SELECT Id FROM Account");
+		ZFuture<QueryResult> second = async.zQuery("SELECT Id FROM Contact");
+
+		// Both queries are received while the first one is still in flight
+		Assert.assertTrue(endpoint.awaitQueries(5000));
+		endpoint.release();
+		Assert.assertNotNull(first.get());
+		Assert.assertNotNull(second.get());
+		Assert.assertEquals(2, endpoint.getMaxQueriesInFlight());
+	}
+
+	@Test(timeout = 20000)
+	public void testReplayOffCallbackThread() throws Exception {
+		final List<String> renewals = Collections.synchronizedList(new ArrayList<String>());
+		ZApi zapi = new ZApi(endpoint.getEndpoint()) {
+			@Override
+			SessionHeader renewSession(SessionHeader expired) {
+				renewals.add(Thread.currentThread().getName());
+				return super.renewSession(expired);
+			}
+		};
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		Assert.assertNotNull(zapi.zLogin("user", "password"));
+
+		// The endpoint answers every create with INVALID_SESSION
+		ZFuture<SaveResult[]> created = new ZApiAsync(zapi).zCreate(new ZObject[] { new Account() });
+		try {
+			created.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("INVALID_SESSION", ZuoraUtility.getFaultCode(e.getCause()));
+		}
+
+		Assert.assertEquals(2, endpoint.getCreates());
+		Assert.assertEquals(2, endpoint.getLogins());
+		Assert.assertEquals(1, renewals.size());
+		Assert.assertTrue(renewals.get(0).startsWith("zapi-worker-"));
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.zuora.api.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZApiPoolTest {
+
+	private FakeZuoraEndpoint endpoint;
+
+	@Before
+	public void setUp() throws Exception {
+		endpoint = new FakeZuoraEndpoint();
+	}
+
+	@After
+	public void tearDown() {
+		endpoint.stop();
+	}
+
+	@Test(timeout = 20000)
+	public void testIdleCheckRacingBorrow() throws Exception {
+		final ZApiPool pool = new ZApiPool(endpoint.getEndpoint(), "user", "password", 1, 1);
+		try {
+			pool.setMaxIdleMillis(-1);
+
+			// The idle check takes the only session out to log it in again
+			endpoint.hold("login", 1);
+			Thread check = new Thread() {
+				@Override
+				public void run() {
+					pool.checkIdleSessions();
+				}
+			};
+			check.start();
+			Assert.assertTrue(endpoint.awaitQueries(5000));
+			pool.setMaxIdleMillis(ZApiPool.DEFAULT_MAX_IDLE_MILLIS);
+
+			final ZApi[] borrowed = new ZApi[1];
+			Thread borrower = new Thread() {
+				@Override
+				public void run() {
+					try {
+						borrowed[0] = pool.borrow();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			borrower.start();
+			// Waiting for the session, or logging in another one
+			while (borrower.getState() != Thread.State.WAITING && endpoint.getLogins() < 3) {
+				Thread.yield();
+			}
+
+			endpoint.release();
+			check.join();
+			borrower.join();
+
+			Assert.assertNotNull(borrowed[0]);
+			Assert.assertEquals(1, pool.getActiveCount());
+			Assert.assertEquals(0, pool.getIdleCount());
+			Assert.assertEquals(2, endpoint.getLogins());
+		} finally {
+			pool.close();
+		}
+	}
+
+}
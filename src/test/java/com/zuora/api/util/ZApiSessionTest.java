@@ -0,0 +1,59 @@
+package com.zuora.api.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+
+public class ZApiSessionTest {
+
+	private FakeZuoraEndpoint endpoint;
+
+	private ZThrottle throttle;
+
+	@Before
+	public void setUp() throws Exception {
+		endpoint = new FakeZuoraEndpoint();
+		throttle = new ZThrottle();
+		throttle.setGlobalLimits(0, 1);
+	}
+
+	@After
+	public void tearDown() {
+		endpoint.stop();
+	}
+
+	private ZApi connect() {
+		ZApi zapi = new ZApi(endpoint.getEndpoint());
+		zapi.setThrottle(throttle);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		Assert.assertNotNull(zapi.zLogin("user", "password"));
+		// Every call now finds the session expired
+		zapi.setSessionTimeout(1);
+		return zapi;
+	}
+
+	@Test(timeout = 20000)
+	public void testRenewalWithOneCallInFlight() {
+		ZApi zapi = connect();
+
+		QueryResult result = zapi.zQuery("SELECT Id FROM Account");
+
+		Assert.assertNotNull(result);
+		Assert.assertEquals(2, endpoint.getLogins());
+		Assert.assertEquals(0, throttle.getStats(ZOperation.Type.QUERY).getInFlight());
+	}
+
+	@Test(timeout = 20000)
+	public void testAsyncRenewalWithOneCallInFlight() throws Exception {
+		ZApi zapi = connect();
+
+		QueryResult result = new ZApiAsync(zapi).zQuery("SELECT Id FROM Account").get();
+
+		Assert.assertNotNull(result);
+		Assert.assertEquals(2, endpoint.getLogins());
+	}
+
+}
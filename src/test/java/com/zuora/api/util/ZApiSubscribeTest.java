@@ -0,0 +1,47 @@
+package com.zuora.api.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.SubscribeResult;
+
+public class ZApiSubscribeTest {
+
+	@Test
+	public void testFailedChunksReportedPerRequest() throws Exception {
+		// Nothing listens on this port: every chunk fails with a network error
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		ZInMemoryMetricsRegistry metrics = new ZInMemoryMetricsRegistry();
+		zapi.setMetricsRegistry(metrics);
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		zapi.setChunkConcurrency(2);
+
+		SubscribeRequest[] requests = new SubscribeRequest[120];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new SubscribeRequest();
+		}
+		SubscribeResult[] results = zapi.zSubscribe(requests);
+
+		Assert.assertEquals(120, results.length);
+		for (SubscribeResult result : results) {
+			Assert.assertFalse(result.getSuccess());
+			Assert.assertEquals(ErrorCode.UNKNOWN_ERROR, result.getErrors()[0].getCode());
+		}
+		ZInMemoryMetricsRegistry.Stats stats = metrics.getStats(ZOperation.SUBSCRIBE);
+		Assert.assertEquals(3, stats.getCalls());
+		Assert.assertEquals(3, stats.getMaxChunks());
+		Assert.assertEquals(50, stats.getMaxPayload());
+		Assert.assertEquals(120, stats.getObjectsFailed());
+	}
+
+	@Test
+	public void testSplit() {
+		String[][] chunks = ZuoraUtility.split(new String[] { "a", "b", "c", "d", "e" }, 2);
+		Assert.assertEquals(3, chunks.length);
+		Assert.assertArrayEquals(new String[] { "e" }, chunks[2]);
+	}
+
+}
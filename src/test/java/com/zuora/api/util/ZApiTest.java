@@ -62,6 +62,19 @@ public class ZApiTest {
 		Assert.assertEquals(queryResult.getSize(), 0);
 	}
 
+	@Test
+	public void testSessionRenewal() {
+		zapi.zLogin();
+		String session = zapi.getHeader().getSession();
+
+		// Consider the session expired right away, the next call must log in again
+		zapi.setSessionTimeout(0);
+		QueryResult queryResult = zapi.zQuery("SELECT AccountNumber FROM Account WHERE Id = 'dummyId'");
+
+		Assert.assertEquals(queryResult.getSize(), 0);
+		Assert.assertNotEquals(session, zapi.getHeader().getSession());
+	}
+
 	@Test
 	public void testZSubscribe() throws UnexpectedErrorFault, RemoteException, ParseException {
 		zapi.zLogin();
@@ -274,6 +287,27 @@ public class ZApiTest {
 	}
 
 
+	@Test
+	public void testZApiPool() throws InterruptedException {
+		ZApiPool pool = new ZApiPool(2, 3);
+		Assert.assertEquals(2, pool.getIdleCount());
+
+		ZApi borrowed = pool.borrow();
+		Assert.assertNotNull(borrowed.getHeader().getSession());
+		Assert.assertEquals(1, pool.getActiveCount());
+
+		QueryResult queryResult = borrowed.zQuery("SELECT AccountNumber FROM Account WHERE Id = 'dummyId'");
+		Assert.assertEquals(queryResult.getSize(), 0);
+
+		pool.release(borrowed);
+		Assert.assertEquals(0, pool.getActiveCount());
+		Assert.assertEquals(2, pool.getIdleCount());
+
+		// The last released session is handed out first
+		Assert.assertSame(borrowed, pool.borrow());
+		pool.close();
+	}
+
 	@Test
 	public void filterProduct() {
 
@@ -0,0 +1,201 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.Contact;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.SaveResult;
+
+public class ZBulkWriterTest {
+
+	/**
+	 * Fake tenant whose create and update calls wait for the gate
+	 */
+	private static class GatedTenant extends FakeTenant {
+
+		private final CountDownLatch gate;
+
+		GatedTenant(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		@Override
+		protected void received(String call) {
+			if (call.startsWith("create") || call.startsWith("update")) {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBatchesPerType() throws Exception {
+		final GatedTenant tenant = new GatedTenant(new CountDownLatch(0));
+		final ZBulkWriter writer = new ZBulkWriter(tenant, 1000, 60000, 2);
+
+		// 4 producers of 30 account updates each
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		List<Future<List<ZFuture<SaveResult>>>> submitted = new ArrayList<Future<List<ZFuture<SaveResult>>>>();
+		for (int p = 0; p < 4; p++) {
+			final int producer = p;
+			submitted.add(producers.submit(new Callable<List<ZFuture<SaveResult>>>() {
+				@Override
+				public List<ZFuture<SaveResult>> call() throws Exception {
+					List<ZFuture<SaveResult>> futures = new ArrayList<ZFuture<SaveResult>>();
+					for (int i = 0; i < 30; i++) {
+						Account account = new Account();
+						account.setId(FakeTenant.newId(FakeTenant.id(producer * 100 + i)));
+						futures.add(writer.update(account));
+					}
+					return futures;
+				}
+			}));
+		}
+		Contact contact = new Contact();
+		contact.setId(FakeTenant.newId(FakeTenant.id(999)));
+		ZFuture<SaveResult> contactResult = writer.update(contact);
+		ZFuture<DeleteResult> deleteResult = writer.delete("Account", FakeTenant.id(1000));
+
+		List<List<ZFuture<SaveResult>>> results = new ArrayList<List<ZFuture<SaveResult>>>();
+		for (Future<List<ZFuture<SaveResult>>> producer : submitted) {
+			results.add(producer.get());
+		}
+		// The full batches are already sent, the partial ones wait for the linger time
+		writer.flush();
+
+		for (int p = 0; p < 4; p++) {
+			List<ZFuture<SaveResult>> futures = results.get(p);
+			for (int i = 0; i < 30; i++) {
+				SaveResult result = futures.get(i).get(5, TimeUnit.SECONDS);
+				Assert.assertEquals(FakeTenant.id(p * 100 + i), result.getId().getID());
+			}
+		}
+		producers.shutdown();
+		Assert.assertEquals(FakeTenant.id(999), contactResult.get(5, TimeUnit.SECONDS).getId().getID());
+		Assert.assertTrue(deleteResult.get(5, TimeUnit.SECONDS).getSuccess());
+		writer.close();
+
+		Assert.assertEquals(5, tenant.calls.size());
+		Assert.assertEquals(2, Collections.frequency(tenant.calls, "update Account 50"));
+		Assert.assertTrue(tenant.calls.contains("update Account 20"));
+		Assert.assertTrue(tenant.calls.contains("update Contact 1"));
+		Assert.assertTrue(tenant.calls.contains("delete Account 1"));
+		Assert.assertEquals(0, writer.getPendingCount());
+	}
+
+	@Test
+	public void testLinger() throws Exception {
+		GatedTenant tenant = new GatedTenant(new CountDownLatch(0));
+		ZBulkWriter writer = new ZBulkWriter(tenant, 100, 50, 1);
+
+		List<ZFuture<SaveResult>> futures = new ArrayList<ZFuture<SaveResult>>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(writer.create(new Account()));
+		}
+		for (ZFuture<SaveResult> future : futures) {
+			Assert.assertTrue(future.get(5, TimeUnit.SECONDS).getSuccess());
+		}
+		Assert.assertEquals(Collections.singletonList("create Account 3"), tenant.calls);
+		Assert.assertEquals(3.0, writer.getMeanBatchSize(), 0.001);
+		writer.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testBackpressure() throws Exception {
+		CountDownLatch gate = new CountDownLatch(1);
+		GatedTenant tenant = new GatedTenant(gate);
+		final ZBulkWriter writer = new ZBulkWriter(tenant, 60, 60000, 1);
+
+		// A full batch blocked in flight, and 10 objects waiting
+		for (int i = 0; i < 60; i++) {
+			writer.create(new Account());
+		}
+		Assert.assertEquals(60, writer.getPendingCount());
+
+		final AtomicReference<ZFuture<SaveResult>> submitted = new AtomicReference<ZFuture<SaveResult>>();
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					submitted.set(writer.create(new Account()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		producer.start();
+		// The producer waits for room
+		while (producer.getState() != Thread.State.WAITING) {
+			Assert.assertTrue(producer.isAlive());
+			Thread.yield();
+		}
+		Assert.assertNull(submitted.get());
+		Assert.assertEquals(60, writer.getPendingCount());
+
+		gate.countDown();
+		producer.join(5000);
+		Assert.assertNotNull(submitted.get());
+		writer.close();
+		Assert.assertEquals(0, writer.getPendingCount());
+		Assert.assertEquals(2, writer.getCallCount());
+	}
+
+	@Test(timeout = 20000)
+	public void testCloseRacingSubmits() throws Exception {
+		for (int run = 0; run < 20; run++) {
+			// Batches sent at once by the timer or full, while closing
+			final ZBulkWriter writer = new ZBulkWriter(new GatedTenant(new CountDownLatch(0)), 1000, 0, 2);
+			final List<ZFuture<SaveResult>> futures = Collections.synchronizedList(new ArrayList<ZFuture<SaveResult>>());
+			Thread producer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							futures.add(writer.create(new Account()));
+						}
+					} catch (IllegalStateException e) {
+						// Closed
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			producer.start();
+			while (futures.size() < 10 * run) {
+				Thread.yield();
+			}
+			writer.close();
+			producer.join();
+
+			// Every object submitted before the close is sent
+			for (ZFuture<SaveResult> future : futures) {
+				Assert.assertTrue(future.get(5, TimeUnit.SECONDS).getSuccess());
+			}
+			Assert.assertEquals(0, writer.getPendingCount());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() throws Exception {
+		ZBulkWriter writer = new ZBulkWriter(new GatedTenant(new CountDownLatch(0)));
+		writer.close();
+		writer.create(new Account());
+	}
+
+}
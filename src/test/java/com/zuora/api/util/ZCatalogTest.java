@@ -0,0 +1,128 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Product;
+import com.zuora.api.axis2.ZuoraServiceStub.ProductRatePlan;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZCatalogTest {
+
+	private static final String PRODUCT_ID = "2c92c0f84a2f5c1d014a3b4c5d6e7f01";
+
+	private static final String PLAN_ID = "2c92c0f84a2f5c1d014a3b4c5d6e7f02";
+
+	/**
+	 * Fake catalog: one product and its rate plan
+	 */
+	private static class FakeCatalog extends ZApi {
+
+		private final List<String> queries = new ArrayList<String>();
+
+		private ProductRatePlan plan = plan("gold", 10);
+
+		FakeCatalog() {
+			super("http://localhost:1/apps/services/a/79.0");
+		}
+
+		@Override
+		public synchronized QueryResult zQuery(String queryString) {
+			queries.add(queryString);
+			List<ZObject> records = new ArrayList<ZObject>();
+			if (queryString.contains("FROM Product ") || queryString.endsWith("FROM Product")) {
+				if (!queryString.contains("WHERE")) {
+					Product product = new Product();
+					product.setId(id(PRODUCT_ID));
+					product.setSKU("SKU-1");
+					product.setUpdatedDate(date(10));
+					records.add(product);
+				}
+			} else if (queryString.contains("FROM ProductRatePlan ") || queryString.endsWith("FROM ProductRatePlan")) {
+				records.add(plan);
+			}
+			QueryResult result = new QueryResult();
+			result.setRecords(records.toArray(new ZObject[records.size()]));
+			result.setSize(records.size());
+			result.setDone(true);
+			return result;
+		}
+	}
+
+	private FakeCatalog zapi;
+
+	private ZCatalog catalog;
+
+	@Before
+	public void setUp() {
+		zapi = new FakeCatalog();
+		catalog = new ZCatalog(zapi);
+		catalog.addIndex(ZCatalog.RATE_PLAN, "titleKey__c");
+		Assert.assertTrue(catalog.load());
+	}
+
+	@Test
+	public void testLookups() {
+		Assert.assertEquals("SKU-1", catalog.getProduct(PRODUCT_ID).getSKU());
+		Assert.assertEquals(PRODUCT_ID, catalog.findProductsBySku("SKU-1").get(0).getId().getID());
+		Assert.assertEquals(PLAN_ID, catalog.getRatePlans(PRODUCT_ID).get(0).getId().getID());
+		Assert.assertEquals(1, catalog.find(ZCatalog.RATE_PLAN, "titlekey__c", "gold").size());
+		Assert.assertTrue(catalog.getCharges(PLAN_ID).isEmpty());
+		Assert.assertTrue(zapi.queries.get(1).startsWith("SELECT Id, UpdatedDate, Name, ProductId"));
+		Assert.assertTrue(zapi.queries.get(1).endsWith(", titleKey__c FROM ProductRatePlan"));
+	}
+
+	@Test
+	public void testIncrementalRefresh() {
+		zapi.queries.clear();
+		zapi.plan = plan("platinum", 20);
+		Assert.assertTrue(catalog.refresh());
+
+		Assert.assertTrue(zapi.queries.get(1).endsWith(
+				" FROM ProductRatePlan WHERE UpdatedDate >= '" + ZuoraUtility.formatZoqlDateTime(date(10)) + "'"));
+		// The product not updated is kept, the rate plan is replaced
+		Assert.assertNotNull(catalog.getProduct(PRODUCT_ID));
+		Assert.assertTrue(catalog.find(ZCatalog.RATE_PLAN, "titleKey__c", "gold").isEmpty());
+		Assert.assertEquals(1, catalog.find(ZCatalog.RATE_PLAN, "titleKey__c", "platinum").size());
+		Assert.assertEquals(1, catalog.size(ZCatalog.RATE_PLAN));
+	}
+
+	@Test
+	public void testFormatZoqlDateTime() {
+		Calendar date = Calendar.getInstance(TimeZone.getTimeZone("GMT-08:00"));
+		date.clear();
+		date.set(2014, Calendar.FEBRUARY, 12, 10, 20, 30);
+		Assert.assertEquals("2014-02-12T10:20:30.000-08:00", ZuoraUtility.formatZoqlDateTime(date));
+	}
+
+	private static ProductRatePlan plan(String titleKey, int minute) {
+		ProductRatePlan plan = new ProductRatePlan();
+		plan.setId(id(PLAN_ID));
+		plan.setProductId(id(PRODUCT_ID));
+		plan.setTitleKey__c(titleKey);
+		plan.setUpdatedDate(date(minute));
+		return plan;
+	}
+
+	private static Calendar date(int minute) {
+		Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		date.clear();
+		date.set(2014, Calendar.FEBRUARY, 12, 10, minute, 0);
+		return date;
+	}
+
+	private static ID id(String value) {
+		ID id = new ID();
+		id.setID(value);
+		return id;
+	}
+
+}
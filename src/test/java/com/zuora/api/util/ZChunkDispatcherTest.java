@@ -0,0 +1,109 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Amendment;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZChunkDispatcherTest {
+
+	/**
+	 * Build `n` tasks returning their index, sleeping in reverse order so the
+	 * last ones complete first
+	 */
+	private List<Callable<Integer>> makeTasks(int n, final AtomicInteger inFlight, final AtomicInteger maxInFlight) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			final int n2 = n;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = inFlight.incrementAndGet();
+					synchronized (maxInFlight) {
+						maxInFlight.set(Math.max(maxInFlight.get(), current));
+					}
+					Thread.sleep(5 * (n2 - index));
+					inFlight.decrementAndGet();
+					if (index == 3) {
+						throw new IllegalStateException("chunk 3 failed");
+					}
+					return index;
+				}
+			});
+		}
+		return tasks;
+	}
+
+	@Test
+	public void testResultsKeepTaskOrder() throws Exception {
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		List<Future<Integer>> results = new ZChunkDispatcher(4).run(makeTasks(10, inFlight, maxInFlight));
+
+		Assert.assertEquals(10, results.size());
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(results.get(i).isDone());
+			if (i == 3) {
+				try {
+					results.get(i).get();
+					Assert.fail("The failed chunk must be reported");
+				} catch (ExecutionException e) {
+					Assert.assertEquals("chunk 3 failed", e.getCause().getMessage());
+				}
+			} else {
+				Assert.assertEquals(Integer.valueOf(i), results.get(i).get());
+			}
+		}
+
+		Assert.assertTrue(maxInFlight.get() <= 4);
+		Assert.assertTrue(maxInFlight.get() > 1);
+	}
+
+	@Test
+	public void testSerialRunsInCallingThread() throws Exception {
+		final Thread caller = Thread.currentThread();
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i = 0; i < 3; i++) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return Thread.currentThread() == caller;
+				}
+			});
+		}
+
+		for (Future<Boolean> result : new ZChunkDispatcher(1).run(tasks)) {
+			Assert.assertTrue(result.get());
+		}
+	}
+
+	@Test
+	public void testSplitObjectsKeepsTypeAndSizes() {
+		Amendment[] amendments = new Amendment[101];
+		for (int i = 0; i < amendments.length; i++) {
+			amendments[i] = new Amendment();
+		}
+
+		ZObject[][] chunks = ZuoraUtility.splitObjects(amendments);
+
+		Assert.assertEquals(3, chunks.length);
+		Assert.assertEquals(ZApi.MAX_OBJECTS, chunks[0].length);
+		Assert.assertEquals(ZApi.MAX_OBJECTS, chunks[1].length);
+		Assert.assertEquals(1, chunks[2].length);
+		Assert.assertSame(amendments[100], ((Amendment[]) chunks[2])[0]);
+
+		Assert.assertEquals(2, ZuoraUtility.splitIds(new String[100]).length);
+		Assert.assertEquals(0, ZuoraUtility.splitIds(new String[0]).length);
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZFutureTest {
+
+	@Test
+	public void testCompleteFromAnotherThread() throws Exception {
+		final ZFuture<String> future = new ZFuture<String>();
+		final AtomicReference<String> notified = new AtomicReference<String>();
+		final CountDownLatch callbackDone = new CountDownLatch(1);
+
+		future.addCallback(new ZCallback<String>() {
+			@Override
+			public void onSuccess(String result) {
+				notified.set(result);
+				callbackDone.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable error) {
+				notified.set("failure");
+				callbackDone.countDown();
+			}
+		});
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				future.complete("done");
+			}
+		}).start();
+
+		Assert.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+		Assert.assertTrue(callbackDone.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("done", notified.get());
+		Assert.assertFalse(future.fail(new IllegalStateException()));
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		ZFuture<String> future = new ZFuture<String>();
+		future.fail(new IllegalStateException("boom"));
+
+		// Registered after the completion: notified right away
+		final AtomicReference<Throwable> notified = new AtomicReference<Throwable>();
+		future.addCallback(new ZCallback<String>() {
+			@Override
+			public void onSuccess(String result) {
+			}
+
+			@Override
+			public void onFailure(Throwable error) {
+				notified.set(error);
+			}
+		});
+
+		Assert.assertEquals("boom", notified.get().getMessage());
+		try {
+			future.get();
+			Assert.fail("get() should throw");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testTimeoutAndCancel() throws Exception {
+		ZFuture<String> future = new ZFuture<String>();
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail("get() should time out");
+		} catch (TimeoutException e) {
+			// expected
+		}
+
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertTrue(future.isCancelled());
+		Assert.assertTrue(future.isDone());
+		try {
+			future.get();
+			Assert.fail("get() should throw");
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZImportSplitTest {
+
+	private static final String HEADER = "ACCOUNT_ID,UOM,QTY,STARTDATE,ENDDATE,SUBSCRIPTION_ID,CHARGE_ID,DESCRIPTION";
+
+	@Test
+	public void testSplitRepeatsHeader() throws IOException {
+		StringBuilder csv = new StringBuilder(HEADER).append("\n");
+		for (int i = 0; i < 10; i++) {
+			csv.append("A0000000" + i + ",Each,1,02/12/2014,02/12/2014,,,row " + i + "\n");
+		}
+		csv.append("\n");
+
+		List<ZBulkImportResult.Part> parts = ZImport.splitCsv(stream(csv.toString()), "usage.csv", 200);
+		try {
+			Assert.assertTrue(parts.size() > 1);
+			long rows = 0;
+			for (ZBulkImportResult.Part part : parts) {
+				String content = read(part.file);
+				Assert.assertTrue(content.startsWith(HEADER + "\n"));
+				Assert.assertTrue(part.getBytes() <= 200);
+				Assert.assertEquals(part.getBytes(), part.file.length());
+				rows += part.getRows();
+			}
+			Assert.assertEquals(10, rows);
+			Assert.assertEquals("usage-part-001.csv", parts.get(0).getName());
+		} finally {
+			delete(parts);
+		}
+	}
+
+	@Test
+	public void testSplitKeepsQuotedRecords() throws IOException {
+		String quoted = "A00000001,Each,1,02/12/2014,02/12/2014,,,\"first line\nsecond line\"\n";
+		String csv = HEADER + "\n" + quoted + quoted + quoted;
+
+		List<ZBulkImportResult.Part> parts = ZImport.splitCsv(stream(csv), "usage.csv", 1);
+		try {
+			Assert.assertEquals(3, parts.size());
+			for (ZBulkImportResult.Part part : parts) {
+				Assert.assertEquals(1, part.getRows());
+				Assert.assertEquals(HEADER + "\n" + quoted, read(part.file));
+			}
+		} finally {
+			delete(parts);
+		}
+	}
+
+	private static InputStream stream(String content) throws IOException {
+		return new ByteArrayInputStream(content.getBytes("UTF-8"));
+	}
+
+	private static String read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				read += in.read(bytes, read, bytes.length - read);
+			}
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void delete(List<ZBulkImportResult.Part> parts) {
+		for (ZBulkImportResult.Part part : parts) {
+			part.file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.Import;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZImportTrackerTest {
+
+	/**
+	 * Fake API: the import N is completed at the Nth query
+	 */
+	private static class FakeApi extends ZApi {
+
+		private final List<String> queries = new ArrayList<String>();
+
+		FakeApi() {
+			super("http://localhost:1/apps/services/a/79.0");
+		}
+
+		@Override
+		public synchronized QueryResult zQuery(String queryString) {
+			queries.add(queryString);
+			List<ZObject> records = new ArrayList<ZObject>();
+			for (int i = 1; i <= 3; i++) {
+				if (queryString.contains("'" + importId(i) + "'")) {
+					Import zimport = new Import();
+					zimport.setId(id(importId(i)));
+					zimport.setStatus(queries.size() >= i ? "Completed" : "Processing");
+					records.add(zimport);
+				}
+			}
+			QueryResult result = new QueryResult();
+			result.setRecords(records.toArray(new ZObject[records.size()]));
+			result.setSize(records.size());
+			result.setDone(true);
+			return result;
+		}
+	}
+
+	@Test
+	public void testOneQueryPerPoll() throws Exception {
+		FakeApi zapi = new FakeApi();
+		ZImportTracker tracker = new ZImportTracker(zapi, 10, 40);
+		try {
+			List<ZFuture<Import>> futures = new ArrayList<ZFuture<Import>>();
+			for (int i = 1; i <= 3; i++) {
+				futures.add(tracker.track(id(importId(i))));
+			}
+			for (int i = 1; i <= 3; i++) {
+				Import zimport = futures.get(i - 1).get(5, TimeUnit.SECONDS);
+				Assert.assertEquals("Completed", zimport.getStatus());
+				Assert.assertEquals(importId(i), zimport.getId().getID());
+			}
+			Assert.assertEquals(0, tracker.getPendingCount());
+			Assert.assertEquals(3, tracker.getQueryCount());
+			Assert.assertTrue(zapi.queries.get(0).contains(
+					"Id = '" + importId(1) + "' OR Id = '" + importId(2) + "' OR Id = '" + importId(3) + "'"));
+			Assert.assertFalse(zapi.queries.get(2).contains(importId(1)));
+		} finally {
+			tracker.close();
+		}
+	}
+
+	private static String importId(int i) {
+		return "2c92c0f84a2f5c1d014a3b4c5d6e7f0" + i;
+	}
+
+	private static ID id(String value) {
+		ID id = new ID();
+		id.setID(value);
+		return id;
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+
+import org.apache.axis2.Constants;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZImportUploadTest {
+
+	private File file;
+
+	private ZApi zapi;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("zimport-test-", ".csv");
+		OutputStream out = new FileOutputStream(file);
+		out.write("ACCOUNT_ID,UOM,QTY\nA00000001,Each,1\n".getBytes("UTF-8"));
+		out.close();
+
+		// Nothing listens on this port: the upload fails with a network error
+		zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSharedStubOptionsUnchanged() {
+		Assert.assertNull(ZImport.createImport(zapi, new ZStreamDataSource(file, "text/plain;name=usage.csv")));
+
+		Options options = zapi.getStub()._getServiceClient().getOptions();
+		Assert.assertNull(options.getProperty(Constants.Configuration.ENABLE_MTOM));
+		Assert.assertNull(options.getProperty(HTTPConstants.CHUNKED));
+	}
+
+	@Test
+	public void testStreamNotRetried() throws IOException {
+		ZThrottle throttle = new ZThrottle();
+		zapi.setThrottle(throttle);
+		ZRetryPolicy policy = new ZRetryPolicy(3, 10, 50);
+		policy.setNetworkRetryOperations(EnumSet.allOf(ZOperation.class));
+		zapi.setRetryPolicy(policy);
+
+		// A file is sent again by each attempt
+		Assert.assertNull(ZImport.createImport(zapi, new ZStreamDataSource(file, "text/plain;name=usage.csv")));
+		Assert.assertEquals(3, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+
+		// A stream is read by the first attempt only
+		InputStream in = new FileInputStream(file);
+		try {
+			Assert.assertNull(ZImport.createImport(zapi, new ZStreamDataSource(in, "text/plain;name=usage.csv",
+					"usage.csv")));
+		} finally {
+			in.close();
+		}
+		Assert.assertEquals(4, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+	}
+
+	@Test(timeout = 20000)
+	public void testStreamNotReplayedAfterExpiredSession() throws Exception {
+		FakeZuoraEndpoint endpoint = new FakeZuoraEndpoint();
+		try {
+			ZApi zapi = new ZApi(endpoint.getEndpoint());
+			ZThrottle throttle = new ZThrottle();
+			zapi.setThrottle(throttle);
+			zapi.setRetryPolicy(ZRetryPolicy.none());
+			Assert.assertNotNull(zapi.zLogin("user", "password"));
+
+			// Every create answers INVALID_SESSION: a file is replayed once
+			Assert.assertNull(ZImport.createImport(zapi, new ZStreamDataSource(file, "text/plain;name=usage.csv")));
+			Assert.assertEquals(2, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+			Assert.assertEquals(2, endpoint.getCreates());
+
+			// A stream is sent once, the session is still renewed
+			InputStream in = new FileInputStream(file);
+			try {
+				Assert.assertNull(ZImport.createImport(zapi, new ZStreamDataSource(in, "text/plain;name=usage.csv",
+						"usage.csv")));
+			} finally {
+				in.close();
+			}
+			Assert.assertEquals(3, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+			Assert.assertEquals(3, endpoint.getCreates());
+			Assert.assertEquals(3, endpoint.getLogins());
+		} finally {
+			endpoint.stop();
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZInMemoryMetricsRegistryTest {
+
+	@Test
+	public void testLatencyHistogram() {
+		ZInMemoryMetricsRegistry metrics = new ZInMemoryMetricsRegistry();
+
+		for (int i = 0; i < 98; i++) {
+			metrics.recordCall(ZOperation.QUERY, TimeUnit.MILLISECONDS.toNanos(20), true);
+		}
+		metrics.recordCall(ZOperation.QUERY, TimeUnit.MILLISECONDS.toNanos(400), true);
+		metrics.recordCall(ZOperation.QUERY, TimeUnit.MILLISECONDS.toNanos(3000), false);
+
+		ZInMemoryMetricsRegistry.Stats stats = metrics.getStats(ZOperation.QUERY);
+		Assert.assertEquals(100, stats.getCalls());
+		Assert.assertEquals(1, stats.getErrors());
+		Assert.assertEquals(25, stats.getPercentileMillis(0.5));
+		Assert.assertEquals(500, stats.getPercentileMillis(0.99));
+		Assert.assertEquals(3000, stats.getPercentileMillis(1));
+		Assert.assertEquals(3000, stats.getMaxMillis());
+		Assert.assertEquals(0, metrics.getStats(ZOperation.CREATE).getCalls());
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getStats(ZOperation.QUERY).getCalls());
+	}
+
+	@Test
+	public void testZApiMeasures() {
+		// Nothing listens on this port: every call fails
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		ZInMemoryMetricsRegistry metrics = new ZInMemoryMetricsRegistry();
+		zapi.setMetricsRegistry(metrics);
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+
+		ZObject[] accounts = new ZObject[120];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = new Account();
+		}
+		Assert.assertNull(zapi.zCreate(accounts));
+
+		ZInMemoryMetricsRegistry.Stats stats = metrics.getStats(ZOperation.CREATE);
+		Assert.assertEquals(3, stats.getCalls());
+		Assert.assertEquals(3, stats.getErrors());
+		Assert.assertEquals(3, stats.getMaxChunks());
+		Assert.assertEquals(50, stats.getMaxPayload());
+		Assert.assertEquals(40.0, stats.getMeanPayload(), 0.001);
+		Assert.assertEquals(0, stats.getObjectsSucceeded());
+		Assert.assertEquals(120, stats.getObjectsFailed());
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+
+public class ZNukeTest {
+
+	/**
+	 * Tenant refusing to delete the records of the failing type
+	 */
+	private static class NukedTenant extends FakeTenant {
+
+		private volatile String failingType;
+
+		void add(String type, int count) {
+			for (int i = 0; i < count; i++) {
+				add(type, new Account());
+			}
+		}
+
+		@Override
+		protected boolean deletable(String type, String id) {
+			return !type.equals(failingType);
+		}
+	}
+
+	private File checkpoint;
+
+	@Before
+	public void setUp() throws IOException {
+		checkpoint = File.createTempFile("znuke-", ".properties");
+		checkpoint.delete();
+	}
+
+	@After
+	public void tearDown() {
+		checkpoint.delete();
+	}
+
+	@Test
+	public void testSetTypesSortsByDependency() {
+		ZNuke nuke = new ZNuke(new NukedTenant());
+		nuke.setTypes("Account", "Custom", "Usage", "Subscription");
+		Assert.assertEquals(Arrays.asList("Usage", "Subscription", "Account", "Custom"), nuke.getTypes());
+	}
+
+	@Test
+	public void testResumeAfterFailure() {
+		NukedTenant tenant = new NukedTenant();
+		tenant.add("Usage", 2500);
+		tenant.add("Account", 10);
+		tenant.failingType = "Account";
+
+		ZNuke nuke = new ZNuke(tenant);
+		nuke.setTypes("Account", "Usage");
+		nuke.setCheckpointFile(checkpoint);
+
+		Assert.assertFalse(nuke.launch());
+		Assert.assertEquals(0, tenant.count("Usage"));
+		Assert.assertEquals(10, tenant.count("Account"));
+		Assert.assertTrue(checkpoint.exists());
+
+		// The second run only queries the accounts
+		tenant.failingType = null;
+		tenant.queries.clear();
+		tenant.calls.clear();
+		Assert.assertTrue(nuke.launch());
+		Assert.assertEquals(0, tenant.count("Account"));
+		Assert.assertEquals(Arrays.asList("SELECT Id FROM Account"), tenant.queries);
+		Assert.assertEquals(1, Collections.frequency(tenant.calls, "delete Account 10"));
+		Assert.assertFalse(checkpoint.exists());
+	}
+
+	@Test(timeout = 20000)
+	public void testParallelChunks() {
+		final CountDownLatch parallel = new CountDownLatch(4);
+		NukedTenant tenant = new NukedTenant() {
+			@Override
+			protected void received(String call) {
+				if (call.startsWith("delete")) {
+					// Held until 4 chunks are in flight
+					parallel.countDown();
+					try {
+						parallel.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		};
+		tenant.add("Usage", 2110);
+
+		ZNuke nuke = new ZNuke(tenant);
+		nuke.setTypes("Usage");
+		nuke.setCheckpointFile(checkpoint);
+		nuke.setConcurrency(4);
+		Assert.assertTrue(nuke.launch());
+
+		Assert.assertEquals(0, tenant.count("Usage"));
+		// 40 chunks for the first page, 3 for the second
+		Assert.assertEquals(42, Collections.frequency(tenant.calls, "delete Usage 50"));
+		Assert.assertEquals(1, Collections.frequency(tenant.calls, "delete Usage 10"));
+		Assert.assertEquals(4, tenant.getMaxInFlight());
+		// The ZApi settings are left alone
+		Assert.assertEquals(1, tenant.getChunkConcurrency());
+	}
+
+	@Test
+	public void testDryRunDeletesNothing() {
+		NukedTenant tenant = new NukedTenant();
+		tenant.add("Usage", 2500);
+
+		ZNuke nuke = new ZNuke(tenant);
+		nuke.setTypes("Usage");
+		nuke.setConcurrency(4);
+		nuke.setDeleteLatency(100);
+		ZNukeReport report = nuke.dryRun();
+
+		Assert.assertEquals(2500, tenant.count("Usage"));
+		ZNukeReport.TypeReport usage = report.getTypes().get(0);
+		Assert.assertEquals(2500, usage.getCount());
+		Assert.assertTrue(usage.isComplete());
+		Assert.assertEquals(50, usage.getDeleteCalls());
+		// 40 calls for the first page (10 waves), 10 for the second (3 waves)
+		Assert.assertEquals(1300, usage.getEstimatedDeleteMillis());
+		Assert.assertEquals(ZNukeReport.LatencySource.CONFIGURED, report.getLatencySource());
+		Assert.assertTrue(report.toJson().contains("{\"type\": \"Usage\", \"count\": 2500, \"complete\": true"));
+	}
+
+	@Test
+	public void testDryRunSamplesLatency() {
+		NukedTenant tenant = new NukedTenant();
+		tenant.add("Usage", 2500);
+		// No delete measured
+		tenant.setMetricsRegistry(null);
+
+		ZNuke nuke = new ZNuke(tenant);
+		nuke.setTypes("Usage");
+		nuke.setConcurrency(4);
+		ZNukeReport report = nuke.dryRun();
+
+		// Sampled from the 2 query pages, 13 waves of delete calls
+		Assert.assertEquals(ZNukeReport.LatencySource.SAMPLED, report.getLatencySource());
+		Assert.assertEquals(Math.round(13 * report.getDeleteLatencyMillis()), report.getTypes().get(0)
+				.getEstimatedDeleteMillis());
+	}
+
+}
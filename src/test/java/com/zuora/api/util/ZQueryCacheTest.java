@@ -0,0 +1,196 @@
+package com.zuora.api.util;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.AmendRequest;
+import com.zuora.api.axis2.ZuoraServiceStub.DeleteResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Product;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.Subscription;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZQueryCacheTest {
+
+	@Test
+	public void testNormalize() {
+		Assert.assertEquals(ZQueryCache.normalize("select Id, Name from Product where Name = 'My  Product'"),
+				ZQueryCache.normalize("SELECT Id ,Name\n  FROM  Product WHERE Name='My  Product'"));
+		Assert.assertFalse(ZQueryCache.normalize("SELECT Id FROM Product WHERE Name = 'a'").equals(
+				ZQueryCache.normalize("SELECT Id FROM Product WHERE Name = 'A'")));
+		Assert.assertEquals("product", ZQueryCache.type(ZQueryCache.normalize("SELECT Id FROM Product")));
+	}
+
+	@Test
+	public void testTtlPerType() throws InterruptedException {
+		ZQueryCache cache = new ZQueryCache(10, 0);
+		cache.setTtl("Product", 60000);
+		cache.setTtl("ProductRatePlan", 1);
+
+		cache.putResult("SELECT Id FROM Product", result());
+		cache.putResult("SELECT Id FROM ProductRatePlan", result());
+		cache.putResult("SELECT Id FROM Account", result());
+		Thread.sleep(5);
+
+		Assert.assertNotNull(cache.getResult("select id from product"));
+		Assert.assertNull(cache.getResult("SELECT Id FROM ProductRatePlan"));
+		Assert.assertNull(cache.getResult("SELECT Id FROM Account"));
+
+		ZQueryCache.Stats stats = cache.getStats();
+		Assert.assertEquals(1, stats.getHits());
+		Assert.assertEquals(2, stats.getMisses());
+		Assert.assertEquals(1, stats.getExpirations());
+		Assert.assertEquals(1, stats.getSize());
+	}
+
+	@Test
+	public void testLruEvictionAndInvalidation() {
+		ZQueryCache cache = new ZQueryCache(2, 60000);
+		cache.putResult("SELECT Id FROM Product WHERE Name = 'a'", result());
+		cache.putResult("SELECT Id FROM Product WHERE Name = 'b'", result());
+		// Makes 'b' the least recently used
+		cache.getResult("SELECT Id FROM Product WHERE Name = 'a'");
+		cache.putResult("SELECT Id FROM ProductRatePlan", result());
+
+		Assert.assertNull(cache.getResult("SELECT Id FROM Product WHERE Name = 'b'"));
+		Assert.assertNotNull(cache.getResult("SELECT Id FROM Product WHERE Name = 'a'"));
+		Assert.assertEquals(1, cache.getStats().getEvictions());
+
+		cache.invalidate("Product");
+		Assert.assertNull(cache.getResult("SELECT Id FROM Product WHERE Name = 'a'"));
+		Assert.assertNotNull(cache.getResult("SELECT Id FROM ProductRatePlan"));
+	}
+
+	@Test
+	public void testZQueryUsesCache() {
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		zapi.setThrottle(null);
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		ZQueryCache cache = new ZQueryCache(10, 60000);
+		QueryResult cached = result();
+		cache.putResult("SELECT Id FROM Product", cached);
+		zapi.setQueryCache(cache);
+
+		// No call sent, the endpoint is not reachable
+		Assert.assertArrayEquals(cached.getRecords(), zapi.zQuery("SELECT Id FROM Product").getRecords());
+		Assert.assertNull(zapi.zQuery("SELECT Id FROM Account"));
+	}
+
+	@Test
+	public void testIterateCachedQuery() {
+		FakeTenant tenant = new FakeTenant();
+		for (int i = 0; i < 3; i++) {
+			tenant.add("Product", new Product());
+		}
+		tenant.setQueryCache(new ZQueryCache(10, 60000));
+
+		// The iterator clears the records array it reads, not the cached one
+		for (int run = 0; run < 2; run++) {
+			ZQueryIterator records = tenant.zQueryIterator("SELECT Id FROM Product");
+			int count = 0;
+			while (records.hasNext()) {
+				Assert.assertNotNull(records.next().getId());
+				count++;
+			}
+			Assert.assertEquals(3, count);
+		}
+		QueryResult result = tenant.zQuery("SELECT Id FROM Product");
+		Assert.assertEquals(3, result.getRecords().length);
+		Assert.assertNotNull(result.getRecords()[2]);
+		Assert.assertEquals(1, tenant.queries.size());
+	}
+
+	@Test
+	public void testAmendInvalidatesCache() {
+		FakeTenant tenant = new FakeTenant();
+		tenant.add("Subscription", new Subscription());
+		tenant.setQueryCache(new ZQueryCache(10, 60000));
+
+		tenant.zQuery("SELECT Id FROM Subscription");
+		tenant.zQuery("SELECT Id FROM Subscription");
+		Assert.assertEquals(1, tenant.queries.size());
+
+		tenant.zAmend(new AmendRequest[] { new AmendRequest() });
+		tenant.zQuery("SELECT Id FROM Subscription");
+		Assert.assertEquals(2, tenant.queries.size());
+	}
+
+	@Test(timeout = 20000)
+	public void testAsyncWriteInvalidatesCache() throws Exception {
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		zapi.setThrottle(null);
+		ZQueryCache cache = new ZQueryCache(10, 60000);
+		cache.putResult("SELECT Id FROM Product", result());
+		zapi.setQueryCache(cache);
+
+		// The delete fails, it may still have been applied
+		ZFuture<DeleteResult[]> deleted = new ZApiAsync(zapi).zDelete(new String[] { FakeTenant.id(1) }, "Product");
+		try {
+			deleted.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			// The endpoint is not reachable
+		}
+		Assert.assertNull(cache.getResult("SELECT Id FROM Product"));
+	}
+
+	@Test
+	public void testStaleResultNotStored() {
+		ZQueryCache cache = new ZQueryCache(10, 60000);
+		long generation = cache.getGeneration("SELECT Id FROM Product");
+		long other = cache.getGeneration("SELECT Id FROM Account");
+
+		// A write of the type lands while the query is in flight
+		cache.invalidate("Product");
+		cache.putResult("SELECT Id FROM Product", result(), generation);
+		cache.putResult("SELECT Id FROM Account", result(), other);
+
+		Assert.assertNull(cache.getResult("SELECT Id FROM Product"));
+		Assert.assertNotNull(cache.getResult("SELECT Id FROM Account"));
+
+		cache.invalidateAll();
+		cache.putResult("SELECT Id FROM Account", result(), other);
+		Assert.assertNull(cache.getResult("SELECT Id FROM Account"));
+	}
+
+	@Test(timeout = 20000)
+	public void testZQueryRacingWrite() throws Exception {
+		FakeZuoraEndpoint endpoint = new FakeZuoraEndpoint();
+		try {
+			final ZApi zapi = new ZApi(endpoint.getEndpoint());
+			zapi.setThrottle(null);
+			zapi.setRetryPolicy(ZRetryPolicy.none());
+			ZQueryCache cache = new ZQueryCache(10, 60000);
+			zapi.setQueryCache(cache);
+
+			endpoint.hold(1);
+			Thread query = new Thread() {
+				@Override
+				public void run() {
+					zapi.zQuery("SELECT Id FROM Product");
+				}
+			};
+			query.start();
+			Assert.assertTrue(endpoint.awaitQueries(5000));
+			cache.invalidate("Product");
+			endpoint.release();
+			query.join();
+
+			Assert.assertNull(cache.getResult("SELECT Id FROM Product"));
+			Assert.assertEquals(0, cache.getStats().getSize());
+		} finally {
+			endpoint.stop();
+		}
+	}
+
+	private static QueryResult result() {
+		QueryResult result = new QueryResult();
+		result.setRecords(new ZObject[0]);
+		result.setSize(0);
+		result.setDone(true);
+		return result;
+	}
+
+}
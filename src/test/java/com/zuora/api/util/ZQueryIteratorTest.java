@@ -0,0 +1,184 @@
+package com.zuora.api.util;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ID;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryLocator;
+import com.zuora.api.axis2.ZuoraServiceStub.QueryResult;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZQueryIteratorTest {
+
+	/**
+	 * Fake API returning `pages` pages of `pageSize` accounts without calling
+	 * Zuora
+	 */
+	static class PagedZApi extends ZApi {
+
+		final int pages;
+		final int pageSize;
+		volatile int calls = 0;
+
+		/** The thread of the last call */
+		volatile Thread caller;
+
+		PagedZApi(int pages, int pageSize) {
+			super("http://localhost");
+			this.pages = pages;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public QueryResult zQuery(String queryString) {
+			return page(0);
+		}
+
+		@Override
+		public QueryResult zQueryMore(QueryLocator queryLocator) {
+			return page(Integer.parseInt(queryLocator.getQueryLocator()));
+		}
+
+		QueryResult page(int index) {
+			caller = Thread.currentThread();
+			calls++;
+			QueryResult result = new QueryResult();
+			ZObject[] records = new ZObject[pages == 0 ? 0 : pageSize];
+			for (int i = 0; i < records.length; i++) {
+				Account account = new Account();
+				ID id = new ID();
+				id.setID(String.valueOf(index * pageSize + i));
+				account.setId(id);
+				records[i] = account;
+			}
+			result.setRecords(records);
+			result.setSize(pages * pageSize);
+			result.setDone(index >= pages - 1);
+			QueryLocator locator = new QueryLocator();
+			locator.setQueryLocator(String.valueOf(index + 1));
+			result.setQueryLocator(locator);
+			return result;
+		}
+	}
+
+	@Test
+	public void testIterateAllPages() {
+		PagedZApi zapi = new PagedZApi(3, 4);
+
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account");
+		int i = 0;
+		while (iterator.hasNext()) {
+			Assert.assertEquals(String.valueOf(i), iterator.next().getId().getID());
+			i++;
+		}
+
+		Assert.assertEquals(12, i);
+		Assert.assertEquals(12, iterator.getCount());
+		Assert.assertEquals(3, zapi.calls);
+		Assert.assertFalse(iterator.isFailed());
+	}
+
+	@Test
+	public void testPagesAreFetchedLazily() {
+		PagedZApi zapi = new PagedZApi(3, 4);
+
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account");
+		Assert.assertEquals(0, zapi.calls);
+
+		for (int i = 0; i < 5; i++) {
+			iterator.next();
+		}
+		Assert.assertEquals(2, zapi.calls);
+
+		// Stopping early must not fetch the remaining page
+		iterator.close();
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertEquals(2, zapi.calls);
+	}
+
+	@Test
+	public void testEmptyResult() {
+		PagedZApi zapi = new PagedZApi(0, 4);
+
+		List result = zapi.zAdvancedQuery("SELECT Id FROM Account");
+		Assert.assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void testAdvancedQueryReturnsAllRecords() {
+		PagedZApi zapi = new PagedZApi(2, 3);
+
+		List result = zapi.zAdvancedQuery("SELECT Id FROM Account");
+		Assert.assertEquals(6, result.size());
+	}
+
+	@Test
+	public void testPrefetchIterateAllPages() {
+		PagedZApi zapi = new PagedZApi(5, 3);
+
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account", 2);
+		int i = 0;
+		while (iterator.hasNext()) {
+			Assert.assertEquals(String.valueOf(i), iterator.next().getId().getID());
+			i++;
+		}
+
+		Assert.assertEquals(15, i);
+		Assert.assertEquals(5, zapi.calls);
+		Assert.assertFalse(iterator.isFailed());
+	}
+
+	@Test
+	public void testPrefetchIsBoundedByReadAhead() throws InterruptedException {
+		PagedZApi zapi = new PagedZApi(10, 2);
+
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account", 2);
+		iterator.next();
+
+		// The page being consumed, 2 pages in the queue and 1 waiting to be queued
+		Thread fetcher = awaitBlocked(zapi, 4);
+		Assert.assertEquals(4, zapi.calls);
+
+		iterator.close();
+		fetcher.join(5000);
+		Assert.assertFalse(fetcher.isAlive());
+		Assert.assertEquals(4, zapi.calls);
+	}
+
+	@Test(timeout = 20000)
+	public void testPrefetchStopsWhenIteratorGone() throws InterruptedException {
+		PagedZApi zapi = new PagedZApi(10, 2);
+
+		ZQueryIterator iterator = zapi.zQueryIterator("SELECT Id FROM Account", 2);
+		iterator.next();
+		Thread fetcher = awaitBlocked(zapi, 4);
+
+		// Abandoned without close()
+		iterator = null;
+		while (fetcher.isAlive()) {
+			System.gc();
+			fetcher.join(100);
+		}
+		Assert.assertEquals(4, zapi.calls);
+	}
+
+	/**
+	 * Wait until the prefetch thread has made the given number of calls and
+	 * waits for room in the queue
+	 *
+	 * @return The prefetch thread
+	 */
+	private static Thread awaitBlocked(PagedZApi zapi, int calls) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (zapi.calls < calls || zapi.caller.getState() != Thread.State.TIMED_WAITING) {
+			Assert.assertTrue("Prefetch not blocked after " + zapi.calls + " call(s)",
+					System.currentTimeMillis() < deadline);
+			Thread.yield();
+		}
+		return zapi.caller;
+	}
+
+}
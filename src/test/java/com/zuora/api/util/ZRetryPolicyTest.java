@@ -0,0 +1,97 @@
+package com.zuora.api.util;
+
+import java.net.ConnectException;
+import java.rmi.RemoteException;
+import java.util.EnumSet;
+
+import org.apache.axis2.AxisFault;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zuora.api.axis2.UnexpectedErrorFault;
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ErrorCode;
+import com.zuora.api.axis2.ZuoraServiceStub.UnexpectedErrorFaultE;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZRetryPolicyTest {
+
+	private UnexpectedErrorFault fault(String code) {
+		com.zuora.api.axis2.ZuoraServiceStub.UnexpectedErrorFault type = new com.zuora.api.axis2.ZuoraServiceStub.UnexpectedErrorFault();
+		type.setFaultCode(ErrorCode.Factory.fromValue(code));
+		UnexpectedErrorFaultE message = new UnexpectedErrorFaultE();
+		message.setUnexpectedErrorFault(type);
+		UnexpectedErrorFault fault = new UnexpectedErrorFault(code);
+		fault.setFaultMessage(message);
+		return fault;
+	}
+
+	@Test
+	public void testRetryable() {
+		ZRetryPolicy policy = new ZRetryPolicy();
+
+		Assert.assertTrue(policy.isRetryable(ZOperation.QUERY, fault("LOCK_COMPETITION")));
+		Assert.assertTrue(policy.isRetryable(ZOperation.CREATE, fault("REQUEST_EXCEEDED_RATE")));
+		Assert.assertFalse(policy.isRetryable(ZOperation.QUERY, fault("INVALID_VALUE")));
+		Assert.assertFalse(policy.isRetryable(ZOperation.QUERY, new RemoteException("no cause")));
+
+		AxisFault network = AxisFault.makeFault(new ConnectException("Connection refused"));
+		Assert.assertTrue(policy.isRetryable(ZOperation.QUERY, network));
+		Assert.assertTrue(policy.isRetryable(ZOperation.UPDATE, network));
+
+		policy.setRetryNetworkErrors(false);
+		Assert.assertFalse(policy.isRetryable(ZOperation.QUERY, network));
+	}
+
+	@Test
+	public void testNetworkErrorsNotIdempotent() {
+		ZRetryPolicy policy = new ZRetryPolicy();
+		AxisFault network = AxisFault.makeFault(new ConnectException("Connection refused"));
+
+		Assert.assertFalse(policy.isRetryable(ZOperation.CREATE, network));
+		Assert.assertFalse(policy.isRetryable(ZOperation.SUBSCRIBE, network));
+		Assert.assertFalse(policy.isRetryable(ZOperation.AMEND, network));
+
+		policy.setNetworkRetryOperations(EnumSet.allOf(ZOperation.class));
+		Assert.assertTrue(policy.isRetryable(ZOperation.CREATE, network));
+	}
+
+	@Test
+	public void testDelays() {
+		ZRetryPolicy policy = new ZRetryPolicy(5, 100, 300);
+		policy.setJitter(0);
+
+		Assert.assertEquals(100, policy.getDelayMillis(1));
+		Assert.assertEquals(200, policy.getDelayMillis(2));
+		Assert.assertEquals(300, policy.getDelayMillis(3));
+		Assert.assertEquals(300, policy.getDelayMillis(4));
+
+		policy.setJitter(0.5);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.getDelayMillis(2);
+			Assert.assertTrue("delay = " + delay, delay >= 100 && delay <= 200);
+		}
+	}
+
+	@Test
+	public void testRetriedByZApi() {
+		// Nothing listens on this port: every attempt fails with a network error
+		ZApi zapi = new ZApi("http://localhost:1/apps/services/a/79.0");
+		ZThrottle throttle = new ZThrottle();
+		zapi.setThrottle(throttle);
+		zapi.setRetryPolicy(new ZRetryPolicy(3, 10, 50));
+
+		Assert.assertNull(zapi.zQuery("SELECT Id FROM Account"));
+		Assert.assertEquals(3, throttle.getStats(ZOperation.Type.QUERY).getCalls());
+
+		zapi.setRetryPolicy(ZRetryPolicy.none());
+		Assert.assertNull(zapi.zQuery("SELECT Id FROM Account"));
+		Assert.assertEquals(4, throttle.getStats(ZOperation.Type.QUERY).getCalls());
+
+		// A create may have been processed, it is not sent again
+		zapi.setRetryPolicy(new ZRetryPolicy(3, 10, 50));
+		Assert.assertNull(zapi.zCreate(new ZObject[] { new Account() }));
+		Assert.assertEquals(1, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+	}
+
+}
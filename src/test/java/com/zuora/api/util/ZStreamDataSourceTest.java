@@ -0,0 +1,59 @@
+package com.zuora.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZStreamDataSourceTest {
+
+	private static final String CONTENT = "ACCOUNT_ID,UOM,QTY\nA00000001,Each,1\n";
+
+	@Test
+	public void testFileCanBeReadTwice() throws IOException {
+		File file = File.createTempFile("zimport-", ".csv");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			out.write(CONTENT.getBytes("UTF-8"));
+			out.close();
+
+			ZStreamDataSource dataSource = new ZStreamDataSource(file, "text/plain;name=usage.csv");
+			Assert.assertEquals(CONTENT, read(dataSource.getInputStream()));
+			Assert.assertEquals(CONTENT, read(dataSource.getInputStream()));
+			Assert.assertEquals(CONTENT.length(), dataSource.getSize());
+			Assert.assertEquals("text/plain;name=usage.csv", dataSource.getContentType());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testStreamCanBeReadOnce() throws IOException {
+		ZStreamDataSource dataSource = new ZStreamDataSource(new ByteArrayInputStream(CONTENT.getBytes("UTF-8")),
+				"text/plain;name=usage.csv", "usage.csv");
+		Assert.assertEquals(CONTENT, read(dataSource.getInputStream()));
+		try {
+			dataSource.getInputStream();
+			Assert.fail("The stream has already been read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		StringBuilder content = new StringBuilder();
+		byte[] buffer = new byte[8];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			content.append(new String(buffer, 0, read, "UTF-8"));
+		}
+		in.close();
+		return content.toString();
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zuora.api.axis2.ZuoraServiceStub.Account;
+import com.zuora.api.axis2.ZuoraServiceStub.ZObject;
+
+public class ZSyncEngineTest {
+
+	/**
+	 * Fake tenant filtering the accounts on the UpdatedDate bounds of the
+	 * query
+	 */
+	private static class SyncedTenant extends FakeTenant {
+
+		void account(String id, Calendar updatedDate) {
+			Account account = new Account();
+			account.setId(newId(id));
+			account.setUpdatedDate(updatedDate);
+			add("Account", account);
+		}
+
+		@Override
+		protected boolean matches(String queryString, ZObject record) {
+			Calendar from = bound(queryString, ">=");
+			Calendar to = bound(queryString, "<");
+			Calendar updated = ((Account) record).getUpdatedDate();
+			return (from == null || !updated.before(from)) && updated.before(to);
+		}
+
+		private static Calendar bound(String queryString, String operator) {
+			Matcher matcher = Pattern.compile("UpdatedDate " + operator + " '([^']*)'").matcher(queryString);
+			if (!matcher.find()) {
+				return null;
+			}
+			String value = matcher.group(1);
+			value = value.substring(0, value.length() - 3) + value.substring(value.length() - 2);
+			try {
+				Calendar date = Calendar.getInstance();
+				date.setTime(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").parse(value));
+				return date;
+			} catch (ParseException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	/**
+	 * Sink keeping the IDs received
+	 */
+	private static class ListSink implements ZSyncSink {
+
+		private final List<String> ids = new ArrayList<String>();
+
+		private boolean failing;
+
+		@Override
+		public void write(String type, List<ZObject> records) throws Exception {
+			if (failing) {
+				throw new Exception("Database down");
+			}
+			for (ZObject record : records) {
+				ids.add(record.getId().getID());
+			}
+		}
+
+		@Override
+		public void flush(String type) {
+		}
+	}
+
+	private File file;
+
+	private SyncedTenant tenant;
+
+	private ListSink sink;
+
+	private ZSyncEngine engine;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("zsync-", ".properties");
+		file.delete();
+		tenant = new SyncedTenant();
+		sink = new ListSink();
+		engine = new ZSyncEngine(tenant, new ZFileWatermarkStore(file), sink);
+		engine.removeType("Subscription");
+		engine.removeType("Invoice");
+		engine.removeType("Payment");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testOnlyChangesAreSent() throws IOException {
+		tenant.account(id('a'), date(0, 0));
+		tenant.account(id('b'), date(0, 5));
+		tenant.account(id('c'), date(0, 5));
+		Assert.assertEquals(3, engine.sync("Account"));
+
+		// B and C, at the watermark, are not sent again
+		Assert.assertEquals(0, engine.sync("Account"));
+
+		// D updated in the same second as B and C, A updated again
+		tenant.account(id('d'), date(0, 5));
+		tenant.account(id('a'), date(1, 0));
+		sink.ids.clear();
+		Assert.assertEquals(2, engine.sync("Account"));
+		Assert.assertEquals(2, sink.ids.size());
+		Assert.assertTrue(sink.ids.contains(id('a')) && sink.ids.contains(id('d')));
+
+		ZSyncWatermark watermark = new ZFileWatermarkStore(file).load("Account");
+		Assert.assertEquals(date(1, 0).getTimeInMillis(), watermark.getUpdatedDate().getTimeInMillis());
+		Assert.assertEquals(1, watermark.getBoundaryIds().size());
+	}
+
+	@Test
+	public void testWatermarkKeptOnSinkFailure() throws IOException {
+		tenant.account(id('a'), date(0, 0));
+		sink.failing = true;
+		Assert.assertEquals(-1, engine.sync("Account"));
+		Assert.assertNull(new ZFileWatermarkStore(file).load("Account"));
+
+		sink.failing = false;
+		Assert.assertEquals(1, engine.sync("Account"));
+	}
+
+	private static String id(char c) {
+		StringBuilder id = new StringBuilder();
+		for (int i = 0; i < 32; i++) {
+			id.append(c);
+		}
+		return id.toString();
+	}
+
+	private static Calendar date(int minute, int second) {
+		Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		date.clear();
+		date.set(2014, Calendar.FEBRUARY, 12, 10, minute, second);
+		return date;
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.zuora.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZThrottleTest {
+
+	@Test
+	public void testCallsPerSecond() throws Exception {
+		ZThrottle throttle = new ZThrottle();
+		throttle.setLimits(ZOperation.Type.QUERY, 10, 0);
+
+		// A burst of 10 calls, then 10 more at 10 per second
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 20; i++) {
+			throttle.acquire(ZOperation.QUERY).release();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertTrue("elapsed = " + elapsed, elapsed >= 800);
+		Assert.assertTrue("elapsed = " + elapsed, elapsed < 3000);
+
+		ZThrottle.Stats stats = throttle.getStats(ZOperation.Type.QUERY);
+		Assert.assertEquals(20, stats.getCalls());
+		Assert.assertTrue(stats.getThrottledCalls() >= 8);
+		Assert.assertEquals(0, stats.getInFlight());
+
+		// The other types are not limited
+		Assert.assertEquals(0, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+		start = System.currentTimeMillis();
+		for (int i = 0; i < 20; i++) {
+			throttle.acquire(ZOperation.CREATE).release();
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 500);
+	}
+
+	@Test
+	public void testMaxInFlight() throws Exception {
+		final ZThrottle throttle = new ZThrottle();
+		throttle.setGlobalLimits(0, 3);
+		throttle.setLimits(ZOperation.Type.WRITE, 0, 2);
+
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxWrites = new AtomicInteger();
+		final AtomicInteger maxAll = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final ZOperation operation = i % 2 == 0 ? ZOperation.UPDATE : ZOperation.QUERY;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ZThrottle.Permit permit = throttle.acquire(operation);
+						int all = inFlight.incrementAndGet();
+						synchronized (maxAll) {
+							maxAll.set(Math.max(maxAll.get(), all));
+							maxWrites.set(Math.max(maxWrites.get(), throttle.getStats(ZOperation.Type.WRITE).getInFlight()));
+						}
+						Thread.sleep(50);
+						inFlight.decrementAndGet();
+						permit.release();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertTrue("max in flight = " + maxAll.get(), maxAll.get() <= 3);
+		Assert.assertTrue("max writes in flight = " + maxWrites.get(), maxWrites.get() <= 2);
+		Assert.assertEquals(4, throttle.getStats(ZOperation.Type.WRITE).getCalls());
+		Assert.assertEquals(0, throttle.getStats(ZOperation.Type.WRITE).getInFlight());
+		Assert.assertTrue(throttle.getStats(ZOperation.Type.QUERY).getMaxWaitMillis() > 0
+				|| throttle.getStats(ZOperation.Type.WRITE).getMaxWaitMillis() > 0);
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.zuora.api.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZUsageWriterTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("zusage-", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testWriteFormatsRows() throws IOException {
+		ZUsageWriter writer = new ZUsageWriter(new File(directory, "usage.csv"));
+		writer.setTimeZone(TimeZone.getTimeZone("UTC"));
+		ZUsageRecord record = new ZUsageRecord("A66666666", "Each", new BigDecimal("666"), date(2014, 2, 12));
+		record.setDescription("Calls, \"premium\"");
+		writer.write(record);
+		writer.close();
+
+		List<File> files = writer.getFiles();
+		Assert.assertEquals(1, files.size());
+		Assert.assertEquals("usage.csv", files.get(0).getName());
+		Assert.assertEquals(ZUsageWriter.HEADER + "\nA66666666,Each,666,02/12/2014,,,,\"Calls, \"\"premium\"\"\"\n",
+				read(files.get(0)));
+	}
+
+	@Test
+	public void testWriteRollsFiles() throws IOException {
+		ZUsageWriter writer = new ZUsageWriter(directory, "usage.csv", 200);
+		for (int i = 0; i < 10; i++) {
+			writer.write(new ZUsageRecord("A0000000" + i, "Each", BigDecimal.ONE, new Date()));
+		}
+		writer.close();
+
+		Assert.assertTrue(writer.getFiles().size() > 1);
+		Assert.assertEquals(10, writer.getRowCount());
+		Assert.assertEquals("usage-part-001.csv", writer.getFiles().get(0).getName());
+		for (File file : writer.getFiles()) {
+			Assert.assertTrue(file.length() <= 200);
+			Assert.assertTrue(read(file).startsWith(ZUsageWriter.HEADER + "\n"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWriteRejectsEndBeforeStart() throws IOException {
+		ZUsageWriter writer = new ZUsageWriter(new File(directory, "usage.csv"));
+		try {
+			ZUsageRecord record = new ZUsageRecord("A66666666", "Each", BigDecimal.ONE, date(2014, 2, 12));
+			record.setEndDate(date(2014, 2, 11));
+			writer.write(record);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static Date date(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day);
+		return calendar.getTime();
+	}
+
+	private static String read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				read += in.read(bytes, read, bytes.length - read);
+			}
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+}